@@ -0,0 +1,265 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.io.LengthPrefix;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Parser for batch files of length-prefixed messages, e.g., end-of-day clearing files
+ * <p/>
+ * The file is memory-mapped (read-only) and indexed in a single pass over the length
+ * specifiers of its records; the records are then parsed in parallel on a fork/join pool,
+ * directly from the mapped file, without copying its content to the heap
+ * <p/>
+ * Example:</br>
+ * <code>
+ * final List&lt;Message&gt; messages = new BatchParser(factory, LengthPrefix.binary(2)).parse(file);
+ * </code>
+ * @author phillipsr
+ */
+public class BatchParser {
+  /** number of records below which a task parses its records, rather than splitting them */
+  private static final int Threshold = 256;
+
+  private final MessageFactory factory;
+  private final LengthPrefix prefix;
+  private final ForkJoinPool pool;
+  private final int maxSegmentSize;
+
+  /** Receives the messages parsed from a batch, in no particular order, on the pool's threads */
+  public interface RecordHandler {
+    /**
+     * @param record  index of the record in the batch file, from zero
+     * @param message parsed from the record
+     */
+    void onMessage(int record, Message message);
+  }
+
+  /**
+   * Instantiate a batch parser, parsing records with the message factory supplied, in
+   * parallel using a pool with one thread per available processor
+   * @param factory used to parse each record
+   * @param prefix  codec for the length specifier preceding each record
+   * @throws NullPointerException if either argument is null
+   */
+  public BatchParser(final MessageFactory factory, final LengthPrefix prefix) {
+    this(factory, prefix, null);
+  }
+
+  /**
+   * Instantiate a batch parser, parsing records with the message factory supplied, in
+   * parallel on the fork/join pool supplied
+   * @param factory used to parse each record
+   * @param prefix  codec for the length specifier preceding each record
+   * @param pool    on which records are parsed, or null to create a pool for each batch
+   * @throws NullPointerException if the factory or prefix is null
+   */
+  public BatchParser(final MessageFactory factory, final LengthPrefix prefix, final ForkJoinPool pool) {
+    this(factory, prefix, pool, Integer.MAX_VALUE);
+  }
+
+  /** instantiate a batch parser, mapping the file in segments of up to <code>maxSegmentSize</code> bytes */
+  BatchParser(final MessageFactory factory, final LengthPrefix prefix, final ForkJoinPool pool, final int maxSegmentSize) {
+    Preconditions.checkNotNull(factory, "Message factory cannot be null");
+    Preconditions.checkNotNull(prefix, "Length prefix cannot be null");
+    this.factory = factory;
+    this.prefix = prefix;
+    this.pool = pool;
+    this.maxSegmentSize = maxSegmentSize;
+  }
+
+  /**
+   * Parse all the records in the batch file
+   * @param file holding the length-prefixed records
+   * @return the messages parsed, in file order
+   * @throws IOException      if the file cannot be read, or ends part way through a record
+   * @throws MessageException if a record cannot be parsed, identifying the record
+   */
+  public List<Message> parse(final File file) throws IOException {
+    final RecordIndex index = index(file);
+    final Message[] result = new Message[index.size()];
+    execute(new ParseTask(index, 0, index.size(), result, null));
+    return Collections.unmodifiableList(Arrays.asList(result));
+  }
+
+  /**
+   * Parse all the records in the batch file, passing each message to the handler as it is
+   * parsed, in no particular order, without holding the messages in memory
+   * @param file    holding the length-prefixed records
+   * @param handler to receive the messages parsed; called concurrently from the pool's threads
+   * @return the number of records parsed
+   * @throws IOException      if the file cannot be read, or ends part way through a record
+   * @throws MessageException if a record cannot be parsed, identifying the record
+   */
+  public int parse(final File file, final RecordHandler handler) throws IOException {
+    Preconditions.checkNotNull(handler, "Record handler cannot be null");
+    final RecordIndex index = index(file);
+    execute(new ParseTask(index, 0, index.size(), null, handler));
+    return index.size();
+  }
+
+  private void execute(final ParseTask task) {
+    if (pool != null) {
+      pool.invoke(task);
+      return;
+    }
+    final ForkJoinPool batchPool = new ForkJoinPool();
+    try {
+      batchPool.invoke(task);
+    } finally {
+      batchPool.shutdown();
+    }
+  }
+
+  /**
+   * Map the batch file and index its records, reading only their length specifiers
+   * @throws IOException if the file cannot be read, or ends part way through a record
+   */
+  RecordIndex index(final File file) throws IOException {
+    Preconditions.checkNotNull(file, "Batch file cannot be null");
+    final RecordIndex result = new RecordIndex();
+    try (final RandomAccessFile input = new RandomAccessFile(file, "r")) {
+      final FileChannel channel = input.getChannel();
+      final long size = channel.size();
+      long segmentStart = 0;
+      ByteBuffer segment = null;
+      long position = 0;
+      while (position < size) {
+        if (size - position < prefix.getSize()) {
+          throw new EOFException("Batch file ends part way through the length specifier of record "
+              + result.size() + " at offset " + position);
+        }
+        if (segment == null || position + prefix.getSize() > segmentStart + segment.capacity()) {
+          segmentStart = position;
+          segment = map(channel, segmentStart, size);
+          result.addSegment(segment, segmentStart);
+        }
+        segment.position((int) (position - segmentStart));
+        final int length = prefix.read(segment);
+        final long end = position + prefix.getSize() + length;
+        if (end > size) {
+          throw new EOFException("Batch file ends part way through record " + result.size()
+              + " at offset " + position + " (length=" + length + ")");
+        }
+        if (end > segmentStart + segment.capacity()) {
+          if (position == segmentStart) {
+            throw new IOException("Record " + result.size() + " at offset " + position + " exceeds maximum segment size");
+          }
+          segment = null; // remap from the start of this record
+          continue;
+        }
+        result.addRecord((int) (position - segmentStart) + prefix.getSize(), length);
+        position = end;
+      }
+    }
+    return result;
+  }
+
+  private ByteBuffer map(final FileChannel channel, final long start, final long size) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, maxSegmentSize));
+  }
+
+  /** Index of the records in a mapped batch file: the location of each record's message data */
+  static final class RecordIndex {
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final List<Long> segmentStarts = new ArrayList<>();
+    private int[] segment = new int[1024];
+    private int[] offsets = new int[1024];
+    private int[] lengths = new int[1024];
+    private int count;
+
+    private void addSegment(final ByteBuffer mapped, final long start) {
+      segments.add(mapped);
+      segmentStarts.add(start);
+    }
+
+    private void addRecord(final int offset, final int length) {
+      if (count == offsets.length) {
+        segment = Arrays.copyOf(segment, count * 2);
+        offsets = Arrays.copyOf(offsets, count * 2);
+        lengths = Arrays.copyOf(lengths, count * 2);
+      }
+      segment[count] = segments.size() - 1;
+      offsets[count] = offset;
+      lengths[count] = length;
+      count++;
+    }
+
+    /** @return the number of records in the file */
+    int size() {
+      return count;
+    }
+
+    /** @return a new buffer holding the message data of <code>record</code>, sharing the mapped file */
+    ByteBuffer getRecord(final int record) {
+      final ByteBuffer result = segments.get(segment[record]).duplicate();
+      result.limit(offsets[record] + lengths[record]);
+      result.position(offsets[record]);
+      return result;
+    }
+
+    /** @return the offset in the file of the message data of <code>record</code> */
+    long getFileOffset(final int record) {
+      return segmentStarts.get(segment[record]) + offsets[record];
+    }
+  }
+
+  /** Task to parse a range of records, splitting the range between sub-tasks if large */
+  private final class ParseTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final RecordIndex index;
+    private final int from;
+    private final int to;
+    private final Message[] results;
+    private final RecordHandler handler;
+
+    private ParseTask(final RecordIndex index, final int from, final int to, final Message[] results, final RecordHandler handler) {
+      this.index = index;
+      this.from = from;
+      this.to = to;
+      this.results = results;
+      this.handler = handler;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > Threshold) {
+        final int middle = (from + to) >>> 1;
+        invokeAll(new ParseTask(index, from, middle, results, handler), new ParseTask(index, middle, to, results, handler));
+        return;
+      }
+      for (int record = from; record < to; record++) {
+        final Message message = parseRecord(record);
+        if (results != null) {
+          results[record] = message;
+        } else {
+          handler.onMessage(record, message);
+        }
+      }
+    }
+
+    private Message parseRecord(final int record) {
+      try {
+        return factory.parse(index.getRecord(record));
+      } catch (final ParseException | IOException | MessageException e) {
+        throw new MessageException("Failed to parse record " + record
+            + " at offset " + index.getFileOffset(record) + ": " + e.getMessage(), e);
+      }
+    }
+  }
+
+}
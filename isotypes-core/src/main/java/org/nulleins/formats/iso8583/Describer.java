@@ -6,7 +6,6 @@ package org.nulleins.formats.iso8583;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -23,6 +22,7 @@ class Describer implements Iterable<String> {
   protected final MessageTemplate template;
   protected final Map<Integer, Object> fields;
 
+  /** @param fields the message's field values, iterated in field number order */
   public Describer(final MessageTemplate template, final Map<Integer, Object> fields) {
     Preconditions.checkNotNull(template);
     Preconditions.checkNotNull(fields);
@@ -52,10 +52,9 @@ class Describer implements Iterable<String> {
         if (fields == null) {
           return new Integer[0];
         }
+        // the message's field map iterates its fields in field number order
         final Set<Integer> integers = fields.keySet();
-        final Integer[] result = integers.toArray(new Integer[integers.size()]);
-        Arrays.sort(result);
-        return result;
+        return integers.toArray(new Integer[integers.size()]);
       }
 
       /** @return the next formatted line of desc */
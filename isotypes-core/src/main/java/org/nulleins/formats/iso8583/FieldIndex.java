@@ -0,0 +1,257 @@
+package org.nulleins.formats.iso8583;
+
+import org.nulleins.formats.iso8583.io.MessageReader;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.Dimension;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+
+/**
+ * Index of the fields of a parsed message, recording where the data of each field starts in
+ * the message frame, so that the value of an undecoded field can be decoded when first
+ * requested, and so that the raw data of an unchanged field can be copied when the message is
+ * written again
+ * <p/>
+ * The index refers to the frame the message was parsed from, rather than a copy of it:
+ * the frame content must not be changed while the message has undecoded fields.  Once the
+ * index has <i>retained</i> the frame, by copying it, raw field data is also available
+ * @author phillipsr
+ */
+final class FieldIndex {
+  private ByteBuffer frame;
+  private final ParsePlan plan;
+  private final MessageReader reader;
+  private final ContentType contentType;
+  private final CharEncoder charset;
+  /** position of each field's data in the frame; shared by derived indices, so not changed once parsed */
+  private int[] positions = new int[193];
+  /** fields present in the frame and not yet decoded */
+  private final long[] pending = new long[3];
+  /** fields present in the frame whose value has not been changed since the message was parsed */
+  private final long[] unchanged = new long[3];
+  /** values decoded from the frame, to detect values replaced other than through the message */
+  private Object[] values;
+  private boolean retained;
+  private int count;
+
+  /**
+   * @param frame    buffer holding the encoded message; positions are absolute offsets into it
+   * @param plan     for parsing the fields of the message encoded in the frame
+   * @param reader   used to read field data from the frame
+   * @param contentType of the message encoded in the frame
+   * @param charset  of the character data in the frame
+   */
+  FieldIndex(final ByteBuffer frame, final ParsePlan plan, final MessageReader reader,
+      final ContentType contentType, final CharEncoder charset) {
+    this.frame = frame.duplicate();
+    this.plan = plan;
+    this.reader = reader;
+    this.contentType = contentType;
+    this.charset = charset;
+  }
+
+  /**
+   * @return an index of the <code>common</code> fields of this index, sharing its frame and field
+   * positions, for a message derived from the message indexed; fields pending in this index are
+   * pending in the result, and are decoded by each message independently
+   * @param common bit <code>(n-1)</code> of the three words set if field <code>n</code> is to be indexed
+   */
+  FieldIndex derive(final long[] common) {
+    final FieldIndex result = new FieldIndex(frame, plan, reader, contentType, charset);
+    result.positions = positions;
+    result.retained = retained;
+    for (int index = 0; index < 3; index++) {
+      result.pending[index] = pending[index] & common[index];
+      result.unchanged[index] = unchanged[index] & common[index];
+      result.count += Long.bitCount(result.pending[index]);
+    }
+    if (values != null) {
+      result.values = values.clone();
+    }
+    return result;
+  }
+
+  /** Record that the data of field <code>number</code> starts at <code>position</code> in the frame */
+  void add(final int number, final int position) {
+    positions[number] = position;
+    unchanged[(number - 1) >> 6] |= 1L << ((number - 1) & 63);
+    if (!isPending(number)) {
+      pending[(number - 1) >> 6] |= 1L << ((number - 1) & 63);
+      count++;
+    }
+  }
+
+  /**
+   * Record that the data of field <code>number</code> starts at <code>position</code> in the frame,
+   * and has been decoded (or skipped, if <code>value</code> is null)
+   */
+  void add(final int number, final int position, final Object value) {
+    positions[number] = position;
+    unchanged[(number - 1) >> 6] |= 1L << ((number - 1) & 63);
+    if (value != null) {
+      getValues()[number] = value;
+    }
+  }
+
+  /** @return true if field <code>number</code> is present in the frame and not yet decoded */
+  boolean isPending(final int number) {
+    return number > 0 && number <= 192 && (pending[(number - 1) >> 6] & (1L << ((number - 1) & 63))) != 0;
+  }
+
+  /** Discard the entry for field <code>number</code>, if present, e.g., when it is assigned a new value */
+  void remove(final int number) {
+    if (number < 1 || number > 192) {
+      return;
+    }
+    unchanged[(number - 1) >> 6] &= ~(1L << ((number - 1) & 63));
+    if (isPending(number)) {
+      pending[(number - 1) >> 6] &= ~(1L << ((number - 1) & 63));
+      count--;
+    }
+  }
+
+  /** @return the number of fields not yet decoded */
+  int size() {
+    return count;
+  }
+
+  /** @return the numbers of the fields not yet decoded, in ascending order */
+  int[] getPendingFields() {
+    final int[] result = new int[count];
+    int index = 0;
+    for (int number = 1; number <= 192 && index < count; number++) {
+      if (isPending(number)) {
+        result[index++] = number;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Decode the value of field <code>number</code> from the frame, so that it is no longer pending
+   * @return the value of the field
+   * @throws MessageException if the field data cannot be parsed
+   */
+  Object decode(final int number) {
+    final FieldTemplate field = plan.getField(number);
+    final ByteBuffer input = frame.duplicate();
+    input.position(positions[number]);
+    try {
+      final Object result = plan.parse(number, reader.readField(field, input));
+      pending[(number - 1) >> 6] &= ~(1L << ((number - 1) & 63));
+      count--;
+      if (retained) {
+        getValues()[number] = result;
+      }
+      return result;
+    } catch (final ParseException e) {
+      throw MessageParser.parseFailure(field, e);
+    } catch (final IOException e) {
+      throw new MessageException("Failed to read field: " + field + " from message frame", e);
+    }
+  }
+
+  /**
+   * Decode the value of numeric field <code>number</code> from the frame as a long, so that it
+   * is no longer pending; the value is not recorded for raw field passthrough
+   * @return the value of the field
+   * @throws MessageException if the field data cannot be parsed as a long
+   */
+  long decodeLong(final int number) {
+    final FieldTemplate field = plan.getField(number);
+    final ByteBuffer input = frame.duplicate();
+    input.position(positions[number]);
+    try {
+      final long result = plan.parseLong(number, reader, input);
+      pending[(number - 1) >> 6] &= ~(1L << ((number - 1) & 63));
+      count--;
+      return result;
+    } catch (final ParseException e) {
+      throw MessageParser.parseFailure(field, e);
+    } catch (final IOException e) {
+      throw new MessageException("Failed to read field: " + field + " from message frame", e);
+    }
+  }
+
+  /**
+   * Copy the message data, between <code>start</code> and <code>end</code> in the frame, so that
+   * the index no longer refers to the caller's buffer, and can answer with raw field data
+   */
+  void retain(final int start, final int end) {
+    final ByteBuffer source = frame.duplicate();
+    source.limit(end);
+    source.position(start);
+    final byte[] copy = new byte[end - start];
+    source.get(copy);
+    frame = ByteBuffer.wrap(copy);
+    for (int number = 1; number <= 192; number++) {
+      positions[number] -= start;
+    }
+    retained = true;
+  }
+
+  /** @return true if the index holds its own copy of the message data */
+  boolean isRetained() {
+    return retained;
+  }
+
+  /** @return true if the frame has the content type and charset specified, so that raw field
+    * data may be copied to a message of this encoding */
+  boolean isEncodedAs(final ContentType contentType, final CharEncoder charset) {
+    return retained && this.contentType == contentType && this.charset.equals(charset);
+  }
+
+  /**
+   * @return the raw data of field <code>number</code> (including its length specifier, if any),
+   * if the field is present in the frame and unchanged, i.e., is pending or still has the value
+   * decoded from the frame, and if the field is encoded in the same way by the <code>target</code>
+   * field template, otherwise null
+   * @param number  of the field
+   * @param current value of the field in the message, if decoded
+   * @param target  template of the field in the message being written
+   * @throws MessageException if the field's length specifier cannot be read
+   */
+  ByteBuffer getRawField(final int number, final Object current, final FieldTemplate target) {
+    if (!retained || number < 1 || number > 192
+        || (unchanged[(number - 1) >> 6] & (1L << ((number - 1) & 63))) == 0) {
+      return null;
+    }
+    if (!isPending(number) && (values != null ? values[number] : null) != current) {
+      return null;
+    }
+    final FieldTemplate source = plan.findField(number);
+    if (source != target && !isEncodedAs(source, target)) {
+      return null;
+    }
+    final ByteBuffer result = frame.duplicate();
+    result.position(positions[number]);
+    try {
+      result.limit(positions[number] + reader.getFieldSize(source, result));
+    } catch (final IOException e) {
+      throw new MessageException("Failed to read field: " + source + " from message frame", e);
+    }
+    return result;
+  }
+
+  /** @return true if the target field has the same type and dimension as the source field */
+  private static boolean isEncodedAs(final FieldTemplate source, final FieldTemplate target) {
+    if (source == null || target == null || !source.getType().equals(target.getType())) {
+      return false;
+    }
+    final Dimension from = source.getDimension();
+    final Dimension to = target.getDimension();
+    return from.getType() == to.getType() && from.getVSize() == to.getVSize() && from.getLength() == to.getLength();
+  }
+
+  private Object[] getValues() {
+    if (values == null) {
+      values = new Object[193];
+    }
+    return values;
+  }
+
+}
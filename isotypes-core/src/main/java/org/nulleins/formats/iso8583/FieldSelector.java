@@ -0,0 +1,80 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+
+/**
+ * Immutable selection of message fields, by field number, specifying the fields to be
+ * parsed when only part of a message is required; the fields not selected are skipped
+ * by the parser
+ * <p/>
+ * Example:</br>
+ * <code>
+ * factory.parse(input, FieldSelector.of(2, 4, 11, 41, 49));
+ * </code>
+ * @author phillipsr
+ */
+public final class FieldSelector {
+  /** selector including every field */
+  public static final FieldSelector ALL = new FieldSelector(new long[]{-1L, -1L, -1L});
+
+  private final long[] mask;
+
+  private FieldSelector(final long[] mask) {
+    this.mask = mask;
+  }
+
+  /**
+   * @return a selector including the fields specified
+   * @param fields numbers of the fields selected
+   * @throws IllegalArgumentException if a field number is not in the range 2..192
+   */
+  public static FieldSelector of(final int... fields) {
+    final long[] mask = new long[3];
+    for (final int field : fields) {
+      Preconditions.checkArgument(field >= 2 && field <= 192, "Field number must be in the range 2..192 (got: " + field + ")");
+      mask[(field - 1) >> 6] |= 1L << ((field - 1) & 63);
+    }
+    return new FieldSelector(mask);
+  }
+
+  /** @return true if field <code>number</code> is selected */
+  public boolean contains(final int number) {
+    return number > 0 && number <= 192 && (mask[(number - 1) >> 6] & (1L << ((number - 1) & 63))) != 0;
+  }
+
+  /** @return the highest field number selected, or zero if no fields are selected */
+  public int getLastField() {
+    for (int index = 2; index >= 0; index--) {
+      if (mask[index] != 0) {
+        return index * 64 + 64 - Long.numberOfLeadingZeros(mask[index]);
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    return this == other || (other instanceof FieldSelector && Arrays.equals(mask, ((FieldSelector) other).mask));
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(mask);
+  }
+
+  /** @return a summary of this selector, listing the fields selected */
+  @Override
+  public String toString() {
+    final StringBuilder result = new StringBuilder("FieldSelector[");
+    for (int number = 2; number <= 192; number++) {
+      if (contains(number)) {
+        result.append(result.charAt(result.length() - 1) == '[' ? "" : ",").append(number);
+      }
+    }
+    return result.append(']').toString();
+  }
+
+}
@@ -1,10 +1,15 @@
 package org.nulleins.formats.iso8583;
 
 import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.formatters.AlphaFormatter;
+import org.nulleins.formats.iso8583.formatters.NumberFormatter;
 import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.Dimension;
 import org.nulleins.formats.iso8583.types.MTI;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /** Definition of an ISO8583 messageTemplate field, capable for formatting and parsing messageTemplate
@@ -142,6 +147,47 @@ public class FieldTemplate {
     return result.getBytes();
   }
 
+  /**
+   * Use this field definition to format the data supplied directly into the <code>output</code>
+   * buffer, encoded in <code>charset</code>, if this field's formatter is able to do so
+   * (see {@link AlphaFormatter} and {@link NumberFormatter}), rather than by <code>format(value)</code>
+   * @param value   to be formatted
+   * @param charset in which the field is encoded
+   * @param output  buffer to which the field value is written
+   * @return the number of bytes written, or -1 if the value must be formatted by <code>format(value)</code>
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public int
+  format(final Object value, final CharEncoder charset, final ByteBuffer output) {
+    final TypeFormatter<?> formatter = messageTemplate.getFormatter(type);
+    try {
+      if (formatter instanceof AlphaFormatter) {
+        return ((AlphaFormatter) formatter).format(type, value, dimension, charset, output);
+      }
+      if (formatter instanceof NumberFormatter) {
+        return ((NumberFormatter) formatter).format(type, value, dimension, charset, output);
+      }
+      return -1;
+    } catch (final BufferOverflowException e) {
+      throw e;
+    } catch (final Exception e) {
+      throw new IllegalStateException("Could not format data [" + value + "] for field " + this, e);
+    }
+  }
+
+  /**
+   * @return the number of characters of the value supplied when formatted by this field, if its
+   * formatter can determine it without formatting the value (see {@link NumberFormatter}),
+   * otherwise -1
+   */
+  public int getFormattedLength(final Object value) {
+    final TypeFormatter<?> formatter = messageTemplate.getFormatter(type);
+    if (!(formatter instanceof NumberFormatter)) {
+      return -1;
+    }
+    return ((NumberFormatter) formatter).getFormattedLength(type, value, dimension);
+  }
+
   @Override
   public String toString() {
     return "Field nb=" + this.getNumber()
@@ -163,6 +209,23 @@ public class FieldTemplate {
     return messageTemplate.getFormatter(type).parse(type, dimension, data.length, data);
   }
 
+  /**
+   * Use this field definition to parse the remaining bytes of the <code>data</code> buffer
+   * @param data field value, as read from the message; its position is not changed
+   * @return the field value
+   * @throws ParseException if the data cannot be parsed to this field's type
+   */
+  public Object parse(final ByteBuffer data) throws ParseException {
+    Preconditions.checkNotNull(type);
+    Preconditions.checkNotNull(dimension);
+    Preconditions.checkNotNull(messageTemplate);
+    final TypeFormatter<?> formatter = messageTemplate.getFormatter(type);
+    if (formatter == null) {
+      throw new IllegalStateException("no formatter defined for field: " + this);
+    }
+    return formatter.parse(type, dimension, data.remaining(), data);
+  }
+
   /**
    * @param messageTemplate
    */
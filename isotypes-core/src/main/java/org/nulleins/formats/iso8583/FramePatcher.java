@@ -0,0 +1,124 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.io.MessageWriter;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Patcher for an encoded message frame, overwriting the message type and the values of
+ * fields in place, in the frame's own buffer, without parsing the message, e.g., to turn
+ * a request into its response by changing the MTI and setting the response code
+ * <p/>
+ * Field offsets are computed once, from the frame's bitmap and the dimensions of its
+ * fields; only fields present in the frame can be patched, and the new value must occupy
+ * exactly the same number of bytes as the old, as is always the case for fixed-length
+ * fields.  The frame must not be moved or compacted while it is being patched
+ * <p/>
+ * Example:</br>
+ * <code>
+ * factory.patch(frame).setMTI(MTI.create(0x0210)).setFieldValue(39, "00");
+ * </code>
+ * @author phillipsr
+ */
+public class FramePatcher {
+  private final MessageParser parser;
+  private final MessageWriter writer;
+  private final ByteBuffer frame;
+  private final int mtiPosition;
+  /** offset and size of each field present in the frame, zero if not present */
+  private final int[] positions;
+  private final int[] sizes;
+  private MessageTemplate template;
+
+  FramePatcher(final MessageParser parser, final MessageWriter writer, final ByteBuffer frame,
+      final int mtiPosition, final MessageTemplate template, final int[] positions, final int[] sizes) {
+    this.parser = parser;
+    this.writer = writer;
+    this.frame = frame;
+    this.mtiPosition = mtiPosition;
+    this.template = template;
+    this.positions = positions;
+    this.sizes = sizes;
+  }
+
+  /** @return the message type currently held by the frame */
+  public MTI getMTI() {
+    return template.getMessageTypeIndicator();
+  }
+
+  /** @return true if field <code>number</code> is present in the frame, and so can be patched */
+  public boolean isFieldPresent(final int number) {
+    return number > 1 && number <= 192 && sizes[number] > 0;
+  }
+
+  /**
+   * Overwrite the message type of the frame; fields subsequently patched are formatted
+   * using the template of the new message type
+   * @param type of message to be written to the frame
+   * @return this patcher
+   * @throws MessageException     if the message type is not defined in the factory's schema,
+   *                              or cannot be encoded
+   * @throws NullPointerException if the type is null
+   */
+  public FramePatcher setMTI(final MTI type) {
+    Preconditions.checkNotNull(type, "Message type cannot be null");
+    final MessageTemplate target = parser.getTemplate(type);
+    final ByteBuffer output = frame.duplicate();
+    output.position(mtiPosition);
+    try {
+      writer.appendMTI(type, output);
+    } catch (final IOException e) {
+      throw new MessageException("Failed to encode message type: " + type, e);
+    }
+    template = target;
+    return this;
+  }
+
+  /**
+   * Overwrite the value of a field present in the frame; the frame is unchanged if the value
+   * cannot be written
+   * @param number of the field to be patched
+   * @param value  new value of the field
+   * @return this patcher
+   * @throws IllegalArgumentException if the field is not present in the frame, or not defined
+   *                                  for the current message type, if the value is not valid
+   *                                  for the field, or if its encoded size differs from that of
+   *                                  the field's current value
+   * @throws MessageException         if the value cannot be encoded
+   */
+  public FramePatcher setFieldValue(final int number, final Object value) {
+    Preconditions.checkArgument(isFieldPresent(number), "Field " + number + " is not present in the frame");
+    final FieldTemplate field = template.getParsePlan().findField(number);
+    Preconditions.checkArgument(field != null,
+        "Field " + number + " not defined for message type " + template.getMessageTypeIndicator());
+    Preconditions.checkArgument(field.validValue(value), "Supplied value (" + value + ") not valid for field:" + field);
+
+    final ByteBuffer data = ByteBuffer.allocate(sizes[number]);
+    try {
+      writer.appendField(field, value, data);
+    } catch (final BufferOverflowException e) {
+      throw new IllegalArgumentException("Value (" + value + ") is longer than field in frame: " + field);
+    } catch (final IOException e) {
+      throw new MessageException("Failed to encode field: " + field, e);
+    }
+    Preconditions.checkArgument(!data.hasRemaining(), "Value (" + value + ") is shorter than field in frame: " + field);
+
+    data.flip();
+    final ByteBuffer output = frame.duplicate();
+    output.position(positions[number]);
+    output.put(data);
+    return this;
+  }
+
+  /** @return a summary of this patcher, for logging purposes */
+  @Override
+  public String toString() {
+    return "FramePatcher mti=" + template.getMessageTypeIndicator() + " position=" + mtiPosition;
+  }
+
+}
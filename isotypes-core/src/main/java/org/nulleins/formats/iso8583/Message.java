@@ -2,24 +2,73 @@ package org.nulleins.formats.iso8583;
 
 import com.google.common.base.Preconditions;
 import org.apache.commons.collections.ListUtils;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
 import org.nulleins.formats.iso8583.types.MTI;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 
 /** An ISO8583 message instance, being a f of header values and a set of field values
   * <p/>
   * Every message has a reference to the <code>template</code> that describes the message
   * and its content
+  * <p/>
+  * Field values are held in an array indexed by field number, with a mask of the fields
+  * set, so that getting or setting a value requires no hashing or boxing of the field
+  * number; the field map answered by {@link #getFields()} is a view of the array, whose
+  * entries are in field number order
+  * <p/>
+  * Numeric values parsed or set as longs, and characters set by {@link #setAscii}, are held
+  * without boxing: their object value (a BigInteger or String) is created when first
+  * requested, and retained until the field is changed
+  * <p/>
+  * A message derived from another (see {@link MessageFactory#duplicate}) shares its value
+  * arrays, and the index of any fields not yet decoded, with a mask of the fields it holds;
+  * either message copies the arrays before it first changes a value (copy-on-write)
   * @author phillipsr */
 public class Message {
-  private final MTI messageTypeIndicator;
-  private final Map<Integer, Object> fields = new HashMap<>();
+  private MTI messageTypeIndicator;
+  /** value of each field set, indexed by field number */
+  private Object[] values = new Object[193];
+  /** bit <code>(n-1)</code> set if field <code>n</code> is set, i.e., is a key of the field map */
+  private final long[] present = new long[3];
+  /** the number of fields set */
+  private int count;
+  private final Map<Integer, Object> fields = new FieldMap();
   private String header;
   private MessageTemplate template;
+  /** index of the fields in the message data parsed, for lazy decoding and raw field data */
+  private FieldIndex index;
+  /** fields present in the message data, but not selected when the message was parsed */
+  private long[] skipped;
+  /** values of numeric fields set or decoded as longs, indexed by field number, allocated on first use */
+  private long[] longs;
+  /** bit <code>(n-1)</code> set if the value of field <code>n</code> is held in <code>longs</code>,
+    * rather than the field map */
+  private long[] longFields;
+  /** holders of the characters of alphanumeric fields set by <code>setAscii</code>, indexed by
+    * field number and reused when the field is set again; allocated on first use, and discarded
+    * when the value arrays are copied, as the holders are then shared */
+  private AsciiValue[] ascii;
+  /** true if the value arrays are shared with a message derived from (or to) this message,
+    * and must be copied before they are changed */
+  private boolean shared;
 
   /** Instantiate a new message, of the type specified
     * @param messageTypeIndicator
@@ -47,17 +96,22 @@ public class Message {
   //public void setHeader(final String header) { this.header = header; }
 
   public Map<Integer, Object> getFields() {
+    decodeFields();
     return fields;
   }
 
   public void setFields(final Map<Integer, Object> fields) {
+    this.index = null;
+    this.skipped = null;
     this.fields.clear();
-    this.fields.putAll(fields);
+    for (final Map.Entry<Integer, Object> entry : fields.entrySet()) {
+      store(entry.getKey(), entry.getValue());
+    }
   }
 
   public Map<String, Object> getNamedFields() {
-    final Map<String, Object> result = new HashMap<String, Object>(fields.size());
-    for (final Map.Entry<Integer, Object> item : fields.entrySet()) {
+    final Map<String, Object> result = new HashMap<String, Object>(getFieldCount());
+    for (final Map.Entry<Integer, Object> item : getFields().entrySet()) {
       final FieldTemplate field = template.getField(item.getKey());
       result.put(field.getName(), item.getValue());
     }
@@ -78,7 +132,11 @@ public class Message {
     if (!field.validValue(value)) {
       throw new IllegalArgumentException("Supplied value (" + value + ") not valid for field:" + field);
     }
-    fields.put(fieldNumber, value);
+    if (index != null) {
+      index.remove(fieldNumber);
+    }
+    clearSkipped(fieldNumber);
+    store(fieldNumber, value);
   }
 
   /** Set the value of the named field
@@ -93,12 +151,160 @@ public class Message {
 
   /** @return the value of the field specified
     * @param fieldNumber of field whose value is requested
-    * @throws NoSuchFieldError if the field is not defined for this message */
+    * @throws NoSuchFieldError if the field is not defined for this message
+    * @throws IllegalStateException if the field was skipped when the message was parsed,
+    *                               or could not be parsed when parsing leniently */
   public Object getFieldValue(final int fieldNumber) {
     if (!template.isFieldPresent(fieldNumber)) {
       throw new NoSuchFieldError(fieldNumber + "");
     }
-    return fields.get(fieldNumber);
+    if (isFieldSkipped(fieldNumber)) {
+      throw new IllegalStateException("Field " + fieldNumber + " is present in the message, but was not parsed");
+    }
+    return getValue(fieldNumber);
+  }
+
+  /** Set the value of the numeric field specified, without boxing the value
+    * @param fieldNumber of the field to receive the value
+    * @param value       to set
+    * @throws NoSuchFieldError         if the field is not defined for this message
+    * @throws IllegalArgumentException if the field is not numeric, or the value is not valid
+    *                                  for the field */
+  public void setLong(final int fieldNumber, final long value) {
+    final ParsePlan plan = getPlan(fieldNumber);
+    if (!plan.isNumeric(fieldNumber)) {
+      throw new IllegalArgumentException("Field " + fieldNumber + " is not numeric: " + plan.findField(fieldNumber));
+    }
+    if (!plan.isValid(fieldNumber, value)) {
+      throw new IllegalArgumentException("Supplied value (" + value + ") not valid for field:" + plan.findField(fieldNumber));
+    }
+    if (index != null) {
+      index.remove(fieldNumber);
+    }
+    clearSkipped(fieldNumber);
+    putLong(fieldNumber, value);
+  }
+
+  /** Set the value of the alphanumeric field specified, copying its characters into storage
+    * held by this message (and reused when the field is set again), without creating a String;
+    * the characters are validated using the character classes of the field's type, determined
+    * when the template was compiled
+    * @param fieldNumber of the field to receive the value
+    * @param value       ASCII characters to set
+    * @throws NoSuchFieldError         if the field is not defined for this message
+    * @throws NullPointerException     if the value is null
+    * @throws IllegalArgumentException if the field is not alphanumeric, or the value contains
+    *                                  characters other than ASCII, or is not valid for the field */
+  public void setAscii(final int fieldNumber, final CharSequence value) {
+    final ParsePlan plan = getPlan(fieldNumber);
+    if (!plan.isAlpha(fieldNumber)) {
+      throw new IllegalArgumentException("Field " + fieldNumber + " is not alphanumeric: " + plan.findField(fieldNumber));
+    }
+    Preconditions.checkNotNull(value, "Value cannot be null");
+    if (!plan.isValid(fieldNumber, value)) {
+      throw new IllegalArgumentException("Supplied value (" + value + ") not valid for field:" + plan.findField(fieldNumber));
+    }
+    if (index != null) {
+      index.remove(fieldNumber);
+    }
+    clearSkipped(fieldNumber);
+    putAscii(fieldNumber, value);
+  }
+
+  /** @return the value of the numeric field specified, without boxing it
+    * @param fieldNumber of field whose value is requested
+    * @throws NoSuchFieldError         if the field is not defined for this message
+    * @throws IllegalArgumentException if the field is not numeric
+    * @throws IllegalStateException    if the field has no value, its value is not integral or is
+    *                                  out of the range of a long, or it was skipped when the
+    *                                  message was parsed */
+  public long getLong(final int fieldNumber) {
+    final ParsePlan plan = getPlan(fieldNumber);
+    if (!plan.isNumeric(fieldNumber)) {
+      throw new IllegalArgumentException("Field " + fieldNumber + " is not numeric: " + plan.findField(fieldNumber));
+    }
+    if (isFieldSkipped(fieldNumber)) {
+      throw new IllegalStateException("Field " + fieldNumber + " is present in the message, but was not parsed");
+    }
+    if (isLong(fieldNumber)) {
+      return longs[fieldNumber];
+    }
+    if (index != null && index.isPending(fieldNumber) && !index.isRetained()) {
+      final long result = index.decodeLong(fieldNumber);
+      putLong(fieldNumber, result);
+      return result;
+    }
+    final Object value = getValue(fieldNumber);
+    if (value == null) {
+      throw new IllegalStateException("Field " + fieldNumber + " has no value");
+    }
+    if (value instanceof BigInteger && ((BigInteger) value).bitLength() > 63) {
+      throw new IllegalStateException("Value of field " + fieldNumber + " out of range of long: " + value);
+    }
+    if (value instanceof BigDecimal) {
+      try {
+        return ((BigDecimal) value).longValueExact();
+      } catch (final ArithmeticException e) {
+        throw new IllegalStateException("Value of field " + fieldNumber + " is not a long: " + value, e);
+      }
+    }
+    if (value instanceof Double || value instanceof Float) {
+      final double result = ((Number) value).doubleValue();
+      if (result >= 0x1p63 || (double) (long) result != result) {
+        throw new IllegalStateException("Value of field " + fieldNumber + " is not a long: " + value);
+      }
+      return (long) result;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    try {
+      return Long.parseLong(value.toString().trim());
+    } catch (final NumberFormatException e) {
+      throw new IllegalStateException("Value of field " + fieldNumber + " is not a long: " + value, e);
+    }
+  }
+
+  /** @return the value of the numeric field specified, as {@link #getLong(int)}
+    * @throws IllegalStateException if the value is out of the range of an int */
+  public int getInt(final int fieldNumber) {
+    final long result = getLong(fieldNumber);
+    if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Value of field " + fieldNumber + " out of range of int: " + result);
+    }
+    return (int) result;
+  }
+
+  /** @return the value of the alphanumeric field specified, or null if it has no value
+    * @param fieldNumber of field whose value is requested
+    * @throws NoSuchFieldError         if the field is not defined for this message
+    * @throws IllegalArgumentException if the field is not alphanumeric
+    * @throws IllegalStateException    if the field was skipped when the message was parsed */
+  public CharSequence getCharSequence(final int fieldNumber) {
+    final ParsePlan plan = getPlan(fieldNumber);
+    if (!plan.isAlpha(fieldNumber)) {
+      throw new IllegalArgumentException("Field " + fieldNumber + " is not alphanumeric: " + plan.findField(fieldNumber));
+    }
+    if (isFieldSkipped(fieldNumber)) {
+      throw new IllegalStateException("Field " + fieldNumber + " is present in the message, but was not parsed");
+    }
+    final Object value = getData(fieldNumber);
+    return value == null || value instanceof CharSequence ? (CharSequence) value : value.toString();
+  }
+
+  /** @return true if field <code>number</code> has a value in this message, whether decoded or not */
+  public boolean hasValue(final int number) {
+    return isLong(number) || (index != null && index.isPending(number)) || lookup(number) != null;
+  }
+
+  /** @return the parse plan of this message's template, in which field <code>number</code> is defined
+    * @throws NoSuchFieldError if the field is not defined for this message */
+  private ParsePlan getPlan(final int number) {
+    final ParsePlan result = template.getParsePlan();
+    if (result.findField(number) == null) {
+      throw new NoSuchFieldError(number + "");
+    }
+    return result;
   }
 
   /** @return the value of the field specified
@@ -116,7 +322,11 @@ public class Message {
     if (!template.isFieldPresent(fieldNumber)) {
       throw new NoSuchFieldError(fieldNumber + "");
     }
-    fields.remove(fieldNumber);
+    if (index != null) {
+      index.remove(fieldNumber);
+    }
+    clearSkipped(fieldNumber);
+    unset(fieldNumber);
   }
 
   /** @return an empty list if this message is valid according to its template,
@@ -131,10 +341,301 @@ public class Message {
     this.template = messageTemplate;
   }
 
+  /** Clear this message's field values, skipped fields and any reference to the message data
+    * it was parsed from, keeping its type, header and template, so that the message can be
+    * reused (e.g., see {@link MessageFactory#parseInto}) without allocating a new message and
+    * its field storage; the message must no longer be in use elsewhere when it is reset */
+  public void reset() {
+    fields.clear();
+    index = null;
+    if (skipped != null) {
+      Arrays.fill(skipped, 0);
+    }
+  }
+
+  /** Reset this message, to hold a message of the <code>type</code> and <code>header</code> specified
+    * @throws NullPointerException if the type is null */
+  void reset(final MTI type, final String header) {
+    Preconditions.checkNotNull(type, "MTI cannot be null");
+    reset();
+    this.messageTypeIndicator = type;
+    this.header = header;
+  }
+
+  /** Set the index of fields present in the message data this message was parsed from,
+    * whose values are to be decoded when first requested, or whose raw data is retained
+    * @param index of fields, or null if all field values are held by the message */
+  void setFieldIndex(final FieldIndex index) {
+    this.index = index;
+  }
+
+  /** @return the value of field <code>number</code>, decoding it if not yet decoded, without
+    * checking the template; null if the field has no value */
+  Object getValue(final int number) {
+    if (index != null && index.isPending(number)) {
+      store(number, index.decode(number));
+    }
+    return lookup(number);
+  }
+
+  /** @return the value of field <code>number</code> to be encoded, as <code>getValue</code>, except
+    * that characters set by <code>setAscii</code> are answered as held, without creating a String */
+  Object getData(final int number) {
+    if (index != null && index.isPending(number)) {
+      store(number, index.decode(number));
+    }
+    return isPresent(number) && !isLong(number) ? values[number] : lookup(number);
+  }
+
+  /** Set the value of field <code>number</code>, e.g., as parsed, without checking the template
+    * @throws IllegalArgumentException if the field number is not {1..192} */
+  void setValue(final int number, final Object value) {
+    store(number, value);
+  }
+
+  /** Set the value of numeric field <code>number</code>, e.g., as parsed, without boxing it,
+    * or checking the template
+    * @throws IllegalArgumentException if the field number is not {1..192} */
+  void setLongValue(final int number, final long value) {
+    putLong(number, value);
+  }
+
+  /** @return the field values held by this message, without decoding any undecoded fields */
+  Map<Integer, Object> getFieldValues() {
+    return fields;
+  }
+
+  /** @return a message of the <code>type</code> specified, holding the values of the
+    * <code>common</code> fields of this message
+    * @param type     of the message to be derived
+    * @param template of the message to be derived
+    * @param common   bit <code>(n-1)</code> of the three words set if field <code>n</code> is
+    *                 to be copied
+    * @throws IllegalStateException if a common field was skipped when this message was parsed */
+  Message derive(final MTI type, final MessageTemplate template, final long[] common) {
+    for (int index = 0; index < 3; index++) {
+      final long bits = skipped != null ? common[index] & skipped[index] : 0;
+      if (bits != 0) {
+        throw new IllegalStateException("Field " + (index * 64 + Long.numberOfTrailingZeros(bits) + 1)
+            + " is present in the message, but was not parsed");
+      }
+    }
+    final Message result = new Message(type, header);
+    result.setTemplate(template);
+    // the result shares this message's values, seeing only the common fields:
+    result.values = values;
+    result.longs = longs;
+    for (int index = 0; index < 3; index++) {
+      result.present[index] = present[index] & common[index];
+      result.count += Long.bitCount(result.present[index]);
+    }
+    if (longFields != null) {
+      result.longFields = new long[]{longFields[0] & common[0], longFields[1] & common[1], longFields[2] & common[2]};
+    }
+    if (index != null) {
+      result.index = index.derive(common);
+    }
+    result.shared = true;
+    shared = true;
+    return result;
+  }
+
+  /** @return true if this message shares its field values with a message derived from (or to) it */
+  boolean isShared() {
+    return shared;
+  }
+
+  /** Copy the value arrays, if shared with another message, before they are changed */
+  private void own() {
+    if (shared) {
+      values = values.clone();
+      if (longs != null) {
+        longs = longs.clone();
+      }
+      ascii = null;
+      shared = false;
+    }
+  }
+
+  /** @return true if field <code>number</code> is set */
+  private boolean isPresent(final int number) {
+    return number > 0 && number <= 192 && (present[(number - 1) >> 6] & (1L << ((number - 1) & 63))) != 0;
+  }
+
+  /** @return the value of field <code>number</code> held by this message, or null if none; the
+    * value of a field held as a long is boxed as a BigInteger, and that of a field set as ASCII
+    * characters converted to a String, when first requested, and retained until it is changed */
+  private Object lookup(final int number) {
+    if (!isPresent(number)) {
+      return null;
+    }
+    final Object result = values[number];
+    if (isLong(number) && result == null) {
+      // the boxed value is a function of the long, so may be cached in a shared array:
+      final BigInteger boxed = BigInteger.valueOf(longs[number]);
+      values[number] = boxed;
+      return boxed;
+    }
+    return result instanceof AsciiValue ? result.toString() : result;
+  }
+
+  /** Hold <code>value</code> as the value of field <code>number</code>
+    * @throws IllegalArgumentException if the field number is not {1..192} */
+  private void store(final int number, final Object value) {
+    mark(number);
+    clearLong(number);
+    own();
+    values[number] = value;
+  }
+
+  /** Record that field <code>number</code> is set
+    * @throws IllegalArgumentException if the field number is not {1..192} */
+  private void mark(final int number) {
+    if (number < 1 || number > 192) {
+      throw new IllegalArgumentException("Field number must be {1..192} (got: " + number + ")");
+    }
+    if (!isPresent(number)) {
+      present[(number - 1) >> 6] |= 1L << ((number - 1) & 63);
+      count++;
+    }
+  }
+
+  /** Remove the value of field <code>number</code>, if set */
+  private void unset(final int number) {
+    if (isPresent(number)) {
+      present[(number - 1) >> 6] &= ~(1L << ((number - 1) & 63));
+      count--;
+      if (!shared) {
+        // a shared slot is left for the other message; it is no longer present in this one
+        values[number] = null;
+      }
+      clearLong(number);
+    }
+  }
+
+  /** @return true if the value of field <code>number</code> is held as a long */
+  private boolean isLong(final int number) {
+    return longFields != null && number > 0 && number <= 192
+        && (longFields[(number - 1) >> 6] & (1L << ((number - 1) & 63))) != 0;
+  }
+
+  /** Hold <code>value</code> as the value of field <code>number</code>, without boxing it */
+  private void putLong(final int number, final long value) {
+    mark(number);
+    own();
+    values[number] = null;
+    if (longs == null) {
+      longs = new long[193];
+    }
+    if (longFields == null) {
+      longFields = new long[3];
+    }
+    longs[number] = value;
+    longFields[(number - 1) >> 6] |= 1L << ((number - 1) & 63);
+  }
+
+  /** Hold the characters of <code>value</code> as the value of field <code>number</code>, in a
+    * holder owned by this message, without creating a String */
+  private void putAscii(final int number, final CharSequence value) {
+    mark(number);
+    clearLong(number);
+    own();
+    if (ascii == null) {
+      ascii = new AsciiValue[193];
+    }
+    if (ascii[number] == null) {
+      ascii[number] = new AsciiValue();
+    }
+    ascii[number].set(value);
+    values[number] = ascii[number];
+  }
+
+  private void clearLong(final int number) {
+    if (longFields != null && number > 0 && number <= 192) {
+      longFields[(number - 1) >> 6] &= ~(1L << ((number - 1) & 63));
+    }
+  }
+
+  /** @return true if this message retains the message data it was parsed from */
+  boolean hasRawData() {
+    return index != null && index.isRetained();
+  }
+
+  /** @return the raw data of the field, as parsed, if the field is unchanged, and the raw data
+    * can be copied to a message written with the <code>target</code> field template, content
+    * type and charset; otherwise null, and the field value must be encoded */
+  ByteBuffer getRawField(final FieldTemplate target, final ContentType contentType, final CharEncoder charset) {
+    if (index == null || !index.isEncodedAs(contentType, charset)) {
+      return null;
+    }
+    return index.getRawField(target.getNumber(), lookup(target.getNumber()), target);
+  }
+
+  /** Record that field <code>number</code> is present in the message data, but was not
+    * selected when the message was parsed, so has no value in this message
+    * @param number of the field skipped */
+  void setSkipped(final int number) {
+    if (skipped == null) {
+      skipped = new long[3];
+    }
+    skipped[(number - 1) >> 6] |= 1L << ((number - 1) & 63);
+  }
+
+  private void clearSkipped(final int number) {
+    if (skipped != null && number > 0 && number <= 192) {
+      skipped[(number - 1) >> 6] &= ~(1L << ((number - 1) & 63));
+    }
+  }
+
+  /** @return true if field <code>number</code> is present in the message data this message
+    * was parsed from, but was skipped, not being selected for parsing (or, when parsing
+    * leniently, not being valid); a skipped field has no
+    * value in this message, but is not absent from the original message
+    * @param number of the field */
+  public boolean isFieldSkipped(final int number) {
+    return skipped != null && number > 0 && number <= 192
+        && (skipped[(number - 1) >> 6] & (1L << ((number - 1) & 63))) != 0;
+  }
+
+  /** @return the numbers of the fields skipped when this message was parsed, in ascending
+    * order (empty if the message was parsed in full) */
+  public SortedSet<Integer> getSkippedFields() {
+    final SortedSet<Integer> result = new TreeSet<>();
+    for (int number = 2; skipped != null && number <= 192; number++) {
+      if (isFieldSkipped(number)) {
+        result.add(number);
+      }
+    }
+    return result;
+  }
+
+  /** @return true if the values of all this message's fields have been decoded from the message data */
+  public boolean isDecoded() {
+    return index == null || index.size() == 0;
+  }
+
+  /** Decode the values of all fields not yet decoded from the message data */
+  private void decodeFields() {
+    if (index == null) {
+      return;
+    }
+    for (final int number : index.getPendingFields()) {
+      store(number, index.decode(number));
+    }
+    if (!index.isRetained()) {
+      index = null;
+    }
+  }
+
+  /** @return the number of fields set in this message, whether decoded or not */
+  private int getFieldCount() {
+    return count + (index != null ? index.size() : 0);
+  }
+
   /** @return a summary of this field, for logging purposes */
   @Override
   public String toString() {
-    return "Message mti=" + messageTypeIndicator + " header=" + header + " #field=" + fields.size();
+    return "Message mti=" + messageTypeIndicator + " header=" + header + " #field=" + getFieldCount();
   }
 
   public Message asType(final MTI messageTypeIndicator, final MessageTemplate template, final Map<? extends Integer, ?> fields) {
@@ -149,12 +650,18 @@ public class Message {
   /** @return an iterator to iterate over the multi-line desc of this message,
     * including message type information, field type information and field values */
   public Iterable<String> describe() {
-    return new Describer(template, fields);
+    return new Describer(template, getFields());
   }
 
   /** Add all the supplied field values to this message
     * @param fieldValues */
   public void addFields(final Map<Integer, Object> fieldValues) {
+    for (final Integer number : fieldValues.keySet()) {
+      if (index != null) {
+        index.remove(number);
+      }
+      clearSkipped(number);
+    }
     fields.putAll(fieldValues);
   }
 
@@ -169,6 +676,172 @@ public class Message {
     return template.isFieldPresent(number);
   }
 
+  /** Live view of the field values of this message as a map of field number to value, whose
+    * entries are in field number order */
+  private final class FieldMap extends AbstractMap<Integer, Object> {
+    @Override
+    public int size() {
+      return count;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+      return key instanceof Integer && isPresent((Integer) key);
+    }
+
+    @Override
+    public Object get(final Object key) {
+      return key instanceof Integer ? lookup((Integer) key) : null;
+    }
+
+    @Override
+    public Object put(final Integer key, final Object value) {
+      final Object result = lookup(key);
+      store(key, value);
+      return result;
+    }
+
+    @Override
+    public Object remove(final Object key) {
+      if (!(key instanceof Integer)) {
+        return null;
+      }
+      final Object result = lookup((Integer) key);
+      unset((Integer) key);
+      return result;
+    }
+
+    @Override
+    public void clear() {
+      if (shared) {
+        values = new Object[193];
+        longs = null;
+        ascii = null;
+        shared = false;
+      } else {
+        Arrays.fill(values, null);
+      }
+      Arrays.fill(present, 0);
+      count = 0;
+      if (longFields != null) {
+        Arrays.fill(longFields, 0);
+      }
+    }
+
+    @Override
+    public Set<Entry<Integer, Object>> entrySet() {
+      return new AbstractSet<Entry<Integer, Object>>() {
+        @Override
+        public int size() {
+          return count;
+        }
+
+        @Override
+        public Iterator<Entry<Integer, Object>> iterator() {
+          return new FieldIterator();
+        }
+      };
+    }
+  }
+
+  /** Iterator over the fields set, in field number order */
+  private final class FieldIterator implements Iterator<Map.Entry<Integer, Object>> {
+    private int next = nextPresent(1);
+    private int last = -1;
+
+    @Override
+    public boolean hasNext() {
+      return next > 0;
+    }
+
+    @Override
+    public Map.Entry<Integer, Object> next() {
+      if (next < 0) {
+        throw new NoSuchElementException();
+      }
+      last = next;
+      next = nextPresent(next + 1);
+      final int number = last;
+      return new AbstractMap.SimpleEntry<Integer, Object>(number, lookup(number)) {
+        @Override
+        public Object setValue(final Object value) {
+          store(number, value);
+          return super.setValue(value);
+        }
+      };
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      unset(last);
+      last = -1;
+    }
+  }
+
+  /** @return the number of the first field set whose number is not less than <code>number</code>,
+    * or -1 if there is none */
+  private int nextPresent(final int number) {
+    for (int index = (number - 1) >> 6; index < 3; index++) {
+      long bits = present[index];
+      if (index == (number - 1) >> 6) {
+        bits &= -1L << ((number - 1) & 63);
+      }
+      if (bits != 0) {
+        return index * 64 + Long.numberOfTrailingZeros(bits) + 1;
+      }
+    }
+    return -1;
+  }
+
+  /** Characters of a field value set by <code>setAscii</code>, held as bytes and reused when
+    * the field is set again; the String value is created when first requested */
+  private static final class AsciiValue implements CharSequence {
+    private byte[] bytes = new byte[16];
+    private int length;
+    private String string;
+
+    /** Hold the characters of <code>value</code>, which are ASCII, replacing those held */
+    private void set(final CharSequence value) {
+      final int size = value.length();
+      final byte[] target = size <= bytes.length ? bytes : new byte[Math.max(size, bytes.length * 2)];
+      for (int index = 0; index < size; index++) {
+        target[index] = (byte) value.charAt(index);
+      }
+      bytes = target;
+      length = size;
+      string = null;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+      }
+      return (char) bytes[index];
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+      return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+      if (string == null) {
+        string = new String(bytes, 0, length, StandardCharsets.US_ASCII);
+      }
+      return string;
+    }
+  }
+
   /** @return a new builder, for constructing messages */
   public static Builder Builder() {
     return new Builder();
@@ -220,9 +893,9 @@ public class Message {
 
     if (!messageTypeIndicator.equals(message.messageTypeIndicator)) { return false; }
 
-    if(fields.size() != message.fields.size()) { return false; }
-    for ( final Map.Entry<Integer,Object> item : fields.entrySet()) {
-      final Object that = message.fields.get(item.getKey());
+    if(getFieldCount() != message.getFieldCount()) { return false; }
+    for ( final Map.Entry<Integer,Object> item : getFields().entrySet()) {
+      final Object that = message.getFields().get(item.getKey());
       if ( !item.getValue().toString().equals(that.toString())) {
         return false;
       }
@@ -234,7 +907,7 @@ public class Message {
   @Override
   public int hashCode() {
     int result = messageTypeIndicator.hashCode();
-    result = 31 * result + fields.hashCode();
+    result = 31 * result + getFields().hashCode();
     result = 31 * result + header.hashCode();
     return result;
   }
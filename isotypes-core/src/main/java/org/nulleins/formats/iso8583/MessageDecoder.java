@@ -0,0 +1,229 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.io.LengthPrefix;
+import org.nulleins.formats.iso8583.io.MessageReader;
+import org.nulleins.formats.iso8583.types.Bitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+
+/**
+ * Incremental message decoder, accepting message data in chunks of any size as it arrives
+ * on a (non-blocking) connection, and answering with each message when it is complete
+ * <p/>
+ * The decoder keeps its progress through the current message between calls (length
+ * specifier, header, MTI, bitmap and the fields present), so that the data is scanned only
+ * once; when the whole message has been received, it is parsed by the message factory
+ * <p/>
+ * Example, for a channel registered with a selector:</br>
+ * <code>
+ * channel.read(buffer);
+ * buffer.flip();
+ * for (Message message = decoder.decode(buffer); message != null; message = decoder.decode(buffer)) {
+ * &nbsp;&nbsp;handle(message);
+ * }
+ * buffer.clear();
+ * </code>
+ * <p/>
+ * Instances are not thread-safe: use one decoder per connection.  If decoding fails, the
+ * decoder should be <code>reset()</code> (or the connection closed), as the position of the
+ * next message in the input cannot be known
+ * @author phillipsr
+ */
+public class MessageDecoder {
+  private static final int InitialCapacity = 1024;
+
+  private enum State { LENGTH, FRAME, HEADER, MTI, BITMAP, FIELDS }
+
+  private final MessageFactory factory;
+  private final MessageParser parser;
+  private final MessageReader reader;
+  private final LengthPrefix prefix;
+  private final int maxMessageLength;
+
+  /** data received of an incomplete message (in write mode), when not held by the caller's buffer */
+  private ByteBuffer pending = ByteBuffer.allocate(InitialCapacity);
+  private State state;
+  /** number of bytes of the current message scanned so far */
+  private int offset;
+  private int frameLength;
+  private ParsePlan plan;
+  private Bitmap bitmap;
+  private int fieldNum;
+
+  /**
+   * Instantiate a decoder for messages defined by the message factory supplied
+   * @param factory          that defines and parses the messages decoded
+   * @param parser           used by the factory to parse messages
+   * @param prefix           codec for the length specifier preceding each message, or null if
+   *                         messages are not framed, and must be scanned to find their end
+   * @param maxMessageLength maximum length of message accepted, in bytes
+   */
+  MessageDecoder(final MessageFactory factory, final MessageParser parser, final LengthPrefix prefix, final int maxMessageLength) {
+    Preconditions.checkArgument(maxMessageLength > 0, "Maximum message length must be positive");
+    this.factory = factory;
+    this.parser = parser;
+    this.reader = parser.getReader();
+    this.prefix = prefix;
+    this.maxMessageLength = maxMessageLength;
+    reset();
+  }
+
+  /**
+   * Accept data from the input buffer, answering with the next message if complete
+   * <p/>
+   * If no data is held from an earlier call, a complete message is parsed directly from the
+   * input buffer, and only the bytes of the message are taken from it; otherwise, all the
+   * remaining input is taken, and held until the message is complete.  Either way, when
+   * this method returns null, all the input has been taken
+   * @param input buffer holding the data received, from its position to its limit
+   * @return the next message, or null if more data is required to complete it; call again,
+   * until null is returned, to take any further messages received
+   * @throws IOException      if a length specifier or field length is not valid, or if the
+   *                          message exceeds the maximum length
+   * @throws ParseException   if the message is not well-formed
+   * @throws MessageException if the message type is not defined, or the header is not valid
+   */
+  public Message decode(final ByteBuffer input) throws IOException, ParseException {
+    Preconditions.checkNotNull(input, "Input buffer cannot be null");
+    if (pending.position() == 0) {
+      final Message result = scan(input);
+      if (result == null) {
+        append(input);
+      }
+      return result;
+    }
+    append(input);
+    pending.flip();
+    try {
+      return scan(pending);
+    } finally {
+      pending.compact();
+    }
+  }
+
+  /** @return the number of bytes of an incomplete message held by this decoder */
+  public int getPendingLength() {
+    return pending.position();
+  }
+
+  /** Discard any data held of an incomplete message, so that decoding starts afresh */
+  public void reset() {
+    pending.clear();
+    state = prefix != null ? State.LENGTH : State.HEADER;
+    offset = 0;
+    frameLength = 0;
+    plan = null;
+    bitmap = null;
+    fieldNum = 0;
+  }
+
+  /**
+   * Continue to scan the current message, held in <code>data</code> from its position
+   * @return the message, if complete (advancing the position of <code>data</code> past it),
+   * otherwise null
+   */
+  private Message scan(final ByteBuffer data) throws IOException, ParseException {
+    final int start = data.position();
+    final int available = data.remaining();
+    final ByteBuffer view = data.duplicate();
+    while (true) {
+      switch (state) {
+        case LENGTH:
+          if (available < prefix.getSize()) {
+            return null;
+          }
+          view.position(start);
+          frameLength = prefix.read(view);
+          if (frameLength > maxMessageLength) {
+            throw new IOException("Message length (" + frameLength + ") exceeds maximum (" + maxMessageLength + ")");
+          }
+          offset = prefix.getSize();
+          state = State.FRAME;
+          break;
+        case FRAME:
+          if (available < offset + frameLength) {
+            return null;
+          }
+          return complete(data, start + offset, start + offset + frameLength);
+        case HEADER:
+          offset = parser.getHeaderLength();
+          state = State.MTI;
+          break;
+        case MTI:
+          if (available < offset + reader.getMTISize()) {
+            return null;
+          }
+          view.position(start + offset);
+          plan = parser.getParsePlan(reader.readMTI(view));
+          offset += reader.getMTISize();
+          state = State.BITMAP;
+          break;
+        case BITMAP:
+          view.position(start + offset);
+          final int bitmapSize = reader.getBitmapSize(parser.getBitmapType(), view);
+          if (bitmapSize < 0 || available < offset + bitmapSize) {
+            return null;
+          }
+          bitmap = reader.readBitmap(parser.getBitmapType(), view);
+          offset += bitmapSize;
+          fieldNum = bitmap.nextPresentField(2);
+          state = State.FIELDS;
+          break;
+        case FIELDS:
+          while (fieldNum > 0) {
+            view.position(start + offset);
+            final int fieldSize = reader.getFieldSize(plan.getField(fieldNum), view);
+            if (fieldSize < 0 || available < offset + fieldSize) {
+              checkLength(offset + Math.max(fieldSize, 0));
+              return null;
+            }
+            offset += fieldSize;
+            fieldNum = bitmap.nextPresentField(fieldNum + 1);
+          }
+          checkLength(offset);
+          return complete(data, start, start + offset);
+      }
+    }
+  }
+
+  /**
+   * Parse the complete message held in <code>data</code> between <code>from</code> and
+   * <code>to</code>, advancing its position to <code>to</code> and resetting the decoder
+   * to expect the next message
+   */
+  private Message complete(final ByteBuffer data, final int from, final int to) throws IOException, ParseException {
+    final ByteBuffer message = data.duplicate();
+    message.limit(to);
+    message.position(from);
+    data.position(to);
+    state = prefix != null ? State.LENGTH : State.HEADER;
+    offset = 0;
+    plan = null;
+    bitmap = null;
+    return factory.parse(message);
+  }
+
+  /** @throws IOException if the current message exceeds the maximum length */
+  private void checkLength(final int length) throws IOException {
+    if (length > maxMessageLength) {
+      throw new IOException("Message length (" + length + ") exceeds maximum (" + maxMessageLength + ")");
+    }
+  }
+
+  /** Take all the remaining input, appending it to the pending data */
+  private void append(final ByteBuffer input) {
+    final int required = pending.position() + input.remaining();
+    if (required > pending.capacity()) {
+      final ByteBuffer buffer = ByteBuffer.allocate(Math.max(required, pending.capacity() * 2));
+      pending.flip();
+      buffer.put(pending);
+      pending = buffer;
+    }
+    pending.put(input);
+  }
+
+}
@@ -2,7 +2,7 @@ package org.nulleins.formats.iso8583;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
+import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Maps.EntryTransformer;
 import org.apache.commons.beanutils.PropertyUtils;
@@ -10,6 +10,8 @@ import org.nulleins.formats.iso8583.formatters.TypeFormatter;
 import org.nulleins.formats.iso8583.formatters.TypeFormatters;
 import org.nulleins.formats.iso8583.io.BCDMessageWriter;
 import org.nulleins.formats.iso8583.io.CharMessageWriter;
+import org.nulleins.formats.iso8583.io.FrameReader;
+import org.nulleins.formats.iso8583.io.LengthPrefix;
 import org.nulleins.formats.iso8583.io.MessageWriter;
 import org.nulleins.formats.iso8583.types.BitmapType;
 import org.nulleins.formats.iso8583.types.CharEncoder;
@@ -17,21 +19,21 @@ import org.nulleins.formats.iso8583.types.ContentType;
 import org.nulleins.formats.iso8583.types.MTI;
 
 import javax.annotation.PostConstruct;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.TreeSet;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /** ISO8583 Message factory, configured with a f of message templates (a schema),
@@ -49,7 +51,7 @@ import java.util.TreeSet;
  * </dl>
  * @author phillipsr */
 public class MessageFactory {
-  private final Map<MTI, MessageTemplate> messages = new HashMap<MTI, MessageTemplate>();
+  private final TemplateRegistry messages = new TemplateRegistry();
   private BitmapType bitmapType = BitmapType.HEX;
   private ContentType contentType = ContentType.TEXT;
   private CharEncoder charset = CharEncoder.ASCII;
@@ -57,8 +59,11 @@ public class MessageFactory {
   private String description;
   private String id;
   private boolean strict = Boolean.TRUE;
+  private boolean rawPassthrough;
   private TypeFormatters formatters;
   private MessageParser parser;
+  /** writer for the factory's content type and charset, created on first use */
+  private MessageWriter writer;
 
   private Optional<AutoGeneratorFactory> autoGenerator = Optional.absent();
 
@@ -72,6 +77,10 @@ public class MessageFactory {
     }
     if (parser == null) {
       parser = MessageParser.create(header, messages, contentType, charset, bitmapType);
+      parser.setRetainRaw(rawPassthrough);
+    }
+    for (final MessageTemplate template : messages.values()) {
+      template.getParsePlan();
     }
   }
 
@@ -83,6 +92,23 @@ public class MessageFactory {
     this.strict = strict;
   }
 
+  /** @return true if messages parsed by this factory retain a copy of their message data, so that
+   * the raw data of fields not changed since parsing is copied, rather than re-encoded, when the
+   * message is written */
+  public boolean isRawPassthrough() {
+    return rawPassthrough;
+  }
+
+  /** @param rawPassthrough true if messages parsed are to retain a copy of their message data, so
+   * that unchanged fields are written by copying their raw data, e.g., when forwarding a message
+   * with a few fields changed; this costs a copy of the data of each message parsed */
+  public void setRawPassthrough(final boolean rawPassthrough) {
+    this.rawPassthrough = rawPassthrough;
+    if (parser != null) {
+      parser.setRetainRaw(rawPassthrough);
+    }
+  }
+
   /** @return the default bitmap type used in this factory */
   public BitmapType getBitmapType() {
     return bitmapType;
@@ -107,6 +133,7 @@ public class MessageFactory {
   public void setContentType(final ContentType contentType) {
     Preconditions.checkNotNull(contentType, "contentType cannot not be null, must be one of: " + Arrays.toString(ContentType.values()));
     this.contentType = contentType;
+    this.writer = null;
   }
 
   public CharEncoder getCharset() {
@@ -116,6 +143,7 @@ public class MessageFactory {
   public void setCharset(final CharEncoder charset) {
     Preconditions.checkNotNull(charset, "charset cannot be null");
     this.charset = charset;
+    this.writer = null;
   }
 
   /** @return the header field value used (can be null) */
@@ -172,7 +200,7 @@ public class MessageFactory {
    * @param message */
   public void addMessage(final MessageTemplate message) {
     message.setSchema(this);
-    this.messages.put(message.getMessageTypeIndicator(), message);
+    this.messages.put(message);
   }
 
   /** @return a string representation of this message factory */
@@ -200,16 +228,31 @@ public class MessageFactory {
     return result;
   }
 
-  /** Write a message to the supplied <code>output</code> stream
+  /** Write a message to the supplied <code>output</code> stream; the raw data of fields unchanged
+   * since the message was parsed is copied, if this factory retains raw data
    * @param message
    * @param output
    * @throws java.io.IOException
+   * @throws IllegalStateException if a field was skipped when the message was parsed, and has no
+   *                               raw data to be copied
    * @see #writeFromNumberMap(org.nulleins.formats.iso8583.types.MTI, java.util.Map, java.io.OutputStream) */
   public void writeToStream(final Message message, final OutputStream output) throws IOException {
-    writeFromNumberMap(message.getMTI(), message.getFields(), output);
+    if (!message.hasRawData()) {
+      final SortedSet<Integer> skipped = message.getSkippedFields();
+      if (!skipped.isEmpty()) {
+        throw notParsed(skipped.first());
+      }
+      writeFromNumberMap(message.getMTI(), message.getFields(), output);
+      return;
+    }
+    Preconditions.checkNotNull(output, "Output stream cannot be null");
+    output.write(getMessageData(message));
+    output.flush();
   }
 
-  /** Create a message for the type and parameters specified and write it to the <code>output</code> stream
+  /** Create a message for the type and parameters specified and write it to the <code>output</code> stream;
+   * the bitmap written reflects the fields that have a value, so that optional fields without a value
+   * are omitted from the message
    * @param type   of the message to be written
    * @param params map of field # to field value (maybe updated if autogen or default required)
    * @param output stream to write formatted ISO8583 message onto
@@ -218,33 +261,193 @@ public class MessageFactory {
    *                                  the output stream is null or null/empty message parameters have been supplied */
   public void writeFromNumberMap(final MTI type, final Map<Integer, Object> params, final OutputStream output)
       throws IOException {
-    Preconditions.checkArgument(messages.containsKey(type), "Message not defined for MTI=" + type);
+    Preconditions.checkArgument(messages.contains(type), "Message not defined for MTI=" + type);
     Preconditions.checkNotNull(output, "Output stream cannot be null");
     Preconditions.checkArgument(params != null && !params.isEmpty(), "Message parameters are required");
 
     final MessageTemplate template = messages.get(type);
-    final MessageWriter writer = getOutputWriter(contentType, charset);
+    final MessageWriter writer = getWriter();
     final DataOutputStream dos = getDataOutputStream(output);
 
-    writer.appendHeader(header, dos);
-    writer.appendMTI(type, dos);
-    writer.appendBitmap(template.getBitmap(), bitmapType, dos);
+    // update parameter map with possibly autogen'd/default values, for consistency
+    final ParsePlan plan = template.getParsePlan();
+    final long[] present = getPresentFields(plan, params);
+    dos.write(template.getEncodedPrefix(writer, header));
+    writer.appendBitmap(present, bitmapType, dos);
 
-    // Iterate over the fields in order of field f,
+    // Iterate over the fields present in order of field number,
     // appending the field's data to the output stream
-    for (final Integer key : new TreeSet<>(template.getFields().keySet())) {
-      final FieldTemplate value1 = template.getFields().get(key);
-      final Object key1 = params.get(key);
-      final Object value = writeField(key1, writer, dos, value1);
-      // update parameter map with possibly autogen'd/default value, for consistency
-      params.put(key, value);
+    for (int key = nextField(present, 2); key > 0; key = nextField(present, key + 1)) {
+      writer.appendField(plan.getField(key), params.get(key), dos);
     }
 
     dos.flush();
   }
 
-  private Object writeField(final Object param, final MessageWriter writer, final DataOutputStream dos, final FieldTemplate field)
-      throws IOException {
+  /** @return the number of bytes the supplied message will occupy when encoded (excluding any
+   * length prefix), computed from the field dimensions and, for variable fields, the length of
+   * their values; any autogen or default field values required are set in the message, so that
+   * they are the values subsequently encoded
+   * @param message to be encoded
+   * @throws IllegalArgumentException if the message's type is not defined in this factory's schema
+   * @throws MessageException         if a required field value is missing, or cannot be encoded
+   * @throws IllegalStateException    if a field was skipped when the message was parsed, and has
+   *                                  no raw data to be copied */
+  public int encodedLength(final Message message) {
+    final MessageTemplate template = getTemplateFor(message);
+    final MessageWriter writer = getWriter();
+    try {
+      final ParsePlan plan = template.getParsePlan();
+      final long[] present = getPresentFields(plan, message);
+      int result = template.getEncodedPrefix(writer, header).length + writer.getBitmapSize(present, bitmapType);
+      for (int key = nextField(present, 2); key > 0; key = nextField(present, key + 1)) {
+        final FieldTemplate field = plan.getField(key);
+        final ByteBuffer raw = message.getRawField(field, contentType, charset);
+        result += raw != null ? raw.remaining() : writer.getFieldSize(field, message.getData(key));
+      }
+      return result;
+    } catch (final IOException e) {
+      throw new MessageException("Failed to determine size of message: " + message.getMTI(), e);
+    }
+  }
+
+  /** Encode the supplied message directly into the <code>output</code> buffer (heap or direct),
+   * from its current position; size the buffer with <code>encodedLength(message)</code> to
+   * allocate it once, or to reuse a buffer, e.g., one from <code>FrameWriter.beginFrame</code>
+   * @param message to be encoded
+   * @param output  buffer to which the message data is written; on return, its position is
+   *                advanced past the message
+   * @return the number of bytes written
+   * @throws IllegalArgumentException         if the message's type is not defined in this factory's schema
+   * @throws MessageException                 if a required field value is missing, or cannot be encoded
+   * @throws IllegalStateException            if a field was skipped when the message was parsed, and
+   *                                          has no raw data to be copied
+   * @throws java.nio.BufferOverflowException if the buffer has insufficient space for the message,
+   *                                          in which case its position is not changed
+   * @throws NullPointerException             if the output buffer is null */
+  public int encode(final Message message, final ByteBuffer output) {
+    Preconditions.checkNotNull(output, "Output buffer cannot be null");
+    final MessageTemplate template = getTemplateFor(message);
+    final MessageWriter writer = getWriter();
+    final int start = output.position();
+    try {
+      final ParsePlan plan = template.getParsePlan();
+      final long[] present = getPresentFields(plan, message);
+      output.put(template.getEncodedPrefix(writer, header));
+      writer.appendBitmap(present, bitmapType, output);
+      for (int key = nextField(present, 2); key > 0; key = nextField(present, key + 1)) {
+        final FieldTemplate field = plan.getField(key);
+        final ByteBuffer raw = message.getRawField(field, contentType, charset);
+        if (raw != null) {
+          output.put(raw);
+        } else {
+          writer.appendField(field, message.getData(key), output);
+        }
+      }
+      return output.position() - start;
+    } catch (final IOException e) {
+      output.position(start);
+      throw new MessageException("Failed to encode message: " + message.getMTI(), e);
+    } catch (final RuntimeException e) {
+      output.position(start);
+      throw e;
+    }
+  }
+
+  /** @return the bitmap of the fields to be written, bit <code>(n-1)</code> of the three words
+   * being set if field <code>n</code> is defined by the plan and has a value, the value of a
+   * required field being resolved, and recorded in <code>fields</code>, if missing; the bits of
+   * fields 1 and 65 are set to indicate the presence of the secondary and tertiary bitmaps
+   * @throws MessageException if a required field has no value, and none can be determined */
+  private long[] getPresentFields(final ParsePlan plan, final Map<Integer, Object> fields) {
+    final long[] result = new long[3];
+    for (int key = 2; key <= 192; key++) {
+      final FieldTemplate field = plan.findField(key);
+      if (field != null && resolveValue(fields.get(key), field, fields) != null) {
+        result[(key - 1) >> 6] |= 1L << ((key - 1) & 63);
+      }
+    }
+    if (result[2] != 0) {
+      result[1] |= 1L;
+    }
+    if (result[1] != 0) {
+      result[0] |= 1L;
+    }
+    return result;
+  }
+
+  /** @return the bitmap of the fields of the message to be written, as above, a field whose
+   * raw data is to be copied being present without decoding its value
+   * @throws IllegalStateException if a field was skipped when the message was parsed, and has no
+   *                               raw data to be copied, as its value is not known */
+  private long[] getPresentFields(final ParsePlan plan, final Message message) {
+    final Map<Integer, Object> fields = message.getFieldValues();
+    final long[] result = new long[3];
+    for (int key = 2; key <= 192; key++) {
+      final FieldTemplate field = plan.findField(key);
+      if (field == null) {
+        continue;
+      }
+      final boolean raw = message.getRawField(field, contentType, charset) != null;
+      if (!raw && message.isFieldSkipped(key)) {
+        throw notParsed(key);
+      }
+      if (raw || resolveValue(message.getData(key), field, fields) != null) {
+        result[(key - 1) >> 6] |= 1L << ((key - 1) & 63);
+      }
+    }
+    if (result[2] != 0) {
+      result[1] |= 1L;
+    }
+    if (result[1] != 0) {
+      result[0] |= 1L;
+    }
+    return result;
+  }
+
+  /** @return exception reporting that field <code>number</code> cannot be written, having been
+   * skipped when the message was parsed */
+  private static IllegalStateException notParsed(final int number) {
+    return new IllegalStateException("Field " + number + " is present in the message, but was not parsed");
+  }
+
+  /** @return the number of the first field present in the bitmap whose number is not less
+   * than <code>key</code>, or -1 if none; the bits of fields 1, 65 and 129 are not fields */
+  private static int nextField(final long[] present, final int key) {
+    for (int index = (key - 1) >> 6; index < 3; index++) {
+      long bits = present[index] & ~1L;
+      if (index == (key - 1) >> 6) {
+        bits &= -1L << ((key - 1) & 63);
+      }
+      if (bits != 0) {
+        return index * 64 + Long.numberOfTrailingZeros(bits) + 1;
+      }
+    }
+    return -1;
+  }
+
+  /** @return the template for the supplied message's type
+   * @throws IllegalArgumentException if the type is not defined in this factory's schema */
+  private MessageTemplate getTemplateFor(final Message message) {
+    final MessageTemplate result = messages.get(message.getMTI());
+    Preconditions.checkArgument(result != null, "Message not defined for MTI=" + message.getMTI());
+    return result;
+  }
+
+  /** @return the value of the field, resolving a missing value, recording it in <code>fields</code>
+   * (for consistency between sizing and encoding the message) */
+  private Object resolveValue(final Object param, final FieldTemplate field, final Map<Integer, Object> fields) {
+    final Object result = resolveValue(param, field);
+    if (result != param) {
+      fields.put(field.getNumber(), result);
+    }
+    return result;
+  }
+
+  /** @return the value of the field to be written: the parameter supplied or, if null and the field
+   * is required, its autogen or default value
+   * @throws MessageException if the field is required, and no value can be determined */
+  private Object resolveValue(final Object param, final FieldTemplate field) {
     Object data = param;
     if (data == null && !field.isOptional()) {
       // first, try to autogen, and then fall back to default (if any)
@@ -263,9 +466,6 @@ public class MessageFactory {
         throw new MessageException("Value is <null> for field: " + field);
       }
     }
-    if (data != null) {
-      writer.appendField(field, data, dos);
-    }
     return data;
   }
 
@@ -278,6 +478,17 @@ public class MessageFactory {
     return new DataOutputStream(output);
   }
 
+  /** @return the message writer for this factory's content type and charset, shared by all
+   * writes (writers are stateless), so that templates can cache the message prefix it encodes */
+  private MessageWriter getWriter() {
+    MessageWriter result = writer;
+    if (result == null) {
+      result = getOutputWriter(contentType, charset);
+      writer = result;
+    }
+    return result;
+  }
+
   /** @return the appropriate message writer for the supplied content type
    * @param contentType
    * @param charset
@@ -302,7 +513,7 @@ public class MessageFactory {
    *
    * @throws IllegalArgumentException if the type supplied is not defined in this factory's schema */
   public Message createFromBean(final MTI type, final Object bean) {
-    Preconditions.checkArgument(messages.containsKey(type), "Message not defined for MTI=" + type);
+    Preconditions.checkArgument(messages.contains(type), "Message not defined for MTI=" + type);
     return createByNumbers(type,
         Maps.transformEntries(messages.get(type).getFields(), mapBeanValues(bean)));
   }
@@ -317,6 +528,9 @@ public class MessageFactory {
    */
   public void addFormatter(final String type, TypeFormatter<?> formatter) {
     formatters.setFormatter(type, formatter);
+    for (final MessageTemplate template : messages.values()) {
+      template.resetParsePlan();
+    }
   }
 
   /** @return the formatter for message <code>type</code> */
@@ -333,7 +547,243 @@ public class MessageFactory {
    * @throws java.text.ParseException
    * @throws java.io.IOException */
   public Message parse(final byte[] bytes) throws ParseException, IOException {
-    return this.parse(new ByteArrayInputStream(bytes));
+    return this.parse(bytes, 0, bytes.length);
+  }
+
+  /** @return a message parsed from <code>length</code> bytes of the supplied array, starting
+   * at <code>offset</code>; field values are parsed in place, without copying the data
+   * @throws java.text.ParseException
+   * @throws java.io.IOException if the bytes specified do not hold a whole message
+   * @throws IndexOutOfBoundsException if the offset and length are not valid for the array */
+  public Message parse(final byte[] bytes, final int offset, final int length) throws ParseException, IOException {
+    return this.parse(ByteBuffer.wrap(bytes, offset, length));
+  }
+
+  /** @return A message representation, parsed from the supplied buffer (heap or direct)
+   * @param input buffer holding an ISO8583 message from its current position; field values are
+   *              parsed in place, and on return the position is advanced past the message, so
+   *              that messages held back-to-back in a buffer can be parsed in turn
+   *
+   * @throws java.text.ParseException           if the input message is not well-formed or does not
+   *                                  conform to the message specification configured
+   * @throws NullPointerException if the input buffer supplied is null
+   * @throws java.io.IOException              if the buffer does not hold a whole message
+   * @throws MessageException     if a field cannot be parsed (to parse a message leniently, without
+   *                              exceptions for invalid field data, use <code>tryParse</code>) */
+  public Message parse(final ByteBuffer input) throws ParseException, IOException {
+    Preconditions.checkNotNull(input, "Input buffer cannot be null");
+    final Message result = parser.parse(input);
+    result.setTemplate(messages.get(result.getMTI()));
+    return result;
+  }
+
+  /** Parse the supplied buffer into the <code>target</code> message, as <code>parse(input)</code>,
+   * reusing the message and its field storage, rather than creating a new message; e.g., for a
+   * processing loop that takes its messages from a {@link MessagePool}
+   * @return the target message, reset to hold the message parsed, of the type read
+   * @param input  buffer holding an ISO8583 message from its current position; on return the
+   *               position is advanced past the message
+   * @param target message to hold the result, whose previous values are discarded
+   * @throws java.text.ParseException if the input message is not well-formed
+   * @throws NullPointerException     if the input buffer or target message is null
+   * @throws java.io.IOException      if the buffer does not hold a whole message
+   * @throws MessageException         if the message cannot be parsed (see <code>parse(input)</code>) */
+  public Message parseInto(final ByteBuffer input, final Message target) throws ParseException, IOException {
+    Preconditions.checkNotNull(input, "Input buffer cannot be null");
+    Preconditions.checkNotNull(target, "Target message cannot be null");
+    parser.parse(input, FieldSelector.ALL, target);
+    target.setTemplate(messages.get(target.getMTI()));
+    return target;
+  }
+
+  /** Parse the supplied buffer leniently into the <code>target</code> message, as
+   * <code>tryParse(input)</code>, reusing the message and its field storage
+   * @return the result of parsing, whose message is the target (reset to hold the fields parsed
+   * without error), or null if the message header, type or bitmap could not be parsed, when the
+   * target is unchanged
+   * @param input  buffer holding the message data from its current position; on return the
+   *               position is advanced past the message, or to the buffer's limit if parsing
+   *               stopped before the end of the message
+   * @param target message to hold the result, whose previous values are discarded
+   * @throws NullPointerException if the input buffer or target message is null */
+  public ParseResult tryParseInto(final ByteBuffer input, final Message target) {
+    Preconditions.checkNotNull(input, "Input buffer cannot be null");
+    Preconditions.checkNotNull(target, "Target message cannot be null");
+    final ParseResult result = parser.tryParse(input, target);
+    if (result.getMessage() != null) {
+      target.setTemplate(messages.get(target.getMTI()));
+    }
+    return result;
+  }
+
+  /** @return the result of parsing the supplied buffer leniently: the message, with the values of
+   * the fields that were parsed without error, and an error code and the raw data of each field
+   * that could not be parsed; no exception is thrown for invalid message data
+   * @param input buffer holding the message data from its current position; on return the
+   *              position is advanced past the message, or to the buffer's limit if parsing
+   *              stopped before the end of the message
+   * @throws NullPointerException if the input buffer is null */
+  public ParseResult tryParse(final ByteBuffer input) {
+    Preconditions.checkNotNull(input, "Input buffer cannot be null");
+    final ParseResult result = parser.tryParse(input);
+    if (result.getMessage() != null) {
+      result.getMessage().setTemplate(messages.get(result.getMessage().getMTI()));
+    }
+    return result;
+  }
+
+  /** @return A message representation, parsed from the supplied buffer, with values for only the
+   * <code>selected</code> fields; the data of other fields present is skipped without being parsed,
+   * and these fields are reported by the message's <code>getSkippedFields()</code>
+   * @param input    buffer holding the message data from its current position; on return the
+   *                 position is advanced past the message
+   * @param selected fields to be parsed
+   * @throws ParseException       if the message type or header cannot be parsed
+   * @throws IOException          if the buffer does not hold a whole message
+   * @throws MessageException     if a selected field value cannot be parsed
+   * @throws NullPointerException if the input buffer or selector is null */
+  public Message parse(final ByteBuffer input, final FieldSelector selected) throws ParseException, IOException {
+    Preconditions.checkNotNull(input, "Input buffer cannot be null");
+    Preconditions.checkNotNull(selected, "Field selector cannot be null");
+    final Message result = parser.parse(input, selected);
+    result.setTemplate(messages.get(result.getMTI()));
+    return result;
+  }
+
+  /** @return A message representation, parsed from the supplied buffer, whose field values
+   * are decoded only when first requested; on first access, each value is cached in the message
+   * @param input buffer holding the message data from its current position; on return the
+   *              position is advanced past the message.  The message refers to the buffer's
+   *              content, which must not be changed while the message has undecoded fields
+   * @throws ParseException           if the message type or header cannot be parsed
+   * @throws IOException              if the buffer does not hold a whole message
+   * @throws MessageException         if a field value cannot be decoded, when first requested
+   * @throws NullPointerException     if the input buffer is null */
+  public Message parseLazy(final ByteBuffer input) throws ParseException, IOException {
+    Preconditions.checkNotNull(input, "Input buffer cannot be null");
+    final Message result = parser.parseLazy(input);
+    result.setTemplate(messages.get(result.getMTI()));
+    return result;
+  }
+
+  /** @return a patcher for the message held in the supplied buffer, overwriting its message type
+   * and field values in place, in the buffer, without parsing the message; e.g., to turn a request
+   * frame into a response by changing its type and setting its (fixed-length) response fields
+   * @param frame buffer holding the message data from its current position, which is not changed
+   * @throws IOException              if the buffer does not hold the whole message
+   * @throws MessageException         if the message header is not valid, or its type is not defined
+   * @throws IllegalArgumentException if the frame is null */
+  public FramePatcher patch(final ByteBuffer frame) throws IOException {
+    return parser.patch(frame, getWriter());
+  }
+
+  /** @return the header, type and bitmap of the message held in the supplied buffer, with the
+   * values of the <code>fields</code> requested; other fields are skipped without being parsed,
+   * so that, e.g., a message can be routed without the cost of a full parse
+   * @param input  buffer holding the message data from its current position, which is not changed
+   * @param fields numbers of the fields whose values are required (may be none)
+   * @throws ParseException           if the message type or header cannot be parsed
+   * @throws IOException              if the buffer does not hold the fields requested
+   * @throws MessageException         if fields are requested and the message type is not defined,
+   *                                  or if a requested field value cannot be parsed
+   * @throws IllegalArgumentException if a field number is not in the range 2..192
+   * @throws NullPointerException     if the input buffer is null */
+  public MessagePeek peek(final ByteBuffer input, final int... fields) throws ParseException, IOException {
+    Preconditions.checkNotNull(input, "Input buffer cannot be null");
+    return parser.peek(input, FieldSelector.of(fields));
+  }
+
+  /** @return a one-pass iterable of the messages read from the input stream, where each message
+   * is preceded by a length specifier; messages are read and parsed only as the iteration proceeds,
+   * so that they can be filtered, transformed, etc., without holding all the messages in memory.
+   * The messages are iterated sequentially: to parse them in parallel, use <code>spliterator</code>
+   * <p/>
+   * An exception reading or parsing a message is thrown from the iterator as a
+   * <code>MessageException</code>, with the original exception as its cause
+   * @param input  stream from which length-prefixed messages are read
+   * @param prefix codec for the length specifier preceding each message
+   * @throws NullPointerException if either argument is null */
+  public FluentIterable<Message> stream(final InputStream input, final LengthPrefix prefix) {
+    return stream(new FrameReader(prefix, input));
+  }
+
+  /** @return a one-pass iterable of the messages read from the (blocking) channel, where each
+   * message is preceded by a length specifier; messages are read and parsed only as the iteration
+   * proceeds
+   * @param input  channel from which length-prefixed messages are read
+   * @param prefix codec for the length specifier preceding each message
+   * @throws NullPointerException if either argument is null
+   * @see #stream(java.io.InputStream, org.nulleins.formats.iso8583.io.LengthPrefix) */
+  public FluentIterable<Message> stream(final ReadableByteChannel input, final LengthPrefix prefix) {
+    return stream(new FrameReader(prefix, input));
+  }
+
+  private FluentIterable<Message> stream(final FrameReader frames) {
+    final MessageSpliterator messages = MessageSpliterator.of(this, frames);
+    final AtomicBoolean iterated = new AtomicBoolean();
+    return new FluentIterable<Message>() {
+      @Override
+      public Iterator<Message> iterator() {
+        Preconditions.checkState(!iterated.getAndSet(true), "Message stream can only be iterated once");
+        return messages;
+      }
+    };
+  }
+
+  /** @return a splittable iterator over the messages read from the input stream, where each
+   * message is preceded by a length specifier, so that the messages can be parsed in parallel;
+   * the stream is split by reading ahead batches of messages
+   * @param input  stream from which length-prefixed messages are read
+   * @param prefix codec for the length specifier preceding each message
+   * @throws NullPointerException if either argument is null
+   * @see MessageSpliterator */
+  public MessageSpliterator spliterator(final InputStream input, final LengthPrefix prefix) {
+    return MessageSpliterator.of(this, new FrameReader(prefix, input));
+  }
+
+  /** @return a splittable iterator over the messages read from the (blocking) channel, where each
+   * message is preceded by a length specifier, so that the messages can be parsed in parallel
+   * @param input  channel from which length-prefixed messages are read
+   * @param prefix codec for the length specifier preceding each message
+   * @throws NullPointerException if either argument is null
+   * @see MessageSpliterator */
+  public MessageSpliterator spliterator(final ReadableByteChannel input, final LengthPrefix prefix) {
+    return MessageSpliterator.of(this, new FrameReader(prefix, input));
+  }
+
+  /** @return a splittable iterator over the messages held in the buffer (e.g., a mapped file),
+   * where each message is preceded by a length specifier; the frames are indexed by their length
+   * specifiers, and split at record boundaries, so that the messages can be parsed in parallel
+   * @param input  buffer holding length-prefixed messages, from its position to its limit; the
+   *               buffer's position is not changed, and its content must not change while the
+   *               messages are parsed
+   * @param prefix codec for the length specifier preceding each message
+   * @throws IOException          if a length specifier is not valid, or the buffer ends part way
+   *                              through a message
+   * @throws NullPointerException if either argument is null
+   * @see MessageSpliterator */
+  public MessageSpliterator spliterator(final ByteBuffer input, final LengthPrefix prefix) throws IOException {
+    Preconditions.checkNotNull(input, "Input buffer cannot be null");
+    Preconditions.checkNotNull(prefix, "Length prefix cannot be null");
+    return MessageSpliterator.of(this, input, prefix);
+  }
+
+  /** @return a new decoder, to decode messages defined by this factory from data received in
+   * chunks, e.g., on a non-blocking connection; messages are not framed, so the decoder scans
+   * each message's bitmap and fields to find its end
+   * @param maxMessageLength maximum length of message accepted, in bytes
+   * @throws IllegalArgumentException if the maximum length is not positive */
+  public MessageDecoder newDecoder(final int maxMessageLength) {
+    return new MessageDecoder(this, parser, null, maxMessageLength);
+  }
+
+  /** @return a new decoder, to decode messages defined by this factory from data received in
+   * chunks, e.g., on a non-blocking connection, where each message is preceded by a length specifier
+   * @param prefix codec for the length specifier preceding each message
+   * @throws NullPointerException if the prefix is null */
+  public MessageDecoder newDecoder(final LengthPrefix prefix) {
+    Preconditions.checkNotNull(prefix, "Length prefix cannot be null");
+    return new MessageDecoder(this, parser, prefix, prefix.getMaxLength());
   }
 
   /** @return A message representation, parsed from the supplied input stream
@@ -344,14 +794,27 @@ public class MessageFactory {
    * @throws IllegalArgumentException if the input stream supplied is null
    * @throws java.io.IOException              when an error occurs reading from the input stream */
   public Message parse(final InputStream input) throws ParseException, IOException {
+    return this.parse(input, FieldSelector.ALL);
+  }
+
+  /** @return A message representation, parsed from the supplied input stream, with values for
+   * only the <code>selected</code> fields; the data of other fields present is read past without
+   * being parsed, and these fields are reported by the message's <code>getSkippedFields()</code>
+   * @param input    stream from which an ISO8583 message can be read
+   * @param selected fields to be parsed
+   * @throws java.text.ParseException if the input message is not well-formed
+   * @throws NullPointerException     if the input stream or selector is null
+   * @throws java.io.IOException      when an error occurs reading from the input stream */
+  public Message parse(final InputStream input, final FieldSelector selected) throws ParseException, IOException {
     Preconditions.checkNotNull(input, "Input stream cannot be null");
+    Preconditions.checkNotNull(selected, "Field selector cannot be null");
     final DataInputStream dis;
     if (!(input instanceof DataInputStream)) {
       dis = new DataInputStream(input);
     } else {
       dis = (DataInputStream) input;
     }
-    final Message result = parser.parse(dis);
+    final Message result = parser.parse(dis, selected);
     result.setTemplate(messages.get(result.getMTI()));
     return result;
   }
@@ -363,7 +826,7 @@ public class MessageFactory {
    * @param params map of message fields, keyed by names
    * @throws IllegalArgumentException if the type is not defined in this factory's schema */
   public Message createByNames(final MTI type, final Map<String, Object> params) {
-    Preconditions.checkArgument(messages.containsKey(type), "Message not defined for MTI=" + type);
+    Preconditions.checkArgument(messages.contains(type), "Message not defined for MTI=" + type);
     // convert the name map supplied to a field f keyed map
     return createByNumbers(type,
         Maps.transformEntries(messages.get(type).getFields(), mapValuesByName(params)));
@@ -382,35 +845,24 @@ public class MessageFactory {
   /** @return a duplicate of <code>source</code>, but using the <code>messageType</code> specified
    * (usually a response), setting its fields from the other fields ("move-corresponding" semantics)
    * <p/>
+   * The duplicate shares the field values of the source, without copying them, until either
+   * message is changed, and any fields of the source not yet decoded are decoded by each message
+   * independently, when first requested; the fields common to both message types are determined
+   * from the field sets compiled for each template (if the source has no template, the duplicate
+   * holds the source's values of all the fields defined for the <code>messageType</code>)
+   * <p/>
    * Note: message unlikely to be valid until fields add/removed
    * @param messageType    type of target message
    * @param source message to duplicate
-   * @throws IllegalArgumentException if the mti supplied is not defined in this factory's schema */
+   * @throws IllegalArgumentException if the mti supplied is not defined in this factory's schema
+   * @throws IllegalStateException    if a common field was skipped when the source was parsed */
   public Message duplicate(final MTI messageType, final Message source) {
-    Preconditions.checkArgument(messages.containsKey(messageType), "Message type [" + messageType + "] not defined in factory");
+    Preconditions.checkArgument(messages.contains(messageType), "Message type [" + messageType + "] not defined in factory");
     final MessageTemplate template = messages.get(messageType);
-    final Map<Integer, Object> fields = Maps.transformEntries(
-        Maps.filterEntries(template.getFields(), fieldPresent(source)), mapValuesByNumber(source));
-    return source.asType(messageType, template, fields);
-  }
-
-  /** @return predicate evaluating to true if field present in both <code>message</code> and <code>template</code> */
-  private static Predicate<Entry<Integer, FieldTemplate>> fieldPresent(final Message message) {
-    return new Predicate<Entry<Integer, FieldTemplate>>() {
-      @Override
-      public boolean apply(final Entry<Integer, FieldTemplate> entry) {
-        return message.isFieldPresent(entry.getValue().getNumber());
-      }
-    };
-  }
-
-  private static EntryTransformer<Integer, FieldTemplate, Object> mapValuesByNumber(final Message message) {
-    return new EntryTransformer<Integer, FieldTemplate, Object>() {
-      @Override
-      public Object transformEntry(final Integer number, final FieldTemplate field) {
-        return message.getFieldValue(field.getNumber());
-      }
-    };
+    final MessageTemplate sourceTemplate = source.getMessageTemplate();
+    final long[] common = template.getParsePlan().getCommonFields(
+        sourceTemplate != null ? sourceTemplate.getParsePlan() : null);
+    return source.derive(messageType, template, common);
   }
 
   private static EntryTransformer<Integer, FieldTemplate, Object> mapValuesByName(final Map<String, Object> params) {
@@ -439,15 +891,13 @@ public class MessageFactory {
   /** @return byte array of message data, either text or binary depending upon the
    * content type specified in the iso:schema in the configuration
    * @param message ISO8583 message to convert to a byte array
-   * @throws MessageException if an error occurred creating the byte representation of the message */
+   * @throws MessageException      if an error occurred creating the byte representation of the message
+   * @throws IllegalStateException if a field was skipped when the message was parsed, and has no
+   *                               raw data to be copied */
   public byte[] getMessageData(final Message message) {
-    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    try {
-      this.writeToStream(message, new DataOutputStream(baos));
-      return baos.toByteArray();
-    } catch (final IOException e) {
-      throw new MessageException("Failed to translate message to byte stream", e);
-    }
+    final ByteBuffer result = ByteBuffer.allocate(encodedLength(message));
+    encode(message, result);
+    return result.array();
   }
 
   public void addMessages(final List<MessageTemplate> messages) {
@@ -461,7 +911,7 @@ public class MessageFactory {
   }
 
   public boolean canBuild(final MTI messageType) {
-    return messages.containsKey(messageType);
+    return messages.contains(messageType);
   }
 
   public static class Builder {
@@ -471,6 +921,7 @@ public class MessageFactory {
     private String description;
     private String header;
     private Boolean strict;
+    private Boolean rawPassthrough;
     private CharEncoder charset;
 
     public Builder id(final String id) {
@@ -503,6 +954,11 @@ public class MessageFactory {
       return this;
     }
 
+    public Builder rawPassthrough(final boolean rawPassthrough) {
+      this.rawPassthrough = rawPassthrough;
+      return this;
+    }
+
     public Builder charset(final CharEncoder charset) {
       this.charset = charset;
       return this;
@@ -520,6 +976,9 @@ public class MessageFactory {
       if (strict != null) {
         result.setStrict(strict);
       }
+      if (rawPassthrough != null) {
+        result.setRawPassthrough(rawPassthrough);
+      }
       if (description != null) {
         result.setDescription(description);
       }
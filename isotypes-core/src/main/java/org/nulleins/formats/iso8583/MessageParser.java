@@ -1,8 +1,10 @@
 package org.nulleins.formats.iso8583;
 
+import org.nulleins.formats.iso8583.formatters.NumberFormatter;
 import org.nulleins.formats.iso8583.io.BCDMessageReader;
 import org.nulleins.formats.iso8583.io.CharMessageReader;
 import org.nulleins.formats.iso8583.io.MessageReader;
+import org.nulleins.formats.iso8583.io.MessageWriter;
 import org.nulleins.formats.iso8583.types.Bitmap;
 import org.nulleins.formats.iso8583.types.BitmapType;
 import org.nulleins.formats.iso8583.types.CharEncoder;
@@ -11,6 +13,7 @@ import org.nulleins.formats.iso8583.types.MTI;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.HashMap;
 import java.util.Map;
@@ -21,26 +24,48 @@ import java.util.Map;
  * @author phillipsr
  */
 public class MessageParser {
-  private final Map<MTI, MessageTemplate> messages;
+  private final TemplateRegistry messages;
   private final String header;
   private final ContentType contentType;
   private final CharEncoder charset;
   private final BitmapType bitmapType;
+  private final MessageReader reader;
+  /** if true, parsed messages retain a copy of their data, for raw field passthrough */
+  private boolean retainRaw;
 
   private MessageParser(
-      final String header, final Map<MTI, MessageTemplate> messages,
+      final String header, final TemplateRegistry messages,
       final ContentType contentType, final CharEncoder charset, final BitmapType bitmapType) {
     this.header = header;
     this.messages = messages;
     this.contentType = contentType;
     this.charset = charset;
     this.bitmapType = bitmapType;
+    this.reader = getMessageReader();
   }
 
   public static MessageParser create (
       final String header, final Map<MTI, MessageTemplate> messages,
       final ContentType contentType, final CharEncoder charset, final BitmapType bitmapType) {
-    return new MessageParser(header,messages,contentType,charset,bitmapType);
+    final TemplateRegistry registry = new TemplateRegistry();
+    for (final MessageTemplate template : messages.values()) {
+      registry.put(template);
+    }
+    return new MessageParser(header,registry,contentType,charset,bitmapType);
+  }
+
+  /** @return a parser for the messages of <code>registry</code>, which remains shared with
+    * the caller, so that templates subsequently registered can be parsed */
+  static MessageParser create (
+      final String header, final TemplateRegistry registry,
+      final ContentType contentType, final CharEncoder charset, final BitmapType bitmapType) {
+    return new MessageParser(header,registry,contentType,charset,bitmapType);
+  }
+
+  /** @param retainRaw true if parsed messages are to retain a copy of their message data, so
+    * that unchanged fields can be written again by copying their raw data */
+  void setRetainRaw(final boolean retainRaw) {
+    this.retainRaw = retainRaw;
   }
 
   private MessageReader getMessageReader() {
@@ -63,51 +88,466 @@ public class MessageParser {
    */
   public Message parse(final DataInputStream input)
       throws IOException {
+    return parse(input, FieldSelector.ALL);
+  }
+
+  /**
+   * read from the supplied input stream, identifying the message type and parsing the
+   * <code>selected</code> fields of the message body; the data of other fields is read past
+   * and discarded, and the fields are reported as skipped by the resulting message
+   * @param input    stream from which an ISO8583 message can be read
+   * @param selected fields to be parsed
+   * @return a message instance representing the message received
+   * @throws IOException              on errors reading from the input stream
+   * @throws IllegalArgumentException if the supplied input stream is null
+   */
+  public Message parse(final DataInputStream input, final FieldSelector selected)
+      throws IOException {
     if (input == null) {
       throw new IllegalArgumentException("Input stream for ISO8583 message cannot be null");
     }
-    final MessageReader reader = getMessageReader();
-
     // if the header field is required, check that it is present
     final int headerLen = header != null ? header.length() : 0;
     if (headerLen > 0) {
-      final String msgHeader = reader.readHeader(headerLen, input);
-      if (!msgHeader.equals(header)) {
-        throw new MessageException("Message should start with header: [" + header + "]");
-      }
+      checkHeader(reader.readHeader(headerLen, input));
     }
 
     // read the message type (MTI)
-    final MTI type = reader.readMTI(input);
-    final MessageTemplate template = messages.get(type);
-    if (template == null) {
-      throw new MessageException("Message type [" + type + "] not defined in this message set");
-    }
+    final MessageTemplate template = getTemplate(reader.readMTI(input));
 
     // create resulting message
     final Message result = new Message(template.getMessageTypeIndicator(), headerLen > 0 ? header : "");
 
     final Bitmap bitmap = reader.readBitmap(bitmapType, input);
 
-    // iterate across all possible fields, parsing if present:
-    final Map<Integer, Object> fields = new HashMap<>();
-    for ( int fieldNum = 2; fieldNum <= 192; fieldNum++) {
-      if (!bitmap.isFieldPresent(fieldNum)) {
+    // iterate across the fields present, parsing each:
+    final ParsePlan plan = template.getParsePlan();
+    for (int fieldNum = bitmap.nextPresentField(2); fieldNum > 0; fieldNum = bitmap.nextPresentField(fieldNum + 1)) {
+      final FieldTemplate field = plan.getField(fieldNum);
+      if (!selected.contains(fieldNum)) {
+        reader.skipField(field, input);
+        result.setSkipped(fieldNum);
         continue;
       }
-      final FieldTemplate field = template.getFields().get(fieldNum);
       final byte[] fieldData = reader.readField(field, input);
       try {
-        final Object value = field.parse(fieldData);
-        fields.put(field.getNumber(), value);
+        result.setValue(fieldNum, plan.parse(fieldNum, fieldData));
       } catch (final ParseException e) {
-        final MessageException rethrow = new MessageException("Failed to parse field: " + field.toString());
-        rethrow.initCause(e);
-        throw rethrow;
+        throw parseFailure(field, e);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * read from the supplied buffer, identifying the message type and parsing the message
+   * body; field values are parsed from the buffer directly, without intermediate copies
+   * @param input buffer holding an ISO8583 message, from its current position; on return,
+   *              the position is advanced to the end of the message
+   * @return a message instance representing the message received
+   * @throws IOException              if the buffer does not hold a whole message
+   * @throws IllegalArgumentException if the supplied input buffer is null
+   */
+  public Message parse(final ByteBuffer input)
+      throws IOException {
+    return parse(input, FieldSelector.ALL);
+  }
+
+  /**
+   * read from the supplied buffer, identifying the message type and parsing the
+   * <code>selected</code> fields of the message body; other fields are skipped, using their
+   * dimension and length specifiers, and are reported as skipped by the resulting message
+   * @param input    buffer holding an ISO8583 message, from its current position; on return,
+   *                 the position is advanced to the end of the message
+   * @param selected fields to be parsed
+   * @return a message instance representing the message received
+   * @throws IOException              if the buffer does not hold a whole message
+   * @throws IllegalArgumentException if the supplied input buffer is null
+   */
+  public Message parse(final ByteBuffer input, final FieldSelector selected)
+      throws IOException {
+    return parse(input, selected, null);
+  }
+
+  /**
+   * read from the supplied buffer, as {@link #parse(ByteBuffer, FieldSelector)}, into the
+   * <code>target</code> message, which is reset to hold the message read
+   * @param target message to be reused, or null if a new message is to be created
+   * @return the target message, or a new message if it was null
+   */
+  Message parse(final ByteBuffer input, final FieldSelector selected, final Message target)
+      throws IOException {
+    if (input == null) {
+      throw new IllegalArgumentException("Input buffer for ISO8583 message cannot be null");
+    }
+    final int start = input.position();
+    // if the header field is required, check that it is present
+    final int headerLen = header != null ? header.length() : 0;
+    if (headerLen > 0) {
+      checkHeader(reader.readHeader(headerLen, input));
+    }
+
+    // read the message type (MTI)
+    final MessageTemplate template = getTemplate(reader.readMTI(input));
+
+    // create (or reuse) resulting message
+    final Message result = newMessage(template, headerLen > 0 ? header : "", target);
+
+    final Bitmap bitmap = reader.readBitmap(bitmapType, input);
+
+    // iterate across the fields present, parsing each:
+    final ParsePlan plan = template.getParsePlan();
+    final FieldIndex index = retainRaw ? new FieldIndex(input, plan, reader, contentType, charset) : null;
+    for (int fieldNum = bitmap.nextPresentField(2); fieldNum > 0; fieldNum = bitmap.nextPresentField(fieldNum + 1)) {
+      final FieldTemplate field = plan.getField(fieldNum);
+      final int position = input.position();
+      Object value = null;
+      if (!selected.contains(fieldNum)) {
+        reader.skipField(field, input);
+        result.setSkipped(fieldNum);
+      } else if (index == null && plan.isLong(fieldNum)) {
+        // numeric values are held as longs, without boxing, unless raw data is retained:
+        try {
+          result.setLongValue(fieldNum, plan.parseLong(fieldNum, reader, input));
+        } catch (final ParseException e) {
+          throw parseFailure(field, e);
+        }
+      } else {
+        final ByteBuffer fieldData = reader.readField(field, input);
+        try {
+          value = plan.parse(fieldNum, fieldData);
+        } catch (final ParseException e) {
+          throw parseFailure(field, e);
+        }
+        result.setValue(fieldNum, value);
+      }
+      if (index != null) {
+        index.add(fieldNum, position, value);
+      }
+    }
+    if (index != null) {
+      index.retain(start, input.position());
+      result.setFieldIndex(index);
+    }
+
+    return result;
+  }
+
+  /**
+   * read from the supplied buffer, identifying the message type and parsing the message
+   * body leniently: fields that cannot be parsed are recorded in the result, with their raw
+   * data, rather than reported by throwing an exception.  If a field's length or position
+   * cannot be determined, parsing stops, and the remaining fields are recorded as not read
+   * @param input buffer holding an ISO8583 message, from its current position; on return,
+   *              the position is advanced past the message or, if parsing stopped before
+   *              the end of the message, to the buffer's limit
+   * @return the result of parsing, holding the message (unless its header, type or bitmap
+   * could not be parsed) and the errors encountered
+   * @throws IllegalArgumentException if the supplied input buffer is null
+   */
+  public ParseResult tryParse(final ByteBuffer input) {
+    return tryParse(input, null);
+  }
+
+  /**
+   * read from the supplied buffer leniently, as {@link #tryParse(ByteBuffer)}, into the
+   * <code>target</code> message, which is reset to hold the message read (unless its header,
+   * type or bitmap could not be parsed, when it is unchanged)
+   * @param target message to be reused, or null if a new message is to be created
+   */
+  ParseResult tryParse(final ByteBuffer input, final Message target) {
+    if (input == null) {
+      throw new IllegalArgumentException("Input buffer for ISO8583 message cannot be null");
+    }
+    // errors in the header, type or bitmap are not expected in the normal course, and are
+    // reported by the readers' exceptions:
+    final int headerLen = header != null ? header.length() : 0;
+    byte error = ParseResult.INVALID_HEADER;
+    final MessageTemplate template;
+    final Bitmap bitmap;
+    int start = input.position();
+    try {
+      if (headerLen > 0 && !reader.readHeader(headerLen, input).equals(header)) {
+        return failure(ParseResult.INVALID_HEADER, input, start);
+      }
+      error = ParseResult.INVALID_TYPE;
+      start = input.position();
+      template = messages.get(reader.readMTI(input));
+      if (template == null) {
+        return failure(ParseResult.INVALID_TYPE, input, start);
+      }
+      error = ParseResult.INVALID_BITMAP;
+      start = input.position();
+      bitmap = reader.readBitmap(bitmapType, input);
+    } catch (final IOException | RuntimeException e) {
+      return failure(error, input, start);
+    }
+
+    final Message message = newMessage(template, headerLen > 0 ? header : "", target);
+    final ParseResult result = new ParseResult(message);
+
+    // iterate across the fields present, parsing each:
+    final ParsePlan plan = template.getParsePlan();
+    int fieldNum;
+    for (fieldNum = bitmap.nextPresentField(2); fieldNum > 0; fieldNum = bitmap.nextPresentField(fieldNum + 1)) {
+      final FieldTemplate field = plan.findField(fieldNum);
+      if (field == null) {
+        result.addError(fieldNum, ParseResult.UNDEFINED_FIELD, null);
+        break;
+      }
+      start = input.position();
+      int size;
+      try {
+        size = reader.getFieldSize(field, input);
+      } catch (final IOException e) {
+        result.addError(fieldNum, ParseResult.INVALID_LENGTH, copy(input, start, input.limit()));
+        break;
+      }
+      if (size < 0 || size > input.remaining()) {
+        result.addError(fieldNum, ParseResult.TRUNCATED, copy(input, start, input.limit()));
+        break;
+      }
+      final ByteBuffer fieldData;
+      try {
+        if (plan.isLong(fieldNum)) {
+          // numeric values are held as longs, without boxing:
+          final long value = plan.tryParseLong(fieldNum, reader, input);
+          if (value != NumberFormatter.INVALID_LONG) {
+            message.setLongValue(fieldNum, value);
+          } else {
+            input.position(start + size);
+            result.addError(fieldNum, ParseResult.INVALID_VALUE, copy(input, start, start + size));
+          }
+          continue;
+        }
+        fieldData = reader.readField(field, input);
+      } catch (final IOException e) {
+        result.addError(fieldNum, ParseResult.INVALID_LENGTH, copy(input, start, start + size));
+        break;
+      }
+      final Object value = plan.tryParse(fieldNum, fieldData);
+      if (value != null) {
+        message.setValue(fieldNum, value);
+      } else {
+        result.addError(fieldNum, ParseResult.INVALID_VALUE, copy(input, start, start + size));
+      }
+    }
+    // the position of any fields after an error is unknown:
+    if (fieldNum > 0) {
+      for (fieldNum = bitmap.nextPresentField(fieldNum + 1); fieldNum > 0; fieldNum = bitmap.nextPresentField(fieldNum + 1)) {
+        result.addError(fieldNum, ParseResult.NOT_READ, null);
+      }
+      input.position(input.limit());
+    }
+
+    return result;
+  }
+
+  /** @return the <code>target</code> message, reset to hold a message of the type of the
+    * <code>template</code>, or a new message if the target is null */
+  private static Message newMessage(final MessageTemplate template, final String header, final Message target) {
+    if (target == null) {
+      return new Message(template.getMessageTypeIndicator(), header);
+    }
+    target.reset(template.getMessageTypeIndicator(), header);
+    return target;
+  }
+
+  /** @return a result recording the <code>error</code> that prevented the message being
+    * identified, with the message data from <code>start</code> */
+  private static ParseResult failure(final byte error, final ByteBuffer input, final int start) {
+    final ParseResult result = new ParseResult(null);
+    result.addError(0, error, copy(input, start, input.limit()));
+    input.position(input.limit());
+    return result;
+  }
+
+  /** @return a copy of the bytes of <code>input</code> between <code>from</code> and <code>to</code> */
+  private static byte[] copy(final ByteBuffer input, final int from, final int to) {
+    final ByteBuffer data = input.duplicate();
+    data.limit(to);
+    data.position(from);
+    final byte[] result = new byte[data.remaining()];
+    data.get(result);
+    return result;
+  }
+
+  /**
+   * read from the supplied buffer, identifying the message type and indexing the fields present
+   * in the message body, without decoding their values: each field value is decoded when first
+   * requested from the resulting message
+   * @param input buffer holding an ISO8583 message, from its current position; on return,
+   *              the position is advanced to the end of the message.  The message refers to the
+   *              buffer's content, which must not be changed while any fields remain undecoded,
+   *              unless the parser retains a copy of the message data
+   * @return a message instance representing the message received
+   * @throws IOException              if the buffer does not hold a whole message
+   * @throws IllegalArgumentException if the supplied input buffer is null
+   */
+  public Message parseLazy(final ByteBuffer input)
+      throws IOException {
+    if (input == null) {
+      throw new IllegalArgumentException("Input buffer for ISO8583 message cannot be null");
+    }
+    final int start = input.position();
+    // if the header field is required, check that it is present
+    final int headerLen = header != null ? header.length() : 0;
+    if (headerLen > 0) {
+      checkHeader(reader.readHeader(headerLen, input));
+    }
+
+    // read the message type (MTI)
+    final MessageTemplate template = getTemplate(reader.readMTI(input));
+
+    // create resulting message
+    final Message result = new Message(template.getMessageTypeIndicator(), headerLen > 0 ? header : "");
+
+    final Bitmap bitmap = reader.readBitmap(bitmapType, input);
+
+    // iterate across the fields present, recording the position of each:
+    final ParsePlan plan = template.getParsePlan();
+    final FieldIndex index = new FieldIndex(input, plan, reader, contentType, charset);
+    for (int fieldNum = bitmap.nextPresentField(2); fieldNum > 0; fieldNum = bitmap.nextPresentField(fieldNum + 1)) {
+      index.add(fieldNum, input.position());
+      reader.skipField(plan.getField(fieldNum), input);
+    }
+    if (retainRaw) {
+      index.retain(start, input.position());
+    }
+    result.setFieldIndex(index);
+
+    return result;
+  }
+
+  /**
+   * read the header, message type and bitmap of the message held in the supplied buffer,
+   * and the values of the <code>selected</code> fields; other fields are skipped, without
+   * being parsed, and reading stops after the last field selected
+   * @param input    buffer holding an ISO8583 message, from its current position, which
+   *                 is not changed
+   * @param selected fields whose values are required (may be empty)
+   * @return the header, type, bitmap and selected field values read
+   * @throws IOException              if the buffer does not hold the fields requested
+   * @throws IllegalArgumentException if the supplied input buffer is null
+   */
+  public MessagePeek peek(final ByteBuffer input, final FieldSelector selected)
+      throws IOException {
+    if (input == null) {
+      throw new IllegalArgumentException("Input buffer for ISO8583 message cannot be null");
+    }
+    final ByteBuffer view = input.duplicate();
+
+    // if the header field is required, check that it is present
+    final int headerLen = header != null ? header.length() : 0;
+    if (headerLen > 0) {
+      checkHeader(reader.readHeader(headerLen, view));
+    }
+
+    final MTI type = reader.readMTI(view);
+    final Bitmap bitmap = reader.readBitmap(bitmapType, view);
+
+    final Map<Integer, Object> fields = new HashMap<>();
+    final int last = selected.getLastField();
+    if (last > 0) {
+      final ParsePlan plan = getTemplate(type).getParsePlan();
+      for (int fieldNum = bitmap.nextPresentField(2); fieldNum > 0 && fieldNum <= last; fieldNum = bitmap.nextPresentField(fieldNum + 1)) {
+        final FieldTemplate field = plan.getField(fieldNum);
+        if (!selected.contains(fieldNum)) {
+          reader.skipField(field, view);
+          continue;
+        }
+        try {
+          fields.put(fieldNum, plan.parse(fieldNum, reader.readField(field, view)));
+        } catch (final ParseException e) {
+          throw parseFailure(field, e);
+        }
       }
     }
-    result.setFields(fields);
+    return new MessagePeek(headerLen > 0 ? header : "", type, bitmap, fields);
+  }
+
+  /**
+   * Index the message held in the supplied buffer, so that its type and fixed-length field
+   * values can be overwritten in place, without parsing the message
+   * @param frame  buffer holding an ISO8583 message, from its current position, which is not
+   *               changed
+   * @param writer used to encode the values patched
+   * @return a patcher writing to the frame's buffer
+   * @throws IOException              if the buffer does not hold the whole message
+   * @throws MessageException         if the message header or type is not valid
+   * @throws IllegalArgumentException if the supplied frame is null
+   */
+  FramePatcher patch(final ByteBuffer frame, final MessageWriter writer) throws IOException {
+    if (frame == null) {
+      throw new IllegalArgumentException("Frame buffer for ISO8583 message cannot be null");
+    }
+    final ByteBuffer view = frame.duplicate();
+
+    // if the header field is required, check that it is present
+    final int headerLen = header != null ? header.length() : 0;
+    if (headerLen > 0) {
+      checkHeader(reader.readHeader(headerLen, view));
+    }
+
+    final int mtiPosition = view.position();
+    final MessageTemplate template = getTemplate(reader.readMTI(view));
+    final Bitmap bitmap = reader.readBitmap(bitmapType, view);
+
+    // iterate across the fields present, recording the position and size of each:
+    final ParsePlan plan = template.getParsePlan();
+    final int[] positions = new int[193];
+    final int[] sizes = new int[193];
+    for (int fieldNum = bitmap.nextPresentField(2); fieldNum > 0; fieldNum = bitmap.nextPresentField(fieldNum + 1)) {
+      positions[fieldNum] = view.position();
+      reader.skipField(plan.getField(fieldNum), view);
+      sizes[fieldNum] = view.position() - positions[fieldNum];
+    }
+    return new FramePatcher(this, writer, frame, mtiPosition, template, positions, sizes);
+  }
+
+  /** @return the reader used to read messages of this parser's content type */
+  MessageReader getReader() {
+    return reader;
+  }
+
+  /** @return the length of the header expected at the start of messages (zero if none) */
+  int getHeaderLength() {
+    return header != null ? header.length() : 0;
+  }
+
+  /** @return the type of bitmap expected in messages */
+  BitmapType getBitmapType() {
+    return bitmapType;
+  }
+
+  /** @return the plan for parsing messages of <code>type</code>
+    * @throws MessageException if no template is defined for the message type */
+  ParsePlan getParsePlan(final MTI type) {
+    return getTemplate(type).getParsePlan();
+  }
+
+  /** @throws MessageException if the <code>messageHeader</code> read does not match the expected header */
+  private void checkHeader(final String messageHeader) {
+    if (!messageHeader.equals(header)) {
+      throw new MessageException("Message should start with header: [" + header + "]");
+    }
+  }
+
+  /** @return the template defined for the message <code>type</code> read
+    * @throws MessageException if no template is defined for the message type */
+  MessageTemplate getTemplate(final MTI type) {
+    final MessageTemplate template = messages.get(type);
+    if (template == null) {
+      throw new MessageException("Message type [" + type + "] not defined in this message set");
+    }
+    return template;
+  }
 
+  /** @return exception reporting the failure to parse <code>field</code> */
+  static MessageException parseFailure(final FieldTemplate field, final ParseException cause) {
+    final MessageException result = new MessageException("Failed to parse field: " + field.toString());
+    result.initCause(cause);
     return result;
   }
 
@@ -0,0 +1,67 @@
+package org.nulleins.formats.iso8583;
+
+import org.nulleins.formats.iso8583.types.Bitmap;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.util.Collections;
+import java.util.Map;
+
+
+/**
+ * The result of peeking at an encoded message: its header, message type and bitmap,
+ * with the values of only those fields selected by the caller, e.g., for routing the
+ * message without the cost of parsing it in full
+ * @author phillipsr
+ */
+public class MessagePeek {
+  private final String header;
+  private final MTI messageTypeIndicator;
+  private final Bitmap bitmap;
+  private final Map<Integer, Object> fields;
+
+  MessagePeek(final String header, final MTI messageTypeIndicator, final Bitmap bitmap, final Map<Integer, Object> fields) {
+    this.header = header;
+    this.messageTypeIndicator = messageTypeIndicator;
+    this.bitmap = bitmap;
+    this.fields = Collections.unmodifiableMap(fields);
+  }
+
+  public String getHeader() {
+    return header;
+  }
+
+  /** Answer with the peeked message's MTI */
+  public MTI getMTI() {
+    return messageTypeIndicator;
+  }
+
+  /** Answer with the bitmap read from the message, identifying the fields it contains */
+  public Bitmap getBitmap() {
+    return bitmap;
+  }
+
+  /** @return true if field <code>number</code> is present in the message
+    * @param number of the field */
+  public boolean isFieldPresent(final int number) {
+    return bitmap.isFieldPresent(number);
+  }
+
+  /** @return the value of the field specified, or null if the field was not selected
+    * or is not present in the message
+    * @param number of the field */
+  public Object getFieldValue(final int number) {
+    return fields.get(number);
+  }
+
+  /** @return the values of the selected fields present in the message, keyed by field number */
+  public Map<Integer, Object> getFields() {
+    return fields;
+  }
+
+  /** @return a summary of this peek, for logging purposes */
+  @Override
+  public String toString() {
+    return "MessagePeek mti=" + messageTypeIndicator + " header=" + header + " bitmap=" + bitmap + " #field=" + fields.size();
+  }
+
+}
@@ -0,0 +1,96 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+
+/**
+ * Bounded, per-thread pool of message instances, parsed into by the message factory, so
+ * that a steady-state processing loop can parse its messages without allocating a message
+ * and its field storage for each
+ * <p/>
+ * Example:</br>
+ * <code>
+ * final Message message = pool.parse(buffer);
+ * try {
+ * &nbsp;&nbsp;handle(message);
+ * } finally {
+ * &nbsp;&nbsp;pool.release(message);
+ * }
+ * </code>
+ * <p/>
+ * Each thread has its own pool of up to <code>capacity</code> released messages, so no
+ * locking is needed; a message should be released by the thread that parsed it, and must not
+ * be used after it has been released.  If a thread's pool is empty, a new message is parsed
+ * @author phillipsr
+ */
+public class MessagePool {
+  private final MessageFactory factory;
+  private final int capacity;
+  private final ThreadLocal<Deque<Message>> pools = new ThreadLocal<Deque<Message>>() {
+    @Override
+    protected Deque<Message> initialValue() {
+      return new ArrayDeque<>(capacity);
+    }
+  };
+
+  /**
+   * Instantiate a pool of messages parsed by the message factory supplied
+   * @param factory  that defines and parses the messages pooled
+   * @param capacity maximum number of released messages held for reuse, per thread
+   * @throws NullPointerException     if the factory is null
+   * @throws IllegalArgumentException if the capacity is not positive
+   */
+  public MessagePool(final MessageFactory factory, final int capacity) {
+    Preconditions.checkNotNull(factory, "Message factory cannot be null");
+    Preconditions.checkArgument(capacity > 0, "Pool capacity must be positive (got: %s)", capacity);
+    this.factory = factory;
+    this.capacity = capacity;
+  }
+
+  /** @return a message parsed from the supplied buffer, as <code>MessageFactory.parse(input)</code>,
+   * reusing a message released to this thread's pool, if there is one; the message should be
+   * released when it is no longer required
+   * @param input buffer holding an ISO8583 message from its current position; on return the
+   *              position is advanced past the message
+   * @throws ParseException       if the input message is not well-formed
+   * @throws IOException          if the buffer does not hold a whole message
+   * @throws MessageException     if the message cannot be parsed
+   * @throws NullPointerException if the input buffer is null */
+  public Message parse(final ByteBuffer input) throws ParseException, IOException {
+    final Message message = pools.get().pollFirst();
+    if (message == null) {
+      return factory.parse(input);
+    }
+    try {
+      return factory.parseInto(input, message);
+    } catch (final ParseException | IOException | RuntimeException e) {
+      release(message);
+      throw e;
+    }
+  }
+
+  /** Return the message supplied to this thread's pool, for reuse, unless the pool is full;
+   * the message is reset, and must not be used again by the caller
+   * @param message to be released, previously answered by <code>parse</code>
+   * @throws NullPointerException if the message is null */
+  public void release(final Message message) {
+    Preconditions.checkNotNull(message, "Message cannot be null");
+    final Deque<Message> pool = pools.get();
+    if (pool.size() < capacity) {
+      message.reset();
+      pool.addFirst(message);
+    }
+  }
+
+  /** @return the number of released messages held for reuse by the current thread */
+  public int size() {
+    return pools.get().size();
+  }
+
+}
@@ -0,0 +1,296 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.io.FrameReader;
+import org.nulleins.formats.iso8583.io.LengthPrefix;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Splittable iterator over the messages of a source of length-prefixed frames, so that the
+ * messages can be parsed in parallel (the Java 7 counterpart of a <code>Spliterator</code>)
+ * <p/>
+ * Frames held in a buffer (e.g., a mapped file) are indexed by their length specifiers, and
+ * are split at the record boundary nearest the middle of the range remaining.  Frames read
+ * from a stream or channel are split by reading ahead a batch of frames into a buffer, whose
+ * frames are then split in turn; the batch size grows with each split, so that a long stream
+ * is split into a moderate number of batches
+ * <p/>
+ * Example:</br>
+ * <code>
+ * factory.spliterator(channel, LengthPrefix.binary(2)).forEach(pool, handler);
+ * </code>
+ * <p/>
+ * Instances are not thread-safe: each split may be iterated on a different thread, but a
+ * single spliterator must be iterated and split by one thread at a time
+ * @author phillipsr
+ */
+public abstract class MessageSpliterator implements Iterator<Message> {
+  /** estimated size of a spliterator whose number of messages is not known */
+  public static final long UNKNOWN_SIZE = Long.MAX_VALUE;
+  /** number of messages below which a parallel task parses its messages, rather than splitting them */
+  private static final int Threshold = 256;
+
+  /** Receives the messages parsed */
+  public interface Handler {
+    /** @param message parsed from the next frame */
+    void onMessage(Message message);
+  }
+
+  protected final MessageFactory factory;
+
+  private MessageSpliterator(final MessageFactory factory) {
+    this.factory = factory;
+  }
+
+  /** @return a spliterator over the frames held in the <code>input</code> buffer, from its
+   * position to its limit; the buffer's position is not changed
+   * @throws IOException if a length specifier is not valid, or the buffer ends part way through a frame */
+  static MessageSpliterator of(final MessageFactory factory, final ByteBuffer input, final LengthPrefix prefix)
+      throws IOException {
+    final ByteBuffer data = input.duplicate();
+    int[] offsets = new int[1024];
+    int[] lengths = new int[1024];
+    int count = 0;
+    while (data.hasRemaining()) {
+      if (data.remaining() < prefix.getSize()) {
+        throw new EOFException("Input ends part way through the length specifier of frame " + count);
+      }
+      final int length = prefix.read(data);
+      if (length > data.remaining()) {
+        throw new EOFException("Input ends part way through frame " + count + " (length=" + length + ")");
+      }
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, count * 2);
+        lengths = Arrays.copyOf(lengths, count * 2);
+      }
+      offsets[count] = data.position();
+      lengths[count] = length;
+      count++;
+      data.position(data.position() + length);
+    }
+    return new Indexed(factory, input, offsets, lengths, 0, count);
+  }
+
+  /** @return a spliterator over the frames read by the <code>frames</code> reader */
+  static MessageSpliterator of(final MessageFactory factory, final FrameReader frames) {
+    return new Streamed(factory, frames);
+  }
+
+  /** @return a spliterator over a prefix of the messages remaining, which are no longer iterated
+   * by this spliterator, or null if the messages cannot be split
+   * @throws MessageException if the frames cannot be read from the input */
+  public abstract MessageSpliterator trySplit();
+
+  /** @return the number of messages remaining, or <code>UNKNOWN_SIZE</code> if not known */
+  public abstract long estimateSize();
+
+  /** @return the next message, parsed from the next frame
+   * @throws MessageException       if the frame cannot be read or parsed
+   * @throws NoSuchElementException if there are no more messages */
+  @Override
+  public abstract Message next();
+
+  /** unsupported: messages cannot be removed from their source */
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("Messages cannot be removed");
+  }
+
+  /** Parse the messages remaining, in turn, passing each to the handler
+   * @throws MessageException if a frame cannot be read or parsed */
+  public void forEach(final Handler handler) {
+    Preconditions.checkNotNull(handler, "Handler cannot be null");
+    while (hasNext()) {
+      handler.onMessage(next());
+    }
+  }
+
+  /** Parse the messages remaining in parallel on the fork/join <code>pool</code>, splitting them
+   * between tasks, and passing each to the handler, in no particular order
+   * @param pool    on which the messages are parsed
+   * @param handler to receive the messages parsed; called concurrently from the pool's threads
+   * @throws MessageException if a frame cannot be read or parsed */
+  public void forEach(final ForkJoinPool pool, final Handler handler) {
+    Preconditions.checkNotNull(pool, "Pool cannot be null");
+    Preconditions.checkNotNull(handler, "Handler cannot be null");
+    pool.invoke(new ParseTask(this, handler));
+  }
+
+  /** @return the message parsed from <code>frame</code>
+   * @throws MessageException if the frame cannot be parsed */
+  protected Message parse(final ByteBuffer frame) {
+    try {
+      return factory.parse(frame);
+    } catch (final ParseException | IOException e) {
+      throw new MessageException("Failed to parse message: " + e.getMessage(), e);
+    }
+  }
+
+  /** Spliterator over frames whose location in a buffer is known */
+  private static final class Indexed extends MessageSpliterator {
+    private final ByteBuffer data;
+    private final int[] offsets;
+    private final int[] lengths;
+    private int from;
+    private final int to;
+
+    private Indexed(final MessageFactory factory, final ByteBuffer data,
+                    final int[] offsets, final int[] lengths, final int from, final int to) {
+      super(factory);
+      this.data = data;
+      this.offsets = offsets;
+      this.lengths = lengths;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return from < to;
+    }
+
+    @Override
+    public Message next() {
+      if (from >= to) {
+        throw new NoSuchElementException();
+      }
+      final ByteBuffer frame = data.duplicate();
+      frame.limit(offsets[from] + lengths[from]);
+      frame.position(offsets[from]);
+      from++;
+      return parse(frame);
+    }
+
+    @Override
+    public MessageSpliterator trySplit() {
+      if (to - from < 2) {
+        return null;
+      }
+      final int middle = (from + to) >>> 1;
+      final MessageSpliterator result = new Indexed(factory, data, offsets, lengths, from, middle);
+      from = middle;
+      return result;
+    }
+
+    @Override
+    public long estimateSize() {
+      return to - from;
+    }
+  }
+
+  /** Spliterator over frames read in turn from a stream or channel */
+  private static final class Streamed extends MessageSpliterator {
+    private static final int BatchUnit = 1024;
+    private static final int MaxBatch = 1 << 16;
+
+    private final FrameReader frames;
+    /** the frame read by <code>hasNext()</code>, not yet parsed, held by the reader's buffer */
+    private ByteBuffer pending;
+    private boolean ended;
+    /** number of frames in the next batch split */
+    private int batch;
+
+    private Streamed(final MessageFactory factory, final FrameReader frames) {
+      super(factory);
+      this.frames = frames;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (pending == null && !ended) {
+        pending = readFrame();
+      }
+      return pending != null;
+    }
+
+    @Override
+    public Message next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final ByteBuffer frame = pending;
+      pending = null;
+      return parse(frame);
+    }
+
+    /** {@inheritDoc}
+     * <p/>reads ahead a batch of frames from the input, copying them to a buffer */
+    @Override
+    public MessageSpliterator trySplit() {
+      batch = Math.min(batch + BatchUnit, MaxBatch);
+      ByteBuffer copy = ByteBuffer.allocate(BatchUnit * 64);
+      final int[] offsets = new int[batch];
+      final int[] lengths = new int[batch];
+      int count = 0;
+      while (count < batch && hasNext()) {
+        if (copy.remaining() < pending.remaining()) {
+          final ByteBuffer larger = ByteBuffer.allocate(Math.max(copy.capacity() * 2, copy.position() + pending.remaining()));
+          copy.flip();
+          copy = larger.put(copy);
+        }
+        offsets[count] = copy.position();
+        lengths[count] = pending.remaining();
+        copy.put(pending);
+        pending = null;
+        count++;
+      }
+      return count > 0 ? new Indexed(factory, copy, offsets, lengths, 0, count) : null;
+    }
+
+    @Override
+    public long estimateSize() {
+      return ended && pending == null ? 0 : UNKNOWN_SIZE;
+    }
+
+    /** @return the next frame read, or null if the input has ended */
+    private ByteBuffer readFrame() {
+      try {
+        final ByteBuffer result = frames.readFrame();
+        ended = result == null;
+        return result;
+      } catch (final IOException e) {
+        throw new MessageException("Failed to read message from stream: " + e.getMessage(), e);
+      }
+    }
+  }
+
+  /** Task to parse the messages of a spliterator, splitting them between sub-tasks if many */
+  private static final class ParseTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final MessageSpliterator messages;
+    private final Handler handler;
+
+    private ParseTask(final MessageSpliterator messages, final Handler handler) {
+      this.messages = messages;
+      this.handler = handler;
+    }
+
+    @Override
+    protected void compute() {
+      final List<ForkJoinTask<Void>> splits = new ArrayList<>();
+      MessageSpliterator split;
+      while (messages.estimateSize() > Threshold && (split = messages.trySplit()) != null) {
+        splits.add(new ParseTask(split, handler).fork());
+      }
+      messages.forEach(handler);
+      for (final ForkJoinTask<Void> task : splits) {
+        task.join();
+      }
+    }
+  }
+
+}
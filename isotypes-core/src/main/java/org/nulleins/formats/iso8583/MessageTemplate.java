@@ -2,10 +2,13 @@ package org.nulleins.formats.iso8583;
 
 import com.google.common.base.Preconditions;
 import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.io.MessageWriter;
 import org.nulleins.formats.iso8583.types.Bitmap;
 import org.nulleins.formats.iso8583.types.BitmapType;
 import org.nulleins.formats.iso8583.types.MTI;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -35,6 +38,10 @@ public class MessageTemplate {
   private final Bitmap bitmap = new Bitmap();
   /** schema to which this template belongs: provides default values, e.g., contentType */
   private MessageFactory schema;
+  /** plan for parsing messages of this type, compiled on first use; discarded when fields change */
+  private volatile ParsePlan parsePlan;
+  /** header and MTI of messages of this type, as last encoded; discarded when the type changes */
+  private volatile EncodedPrefix encodedPrefix;
 
   /**
    * Factory method to create a message template with the supplied properties
@@ -88,6 +95,7 @@ public class MessageTemplate {
 
   public void setMessageTypeIndicator(final MTI type) {
     this.type = type;
+    encodedPrefix = null;
   }
 
   public String getType() {
@@ -96,6 +104,7 @@ public class MessageTemplate {
 
   public void setType(final String mti) {
     type = MTI.create(mti);
+    encodedPrefix = null;
   }
 
   public Map<Integer, FieldTemplate> getFields() {
@@ -110,6 +119,7 @@ public class MessageTemplate {
    */
   public void setFields(final Map<Integer, FieldTemplate> fields) {
     this.fields = fields;
+    parsePlan = null;
     bitmap.clear();
     for (final Integer fieldNb : fields.keySet()) {
       bitmap.setField(fieldNb);
@@ -148,6 +158,7 @@ public class MessageTemplate {
     field.setMessageTemplate(this);
     fields.put(field.getNumber(), field);
     bitmap.setField(field.getNumber());
+    parsePlan = null;
     // add the field to the name index, if set:
     String fieldName = field.getName();
     if (fieldName != null && !fieldName.isEmpty()) {
@@ -172,6 +183,63 @@ public class MessageTemplate {
    */
   public void setSchema(final MessageFactory messageFactory) {
     this.schema = messageFactory;
+    parsePlan = null;
+  }
+
+  /**
+   * @return the plan for parsing messages of this type, compiling it if the template
+   * has changed since it was last used
+   */
+  ParsePlan getParsePlan() {
+    ParsePlan result = parsePlan;
+    if (result == null) {
+      result = new ParsePlan(this);
+      parsePlan = result;
+    }
+    return result;
+  }
+
+  /** Discard the compiled parse plan, e.g., when the schema's formatters are changed */
+  void resetParsePlan() {
+    parsePlan = null;
+  }
+
+  /**
+   * @return the header and MTI of messages of this type, encoded by the supplied writer, to be
+   * copied to the start of each message written; the encoded bytes are cached, and only encoded
+   * again if the writer or header change, or the template's type changes
+   * @param writer that encodes the message, for the factory's content type and charset
+   * @param header written at the start of the message
+   * @throws IOException if the header or MTI cannot be encoded
+   */
+  byte[] getEncodedPrefix(final MessageWriter writer, final String header)
+      throws IOException {
+    EncodedPrefix result = encodedPrefix;
+    if (result == null || !result.matches(writer, header)) {
+      result = new EncodedPrefix(writer, header, type);
+      encodedPrefix = result;
+    }
+    return result.data;
+  }
+
+  /** Immutable cache of the encoded prefix of a message, with the encoding parameters used */
+  private static final class EncodedPrefix {
+    private final MessageWriter writer;
+    private final String header;
+    private final byte[] data;
+
+    private EncodedPrefix(final MessageWriter writer, final String header, final MTI type) throws IOException {
+      this.writer = writer;
+      this.header = header;
+      final ByteBuffer buffer = ByteBuffer.allocate(writer.getHeaderSize(header) + writer.getMTISize());
+      writer.appendHeader(header, buffer);
+      writer.appendMTI(type, buffer);
+      this.data = buffer.array();
+    }
+
+    private boolean matches(final MessageWriter writer, final String header) {
+      return this.writer == writer && this.header.equals(header);
+    }
   }
 
   /**
@@ -0,0 +1,202 @@
+package org.nulleins.formats.iso8583;
+
+import org.nulleins.formats.iso8583.formatters.AlphaFormatter;
+import org.nulleins.formats.iso8583.formatters.NumberFormatter;
+import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.io.MessageReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Map;
+
+
+/**
+ * Immutable plan for parsing the fields of a message type, compiled from its message
+ * template: field templates and their formatters are held in arrays indexed by field number,
+ * so that parsing a field requires no map lookups
+ * <p/>
+ * A plan is compiled when the message factory is initialized, and is discarded by its
+ * template when the template's fields, or the factory's formatters, are changed
+ * @author phillipsr
+ */
+final class ParsePlan {
+  /** the maximum length of a numeric field whose values are parsed as longs */
+  private static final int MaxLongLength = 18;
+
+  private final FieldTemplate[] fields = new FieldTemplate[193];
+  private final TypeFormatter<?>[] formatters = new TypeFormatter<?>[193];
+  /** bit <code>(n-1)</code> set if field <code>n</code> is defined */
+  private final long[] defined = new long[3];
+  /** bit <code>(n-1)</code> set if field <code>n</code> is numeric, formatted by a NumberFormatter,
+    * and so can be accessed as a long */
+  private final long[] numeric = new long[3];
+  /** bit <code>(n-1)</code> set if field <code>n</code> is numeric, and no longer than 18
+    * characters, so that its values are always parsed as longs */
+  private final long[] longs = new long[3];
+  /** bit <code>(n-1)</code> set if field <code>n</code> is alphanumeric, formatted by an
+    * AlphaFormatter, and so can be accessed as characters */
+  private final long[] alpha = new long[3];
+  /** the character classes permitted by each alphanumeric field, determined when the plan is compiled */
+  private final int[] charClasses = new int[193];
+
+  /**
+   * Compile a parse plan from the fields defined in <code>template</code>
+   * @param template defining the message type to be parsed
+   */
+  ParsePlan(final MessageTemplate template) {
+    for (final Map.Entry<Integer, FieldTemplate> entry : template.getFields().entrySet()) {
+      final int number = entry.getKey();
+      final FieldTemplate field = entry.getValue();
+      if (number > 0 && number <= 192 && field != null) {
+        fields[number] = field;
+        formatters[number] = template.getFormatter(field.getType());
+        defined[(number - 1) >> 6] |= 1L << ((number - 1) & 63);
+        if (formatters[number] instanceof NumberFormatter) {
+          numeric[(number - 1) >> 6] |= 1L << ((number - 1) & 63);
+          if (field.getDimension().getLength() <= MaxLongLength) {
+            longs[(number - 1) >> 6] |= 1L << ((number - 1) & 63);
+          }
+        } else if (formatters[number] instanceof AlphaFormatter) {
+          alpha[(number - 1) >> 6] |= 1L << ((number - 1) & 63);
+          charClasses[number] = AlphaFormatter.getCharClasses(field.getType());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the template of field <code>number</code>
+   * @throws MessageException if the field is not defined for the message type
+   */
+  FieldTemplate getField(final int number) {
+    final FieldTemplate result = findField(number);
+    if (result == null) {
+      throw new MessageException("Field " + number + " present in message, but not defined in template");
+    }
+    return result;
+  }
+
+  /** @return the template of field <code>number</code>, or null if not defined for the message type */
+  FieldTemplate findField(final int number) {
+    return number > 0 && number <= 192 ? fields[number] : null;
+  }
+
+  /** @return true if field <code>number</code> is numeric, and so can be accessed as a long */
+  boolean isNumeric(final int number) {
+    return number > 0 && number <= 192 && (numeric[(number - 1) >> 6] & (1L << ((number - 1) & 63))) != 0;
+  }
+
+  /** @return true if the values of field <code>number</code> are numeric, and always fit in a long */
+  boolean isLong(final int number) {
+    return number > 0 && number <= 192 && (longs[(number - 1) >> 6] & (1L << ((number - 1) & 63))) != 0;
+  }
+
+  /** @return true if field <code>number</code> is alphanumeric, and so can be accessed as characters */
+  boolean isAlpha(final int number) {
+    return number > 0 && number <= 192 && (alpha[(number - 1) >> 6] & (1L << ((number - 1) & 63))) != 0;
+  }
+
+  /** @return true if <code>value</code> is valid for numeric field <code>number</code> */
+  boolean isValid(final int number, final long value) {
+    final FieldTemplate field = fields[number];
+    return ((NumberFormatter) formatters[number]).isValid(value, field.getType(), field.getDimension());
+  }
+
+  /** @return true if the characters of <code>value</code> are valid for alphanumeric field
+    * <code>number</code>, using the character classes determined when the plan was compiled */
+  boolean isValid(final int number, final CharSequence value) {
+    return AlphaFormatter.isValid(value, charClasses[number]);
+  }
+
+  /** @return the fields defined both by this plan and by the <code>other</code> plan, bit
+    * <code>(n-1)</code> of the three words being set if field <code>n</code> is common; if the
+    * other plan is null, all the fields defined by this plan
+    * @param other plan, or null if the other message's fields are not defined by a template */
+  long[] getCommonFields(final ParsePlan other) {
+    if (other == null) {
+      return defined.clone();
+    }
+    return new long[]{defined[0] & other.defined[0], defined[1] & other.defined[1], defined[2] & other.defined[2]};
+  }
+
+  /**
+   * Parse the remaining bytes of <code>data</code> as the value of field <code>number</code>,
+   * without throwing an exception if the data is not valid for the field's type
+   * @return the field value, or null if the data cannot be parsed
+   * @throws IllegalStateException if no formatter is defined for the field's type
+   */
+  Object tryParse(final int number, final ByteBuffer data) {
+    final TypeFormatter<?> formatter = formatters[number];
+    final FieldTemplate field = fields[number];
+    if (formatter == null) {
+      throw new IllegalStateException("no formatter defined for field: " + field);
+    }
+    return formatter.tryParse(field.getType(), field.getDimension(), data.remaining(), data);
+  }
+
+  /**
+   * Parse the remaining bytes of <code>data</code> as the value of field <code>number</code>
+   * @return the field value
+   * @throws ParseException if the data cannot be parsed to the field's type
+   */
+  Object parse(final int number, final ByteBuffer data) throws ParseException {
+    final TypeFormatter<?> formatter = formatters[number];
+    if (formatter == null) {
+      return fields[number].parse(data); // reports the missing formatter
+    }
+    final FieldTemplate field = fields[number];
+    return formatter.parse(field.getType(), field.getDimension(), data.remaining(), data);
+  }
+
+  /**
+   * Read the value of numeric field <code>number</code> from the <code>input</code> buffer, and
+   * parse it as a long; a reader that decodes numeric values itself (e.g., from BCD) answers
+   * with the value directly, otherwise the field's characters are parsed by its formatter
+   * @return the field value, as a long
+   * @throws IOException    if the input buffer does not contain the whole field
+   * @throws ParseException if the data cannot be parsed as a long
+   */
+  long parseLong(final int number, final MessageReader reader, final ByteBuffer input)
+      throws IOException, ParseException {
+    final FieldTemplate field = fields[number];
+    if (reader.isLongDecoded(field)) {
+      return reader.readLong(field, input);
+    }
+    final ByteBuffer data = reader.readField(field, input);
+    return ((NumberFormatter) formatters[number]).parseLong(field.getType(), field.getDimension(), data.remaining(), data);
+  }
+
+  /**
+   * Read the value of numeric field <code>number</code> from the <code>input</code> buffer, and
+   * parse it as a long, as {@link #parseLong(int, MessageReader, ByteBuffer)}, but without
+   * throwing an exception if the data is not valid for the field's type
+   * @return the field value, as a long, or <code>NumberFormatter.INVALID_LONG</code> if the
+   * data cannot be parsed as a long
+   * @throws IOException if the input buffer does not contain the whole field
+   */
+  long tryParseLong(final int number, final MessageReader reader, final ByteBuffer input)
+      throws IOException {
+    final FieldTemplate field = fields[number];
+    if (reader.isLongDecoded(field)) {
+      return reader.tryReadLong(field, input);
+    }
+    final ByteBuffer data = reader.readField(field, input);
+    return ((NumberFormatter) formatters[number]).tryParseLong(field.getType(), field.getDimension(), data.remaining(), data);
+  }
+
+  /**
+   * Parse <code>data</code> as the value of field <code>number</code>
+   * @return the field value
+   * @throws ParseException if the data cannot be parsed to the field's type
+   */
+  Object parse(final int number, final byte[] data) throws ParseException {
+    final TypeFormatter<?> formatter = formatters[number];
+    if (formatter == null) {
+      return fields[number].parse(data);
+    }
+    final FieldTemplate field = fields[number];
+    return formatter.parse(field.getType(), field.getDimension(), data.length, data);
+  }
+
+}
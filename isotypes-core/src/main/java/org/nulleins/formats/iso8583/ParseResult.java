@@ -0,0 +1,138 @@
+package org.nulleins.formats.iso8583;
+
+import org.nulleins.formats.iso8583.formatters.HexDumper;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+
+/**
+ * Result of parsing a message leniently: the message, holding the field values that were
+ * parsed cleanly, with an error code for each field that could not be parsed, and the raw
+ * message data of these fields
+ * <p/>
+ * Errors are recorded by field number; errors in the message header, type or bitmap, which
+ * prevent the message being parsed at all, are recorded against field zero, and there is
+ * then no message.  Fields that failed are reported as skipped by the message, so that
+ * requesting their value does not answer null
+ * @author phillipsr
+ */
+public class ParseResult {
+  /** field was parsed without error (or is not present) */
+  public static final byte OK = 0;
+  /** field data is not valid for the field's type, e.g., non-digits in a numeric field */
+  public static final byte INVALID_VALUE = 1;
+  /** field is present in the bitmap, but is not defined for the message type */
+  public static final byte UNDEFINED_FIELD = 2;
+  /** field's length specifier is not valid */
+  public static final byte INVALID_LENGTH = 3;
+  /** message data ends part way through the field */
+  public static final byte TRUNCATED = 4;
+  /** field is present, but was not read, as its position is unknown after an earlier error */
+  public static final byte NOT_READ = 5;
+  /** (field zero only) message header does not match that expected */
+  public static final byte INVALID_HEADER = 6;
+  /** (field zero only) message type is not valid, or not defined in the message set */
+  public static final byte INVALID_TYPE = 7;
+  /** (field zero only) message bitmap is not valid */
+  public static final byte INVALID_BITMAP = 8;
+
+  private static final String[] Descriptions = {
+      "ok", "invalid value", "undefined field", "invalid length", "truncated", "not read",
+      "invalid header", "invalid message type", "invalid bitmap"};
+
+  private final Message message;
+  private final byte[] errors = new byte[193];
+  private byte[][] rawData;
+  private int errorCount;
+
+  /** @param message parsed, or null if the message could not be identified */
+  ParseResult(final Message message) {
+    this.message = message;
+  }
+
+  /** Record an error for field <code>number</code> (zero for the message as a whole),
+    * with the message data of the field, if known */
+  void addError(final int number, final byte error, final byte[] data) {
+    if (errors[number] == OK) {
+      errorCount++;
+    }
+    errors[number] = error;
+    if (data != null) {
+      if (rawData == null) {
+        rawData = new byte[193][];
+      }
+      rawData[number] = data;
+    }
+    if (number > 0 && message != null) {
+      message.setSkipped(number);
+    }
+  }
+
+  /** @return the message parsed, holding the values of the fields parsed without error,
+    * or null if the message header, type or bitmap could not be parsed */
+  public Message getMessage() {
+    return message;
+  }
+
+  /** @return true if the message and all its fields were parsed without error */
+  public boolean isValid() {
+    return errorCount == 0;
+  }
+
+  /** @return the number of fields (including field zero, the message itself) with errors */
+  public int getErrorCount() {
+    return errorCount;
+  }
+
+  /** @return the error code for field <code>number</code>, one of the constants of this
+    * class, or <code>OK</code> if the field was parsed, or is not present
+    * @param number of the field, or zero for errors in the header, type or bitmap */
+  public byte getError(final int number) {
+    return number >= 0 && number <= 192 ? errors[number] : OK;
+  }
+
+  /** @return a copy of the error codes, indexed by field number (193 entries) */
+  public byte[] getErrors() {
+    return errors.clone();
+  }
+
+  /** @return the numbers of the fields with errors, in ascending order */
+  public SortedSet<Integer> getFailedFields() {
+    final SortedSet<Integer> result = new TreeSet<>();
+    for (int number = 1; errorCount > 0 && number <= 192; number++) {
+      if (errors[number] != OK) {
+        result.add(number);
+      }
+    }
+    return result;
+  }
+
+  /** @return the raw message data of field <code>number</code> (including any length
+    * specifier) if it could not be parsed, otherwise null; for field zero, the remaining
+    * message data from the point of failure */
+  public byte[] getRawData(final int number) {
+    return rawData != null && number >= 0 && number <= 192 ? rawData[number] : null;
+  }
+
+  /** @return a description of the error code supplied */
+  public static String describe(final byte error) {
+    return error >= 0 && error < Descriptions.length ? Descriptions[error] : "unknown (" + error + ")";
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder result = new StringBuilder("ParseResult[");
+    result.append(message != null ? message.getMTI() : "no message");
+    for (int number = 0; errorCount > 0 && number <= 192; number++) {
+      if (errors[number] != OK) {
+        result.append(", ").append(number).append('=').append(describe(errors[number]));
+        if (rawData != null && rawData[number] != null) {
+          result.append(" [").append(HexDumper.getHexDump(rawData[number])).append(']');
+        }
+      }
+    }
+    return result.append(']').toString();
+  }
+
+}
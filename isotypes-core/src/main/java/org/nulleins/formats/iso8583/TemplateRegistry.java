@@ -0,0 +1,55 @@
+package org.nulleins.formats.iso8583;
+
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Registry of the message templates of a schema, indexed by the ordinal of their message type,
+ * so that the template for a message type parsed or created is found with an array load,
+ * rather than by hashing the MTI
+ * @author phillipsr
+ */
+final class TemplateRegistry {
+  private final MessageTemplate[] templates = new MessageTemplate[MTI.COUNT];
+  /** the templates registered, in the order they were first added */
+  private final List<MessageTemplate> values = new ArrayList<>();
+
+  /** Register <code>template</code> against its message type, replacing any template
+   * previously registered for that type */
+  void put(final MessageTemplate template) {
+    final int index = template.getMessageTypeIndicator().ordinal();
+    final MessageTemplate previous = templates[index];
+    templates[index] = template;
+    if (previous != null) {
+      values.set(values.indexOf(previous), template);
+    } else {
+      values.add(template);
+    }
+  }
+
+  /** @return the template registered for message <code>type</code>, or null if there is none */
+  MessageTemplate get(final MTI type) {
+    return type != null ? templates[type.ordinal()] : null;
+  }
+
+  /** @return true if a template is registered for message <code>type</code> */
+  boolean contains(final MTI type) {
+    return get(type) != null;
+  }
+
+  /** @return the templates registered */
+  Collection<MessageTemplate> values() {
+    return Collections.unmodifiableList(values);
+  }
+
+  /** @return the number of templates registered */
+  int size() {
+    return values.size();
+  }
+
+}
@@ -5,21 +5,68 @@ import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.Dimension;
 import org.nulleins.formats.iso8583.types.FieldType;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 
 /**
  * Formatter that can format and parse alpha field values
  * (includes alphanumeric, alpha+symbol, etc., e.g., non-numeric fields)
+ * <p/>
+ * Values are validated using a table of the class of each character (alphabetic, digit, space,
+ * symbol), rather than a regular expression: each alpha type permits a set of classes.  For
+ * single-byte charsets, the class of each byte value is tabled when the formatter is created,
+ * so that field data is validated and trimmed before it is decoded
  * @author phillipsr
  */
 public class AlphaFormatter extends TypeFormatter<String> {
+  private static final int ALPHA = 1;
+  private static final int DIGIT = 2;
+  private static final int SPACE = 4;
+  private static final int SYMBOL = 8;
+  /** characters removed from the ends of a value by <code>String.trim()</code> */
+  private static final int TRIMMED = 16;
+  /** the platform default charset's encoding of the space character, padding fixed fields */
+  private static final byte Pad = " ".getBytes()[0];
+  /** the class of each ASCII character; other characters are not valid in any alpha type */
+  private static final byte[] CharClasses = new byte[128];
+
+  static {
+    for (int c = 0; c < CharClasses.length; c++) {
+      int charClass = c <= ' ' ? TRIMMED : 0;
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+        charClass |= ALPHA;
+      } else if (c >= '0' && c <= '9') {
+        charClass |= DIGIT;
+      } else if (c == ' ') {
+        charClass |= SPACE;
+      } else if (c > ' ' && c <= '~') {
+        charClass |= SYMBOL;
+      }
+      CharClasses[c] = (byte) charClass;
+    }
+  }
+
+  /* the character classes permitted by each of the alpha-based field types */
+  private static final Map<String, Integer> Validators = new HashMap<String, Integer>() {{
+    put(FieldType.ALPHA, ALPHA);                                   // zero or more alphabetic
+    put(FieldType.ALPHANUM, ALPHA | DIGIT);                        // zero or more alphabetic or digit
+    put(FieldType.ALPHANUMPAD, ALPHA | DIGIT | SPACE);             // zero or more alphabetic, digit or space
+    put(FieldType.ALPHASYMBOL, ALPHA | SPACE | SYMBOL);            // zero or more alphabetic or symbol
+    put(FieldType.ALPHANUMSYMBOL, ALPHA | DIGIT | SPACE | SYMBOL); // zero or more any character
+    put(FieldType.NUMSYMBOL, DIGIT | SPACE | SYMBOL);              // zero or more symbol
+    put(FieldType.TRACKDATA, ALPHA | DIGIT | SPACE | SYMBOL);      // zero or more any character
+  }};
+
+  /** the class of the character encoded by each byte value, or null if the charset is not single-byte */
+  private final byte[] byteClasses;
+
   public AlphaFormatter(final CharEncoder charset) {
     setCharset(charset);
+    byteClasses = charset.isSingleByte() ? getByteClasses(charset) : null;
   }
 
   /**
@@ -31,12 +78,31 @@ public class AlphaFormatter extends TypeFormatter<String> {
   @Override
   public String parse(final String type, final Dimension dimension, final int position, final byte[] data)
       throws ParseException {
+    return parse(type, dimension, position, ByteBuffer.wrap(data));
+  }
+
+  /**
+   * {@inheritDoc}
+   * @param type variant of the alpha type specified for the field
+   * @throws IllegalArgumentException if the data is null or invalid as an alpha string
+   * @throws ParseException           if data cannot be translated to the appropriate charset
+   */
+  @Override
+  public String parse(final String type, final Dimension dimension, final int position, final ByteBuffer data)
+      throws ParseException {
+    if (byteClasses != null) {
+      final String result = parseTrimmed(type, data);
+      if (result == null) {
+        throw new ParseException("Invalid data parsed for field (" + type + ") value=[" + decode(data).trim() + "]", position);
+      }
+      return result;
+    }
     final String result;
     try {
       result = decode(data).trim();
     } catch (final Exception e) {
       final ParseException rethrow = new ParseException(
-          "Decoding error for " + type + " field: " + Arrays.toString(data), position);
+          "Decoding error for " + type + " field: " + HexDumper.getHexDump(data), position);
       rethrow.initCause(e);
       throw rethrow;
     }
@@ -47,15 +113,69 @@ public class AlphaFormatter extends TypeFormatter<String> {
     return result;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String tryParse(final String type, final Dimension dimension, final int position, final ByteBuffer data) {
+    if (byteClasses != null) {
+      return parseTrimmed(type, data);
+    }
+    final String result = decode(data).trim();
+    return isValid(result, type, dimension) ? result : null;
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public byte[] format(final String type, final Object data, final Dimension dimension) {
+    final byte[] bytes = getValue(type, data, dimension).toString().getBytes();
+    if (dimension.getType() != Dimension.Type.FIXED) {
+      return bytes;
+    }
+    // for fixed width fields, pad right with spaces
+    final byte[] result = Arrays.copyOf(bytes, dimension.getLength());
+    Arrays.fill(result, bytes.length, result.length, Pad);
+    return result;
+  }
+
+  /**
+   * Format the data supplied, as {@link #format(String, Object, Dimension)}, encoding it in
+   * <code>charset</code> directly into the <code>output</code> buffer; fixed fields are padded
+   * with spaces written straight into the buffer
+   * @param type      variant of the alpha type specified for the field
+   * @param data      the object to be formatted
+   * @param dimension specifies if fixed or variable and the required size
+   * @param charset   in which the field is encoded
+   * @param output    buffer to which the field value is written
+   * @return the number of bytes written
+   * @throws IllegalArgumentException         if the data is null or invalid as an alpha string
+   * @throws MessageException                 if the data exceeds the maximum field length
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public int format(final String type, final Object data, final Dimension dimension,
+                    final CharEncoder charset, final ByteBuffer output) {
+    final CharSequence value = getValue(type, data, dimension);
+    final int start = output.position();
+    charset.encode(value, output);
+    if (dimension.getType() == Dimension.Type.FIXED) {
+      charset.pad(' ', dimension.getLength() - value.length(), output);
+    }
+    return output.position() - start;
+  }
+
+  /** @return the characters of the <code>data</code> supplied (as is, if a character sequence,
+    * otherwise its string value), checked to be valid for the field <code>type</code> and
+    * <code>dimension</code>
+    * @throws IllegalArgumentException if the data is null or invalid as an alpha string
+    * @throws MessageException         if the data exceeds the maximum field length */
+  private CharSequence getValue(final String type, final Object data, final Dimension dimension) {
     if (data == null) {
       throw new IllegalArgumentException("Alpha values cannot be null");
     }
-    final String value = data instanceof byte[] ? new String((byte[]) data) : data.toString();
+    final CharSequence value = data instanceof CharSequence ? (CharSequence) data
+        : data instanceof byte[] ? new String((byte[]) data) : data.toString();
 
     if (!isValid(value, type, dimension)) {
       throw new IllegalArgumentException("Cannot format invalid value for [" + type + "] field: '"
@@ -68,36 +188,105 @@ public class AlphaFormatter extends TypeFormatter<String> {
         throw new MessageException("Fixed field data length ("
             + value.length() + ") exceeds field maximum (" + dimension.getLength() + "): data=[" + value + "]");
       }
-      // for fixed width fields, pad right with spaces
-      return String.format("%-" + length + "." + length + "s", value).getBytes();
+      return value;
     }
     // Variable field: dim length is the maximum length:
     if (value.length() > dimension.getLength()) {
       throw new MessageException("Variable field data length ("
           + value.length() + ") exceeds field maximum (" + dimension.getLength() + ")");
     }
-    return value.getBytes();
+    return value;
   }
 
-  /* set of pattern matchers for the various alpha-based type fields */
-  private static final Map<String, Pattern> Validators = new HashMap<String, Pattern>(3) {{
-    put(FieldType.ALPHA, Pattern.compile("[a-zA-Z]*"));      // zero or more alphabetic
-    put(FieldType.ALPHANUM, Pattern.compile("[a-zA-Z0-9]*"));   // zero or more alphabetic or digit
-    put(FieldType.ALPHANUMPAD, Pattern.compile("[a-zA-Z 0-9]*"));  // zero or more alphabetic, digit or space
-    put(FieldType.ALPHASYMBOL, Pattern.compile("[ -~&&[^0-9]]*")); // zero or more alphabetic or symbol
-    put(FieldType.ALPHANUMSYMBOL, Pattern.compile("[ -~]*"));      // zero or more any character
-    put(FieldType.NUMSYMBOL, Pattern.compile("[ -~&&[^a-zA-Z]]*")); // zero or more symbol
-    put(FieldType.TRACKDATA, Pattern.compile("[ -~]*"));        // zero or more any character
-  }};
-
   /**
    * {@inheritDoc}
-   * <p/>checks the string representation of <code>value</code> against the
-   * pattern matcher for the supplied <code>type</code>
+   * <p/>checks each character of the string representation of <code>value</code>, ignoring
+   * leading and trailing whitespace, against the character classes permitted by the supplied
+   * <code>type</code>
+   * @throws IllegalArgumentException if the type is not an alpha type
    */
   @Override
   public boolean isValid(final Object value, final String type, final Dimension dim) {
-    return value != null && Validators.get(type).matcher(value.toString().trim()).matches();
+    if (value == null) {
+      return false;
+    }
+    return isValid(value instanceof CharSequence ? (CharSequence) value : value.toString(), getPermitted(type));
+  }
+
+  /**
+   * @return true if each character of <code>chars</code>, ignoring leading and trailing
+   * whitespace, is of one of the <code>permitted</code> character classes
+   * @param chars     to be validated
+   * @param permitted character classes, as answered by {@link #getCharClasses(String)} for the
+   *                  field's type, e.g., when a field is bound, rather than for each value
+   */
+  public static boolean isValid(final CharSequence chars, final int permitted) {
+    int start = 0;
+    int end = chars.length();
+    while (start < end && chars.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && chars.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    for (int index = start; index < end; index++) {
+      final char c = chars.charAt(index);
+      if (c >= CharClasses.length || (CharClasses[c] & permitted) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return the value of the remaining bytes of <code>data</code>, with leading and trailing
+    * whitespace removed, or null if the data is not valid for the field <code>type</code>;
+    * the data is validated and trimmed using the byte classes, and only the value decoded */
+  private String parseTrimmed(final String type, final ByteBuffer data) {
+    final int permitted = getPermitted(type);
+    int start = data.position();
+    int end = data.limit();
+    while (start < end && (byteClasses[data.get(start) & 0xff] & TRIMMED) != 0) {
+      start++;
+    }
+    while (end > start && (byteClasses[data.get(end - 1) & 0xff] & TRIMMED) != 0) {
+      end--;
+    }
+    for (int index = start; index < end; index++) {
+      if ((byteClasses[data.get(index) & 0xff] & permitted) == 0) {
+        return null;
+      }
+    }
+    final ByteBuffer value = data.duplicate();
+    value.limit(end);
+    value.position(start);
+    return decode(value);
+  }
+
+  /** @return the character classes permitted by the alpha field <code>type</code>, for
+    * {@link #isValid(CharSequence, int)}, or zero if the type is not an alpha type */
+  public static int getCharClasses(final String type) {
+    final Integer result = Validators.get(type);
+    return result != null ? result : 0;
+  }
+
+  /** @return the character classes permitted by the alpha field <code>type</code>
+    * @throws IllegalArgumentException if the type is not an alpha type */
+  private static int getPermitted(final String type) {
+    final Integer result = Validators.get(type);
+    if (result == null) {
+      throw new IllegalArgumentException("Not an alpha field type: [" + type + "]");
+    }
+    return result;
+  }
+
+  /** @return the class of the character encoded by each byte value in the single-byte <code>charset</code> */
+  private static byte[] getByteClasses(final CharEncoder charset) {
+    final byte[] result = new byte[256];
+    for (int value = 0; value < result.length; value++) {
+      final char c = charset.getString(ByteBuffer.wrap(new byte[]{(byte) value})).charAt(0);
+      result[value] = c < CharClasses.length ? CharClasses[c] : 0;
+    }
+    return result;
   }
 
 }
@@ -7,6 +7,7 @@ import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.HashMap;
 import java.util.Map;
@@ -36,22 +37,55 @@ public class DateFormatter extends TypeFormatter<DateTime> {
   @Override
   public DateTime parse(final String type, final Dimension dim, final int length, final byte[] data)
       throws ParseException {
+    return parse(type, dim, length, ByteBuffer.wrap(data));
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws ParseException if the supplied data cannot be parsed as a date value
+   */
+  @Override
+  public DateTime parse(final String type, final Dimension dim, final int length, final ByteBuffer data)
+      throws ParseException {
     final DateTimeFormatter formatter = Formatters.get(type + ":" + length);
     if (formatter == null) {
       throw new ParseException("Formatter not found for date field, type=("
           + type + ":" + length + ") data=" + HexDumper.getHexDump(data), length);
     }
+    final String value = decode(data);
     try {
-      return formatter.parseDateTime(decode(data));
+      return formatter.parseDateTime(value);
     } catch (final Exception e) {
       final ParseException rethrow = new ParseException("Cannot parse date field value, type=("
           + type + ":" + length + ") data=" + HexDumper.getHexDump(data)
-          + " [decoded=" + decode(data) + "]", length);
+          + " [decoded=" + value + "]", length);
       rethrow.initCause(e);
       throw rethrow;
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * <p/>only date values with out-of-range elements (e.g., month 13) are rejected by catching
+   * the formatter's exception; data of the wrong length or not all digits is rejected up-front
+   */
+  @Override
+  public DateTime tryParse(final String type, final Dimension dim, final int length, final ByteBuffer data) {
+    final DateTimeFormatter formatter = Formatters.get(type + ":" + length);
+    if (formatter == null) {
+      return null;
+    }
+    final String value = decode(data);
+    if (value.length() != length || !isDigits(value, 0)) {
+      return null;
+    }
+    try {
+      return formatter.parseDateTime(value);
+    } catch (final IllegalArgumentException e) {
+      return null;
+    }
+  }
+
   /**
    * {@inheritDoc}
    * @throws IllegalArgumentException if the data is null or not a valid date value
@@ -1,5 +1,6 @@
 package org.nulleins.formats.iso8583.formatters;
 
+import java.nio.ByteBuffer;
 
 /**
  * @author phillipsr
@@ -14,6 +15,15 @@ public class HexDumper {
     return result.toString();
   }
 
+  /** @return a hex dump of the remaining bytes of <code>data</code>, leaving its position unchanged */
+  public static String getHexDump(final ByteBuffer data) {
+    final StringBuilder result = new StringBuilder();
+    for (int i = 0; i < data.remaining(); i++) {
+      result.append(formatHex(data.get(data.position() + i), i));
+    }
+    return result.toString();
+  }
+
   private static String formatHex(final byte value, final int position) {
     final String sep;
     if (position > 0) {
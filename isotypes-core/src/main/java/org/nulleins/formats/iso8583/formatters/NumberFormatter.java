@@ -6,18 +6,28 @@ import org.nulleins.formats.iso8583.types.FieldType;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
-import java.util.Arrays;
 import java.util.regex.Pattern;
 
 
 /**
  * Formatter that can format and parse ISO8583 numeric formats, signed or unsigned
+ * <p/>
+ * Values of up to 18 digits, which covers amounts, STANs, processing and currency codes, are
+ * parsed and formatted as primitive longs, directly from and to their digits; longer values
+ * are parsed and formatted using BigInteger
  * @author phillipsr
  */
 public class NumberFormatter
     extends TypeFormatter<BigInteger> {
   private static final Pattern NumberMatcher = Pattern.compile("[-0-9]+");
+  /** the maximum number of digits parsed or formatted as a long */
+  private static final int MaxLongDigits = 18;
+  /** the result of parsing a long without throwing an exception, if the data is not valid;
+   * Long.MIN_VALUE is never a valid field value, having more digits than the field can hold */
+  public static final long INVALID_LONG = Long.MIN_VALUE;
 
   public NumberFormatter(final CharEncoder charset) {
     setCharset(charset);
@@ -29,27 +39,169 @@ public class NumberFormatter
   @Override
   public BigInteger parse(final String type, final Dimension dimension, final int length, final byte[] data)
       throws ParseException {
+    return parse(type, dimension, length, ByteBuffer.wrap(data));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public BigInteger parse(final String type, final Dimension dimension, final int length, final ByteBuffer data)
+      throws ParseException {
+    final CharSequence digits = decodeChars(data);
+    final int start = getDigitsStart(type, digits);
+    if (digits.length() - start <= MaxLongDigits) {
+      return BigInteger.valueOf(parseLong(type, length, digits, start));
+    }
+    final String value = digits.toString();
     try {
       if (FieldType.NUMSIGNED.equalsIgnoreCase(type)) {
-        return parseXNField(type, length, data);
+        return parseXNField(type, length, value);
       }
-      return new BigInteger(decode(data));
+      return new BigInteger(value);
     } catch (final Exception e) {
       throw new ParseException("Bad f format " + e.getMessage()
-          + " for type=" + type + " [" + new String(data) + "]", length);
+          + " for type=" + type + " [" + value + "]", length);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public BigInteger tryParse(final String type, final Dimension dimension, final int length, final ByteBuffer data) {
+    final CharSequence value = decodeChars(data);
+    final char signC = value.length() == 0 ? ' ' : Character.toUpperCase(value.charAt(0));
+    final int start;
+    if (FieldType.NUMSIGNED.equalsIgnoreCase(type)) {
+      if (signC != 'C' && signC != 'D') {
+        return null;
+      }
+      start = 1;
+    } else {
+      start = signC == '-' || signC == '+' ? 1 : 0;
+    }
+    if (!isDigits(value, start)) {
+      return null;
+    }
+    final boolean negative = signC == '-' || (start > 0 && signC == 'D');
+    if (value.length() - start <= MaxLongDigits) {
+      return BigInteger.valueOf(toLong(value, start, negative));
     }
+    final BigInteger result = new BigInteger(value.subSequence(start, value.length()).toString());
+    return negative ? result.negate() : result;
   }
 
-  private BigInteger parseXNField(final String type, final int length, final byte[] data)
+  /**
+   * Answer with the value parsed from the remaining bytes of the <code>data</code> buffer, as
+   * {@link #parse(String, Dimension, int, ByteBuffer)}, but as a primitive long
+   * @throws ParseException if the data cannot be parsed as a numeric value of the type specified,
+   *                        or the value is outside the range of a long
+   */
+  public long parseLong(final String type, final Dimension dimension, final int length, final ByteBuffer data)
       throws ParseException {
-    final String sign = decode(Arrays.copyOfRange(data, 0, 1));
-    final char signC = sign.toUpperCase().charAt(0);
+    final CharSequence digits = decodeChars(data);
+    final int start = getDigitsStart(type, digits);
+    if (digits.length() - start <= MaxLongDigits) {
+      return parseLong(type, length, digits, start);
+    }
+    final BigInteger result = parse(type, dimension, length, data);
+    if (result.bitLength() > 63) {
+      throw new ParseException("Numeric value out of range of long for type=" + type + " [" + digits + "]", length);
+    }
+    return result.longValue();
+  }
+
+  /**
+   * Answer with the value parsed from the remaining bytes of the <code>data</code> buffer, as
+   * {@link #parseLong(String, Dimension, int, ByteBuffer)}, but without throwing an exception
+   * if the data is not valid
+   * @return the value parsed, or <code>INVALID_LONG</code> if the data cannot be parsed as a
+   * numeric value of the type specified, or the value is outside the range of a long
+   */
+  public long tryParseLong(final String type, final Dimension dimension, final int length, final ByteBuffer data) {
+    final CharSequence value = decodeChars(data);
+    final char signC = value.length() == 0 ? ' ' : Character.toUpperCase(value.charAt(0));
+    final int start;
+    if (FieldType.NUMSIGNED.equalsIgnoreCase(type)) {
+      if (signC != 'C' && signC != 'D') {
+        return INVALID_LONG;
+      }
+      start = 1;
+    } else {
+      start = signC == '-' || signC == '+' ? 1 : 0;
+    }
+    if (!isDigits(value, start)) {
+      return INVALID_LONG;
+    }
+    final boolean negative = signC == '-' || (start > 0 && signC == 'D');
+    if (value.length() - start <= MaxLongDigits) {
+      return toLong(value, start, negative);
+    }
+    final BigInteger result = new BigInteger(value.subSequence(start, value.length()).toString());
+    if (result.bitLength() > 63) {
+      return INVALID_LONG;
+    }
+    return negative ? -result.longValue() : result.longValue();
+  }
+
+  /** @return the index of the first digit of the <code>value</code>, following its sign, if any */
+  private static int getDigitsStart(final String type, final CharSequence value) {
+    if (FieldType.NUMSIGNED.equalsIgnoreCase(type)) {
+      return 1;
+    }
+    return value.length() > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+  }
+
+  /**
+   * @return the value of the <code>digits</code>, of which there are no more than 18, preceded
+   * by a sign: C (credit) or D (debit) for signed numeric fields, otherwise an optional + or -
+   * @param start index of the first digit in the value
+   * @throws ParseException if the value does not consist of digits, with the required sign
+   */
+  private static long parseLong(final String type, final int length, final CharSequence value, final int start)
+      throws ParseException {
+    boolean negative = start > 0 && value.charAt(0) == '-';
+    if (FieldType.NUMSIGNED.equalsIgnoreCase(type)) {
+      final char signC = value.length() == 0 ? ' ' : Character.toUpperCase(value.charAt(0));
+      if (signC != 'C' && signC != 'D') {
+        throw badFormat(type, length, "Bad f format for " + type
+            + ": must start with C or D (field data=[" + value + "])", value);
+      }
+      negative = signC == 'D';
+    }
+    if (value.length() <= start) {
+      throw badFormat(type, length, "Zero length BigInteger", value);
+    }
+    if (!isDigits(value, start)) {
+      throw badFormat(type, length, "For input string: \"" + value.subSequence(start, value.length()) + "\"", value);
+    }
+    return toLong(value, start, negative);
+  }
+
+  /** @return the value of the digits of <code>value</code> from <code>start</code>, of which
+    * there are no more than 18, negated if <code>negative</code> */
+  private static long toLong(final CharSequence value, final int start, final boolean negative) {
+    long result = 0;
+    for (int index = start; index < value.length(); index++) {
+      result = result * 10 + (value.charAt(index) - '0');
+    }
+    return negative ? -result : result;
+  }
+
+  /** @return exception reporting that <code>value</code> is not a valid numeric value */
+  private static ParseException badFormat(final String type, final int length, final String reason, final CharSequence value) {
+    return new ParseException("Bad f format " + reason + " for type=" + type + " [" + value + "]", length);
+  }
+
+  private BigInteger parseXNField(final String type, final int length, final String data)
+      throws ParseException {
+    final char signC = data.isEmpty() ? ' ' : Character.toUpperCase(data.charAt(0));
     if (signC != 'C' && signC != 'D') {
       throw new ParseException("Bad f format for " + type
-          + ": must start with C or D (field data=[" + decode(data) + "])", length);
+          + ": must start with C or D (field data=[" + data + "])", length);
     }
-    final String value = decode(Arrays.copyOfRange(data, 1, data.length));
-    BigInteger result = new BigInteger(value);
+    BigInteger result = new BigInteger(data.substring(1));
     if (signC == 'D') {
       result = result.negate();
     }
@@ -65,6 +217,12 @@ public class NumberFormatter
     if (data == null) {
       throw new IllegalArgumentException("Numeric value cannot be null");
     }
+    if (isLongValue(data)) {
+      final long value = ((Number) data).longValue();
+      if (value >= 0 || FieldType.NUMSIGNED.equalsIgnoreCase(type)) {
+        return formatLong(type, data, value, dimension);
+      }
+    }
 
     BigInteger value = getNumericValue(data);
     int length = dimension.getLength();
@@ -93,11 +251,136 @@ public class NumberFormatter
     return result.getBytes();
   }
 
+  /**
+   * Format the data supplied, as {@link #format(String, Object, Dimension)}, encoding its digits
+   * in <code>charset</code> directly into the <code>output</code> buffer, if the data is an
+   * integral value that can be formatted as a long, and the charset is single-byte
+   * @param type      numeric type specified for the field
+   * @param data      the object to be formatted
+   * @param dimension specifies if fixed or variable and the required size
+   * @param charset   in which the field is encoded
+   * @param output    buffer to which the field value is written
+   * @return the number of bytes written, or -1 if the data must be formatted by
+   * {@link #format(String, Object, Dimension)}
+   * @throws IllegalArgumentException         if the value has more digits than the field's length
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public int format(final String type, final Object data, final Dimension dimension,
+                    final CharEncoder charset, final ByteBuffer output) {
+    if (data == null || !isLongValue(data) || !charset.isSingleByte()) {
+      return -1;
+    }
+    final long value = ((Number) data).longValue();
+    final boolean isSigned = FieldType.NUMSIGNED.equalsIgnoreCase(type);
+    if (value < 0 && !isSigned) {
+      return -1;
+    }
+    final int length = isSigned ? dimension.getLength() - 1 : dimension.getLength();
+    final long magnitude = Math.abs(value);
+    final int digits = getDigitCount(magnitude);
+    if (digits > length) {
+      throw new IllegalArgumentException(
+          "Field data length (" + (!isSigned ? digits : (digits + 1))
+              + ") exceeds field maximum (" + dimension.getLength()
+              + ") [data=" + data + ", type=" + type + ", dim=" + dimension + "]");
+    }
+    final int width = dimension.getType() == Dimension.Type.FIXED ? length : digits;
+    if (output.remaining() < (isSigned ? width + 1 : width)) {
+      throw new BufferOverflowException();
+    }
+    final int start = output.position();
+    if (isSigned) {
+      charset.pad(value < 0 ? 'D' : 'C', 1, output);
+    }
+    charset.pad('0', width - digits, output);
+    long divisor = 1;
+    for (int index = 1; index < digits; index++) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      charset.pad((char) ('0' + (magnitude / divisor) % 10), 1, output);
+    }
+    return output.position() - start;
+  }
+
+  /** @return the number of digits (and sign) of <code>data</code> formatted for the field, as
+   * by {@link #format(String, Object, Dimension)}, or -1 if the data is not an integral value
+   * that can be formatted as a long */
+  public int getFormattedLength(final String type, final Object data, final Dimension dimension) {
+    if (data == null || !isLongValue(data)) {
+      return -1;
+    }
+    final long value = ((Number) data).longValue();
+    final boolean isSigned = FieldType.NUMSIGNED.equalsIgnoreCase(type);
+    if (value < 0 && !isSigned) {
+      return -1;
+    }
+    final int length = isSigned ? dimension.getLength() - 1 : dimension.getLength();
+    final int digits = getDigitCount(Math.abs(value));
+    if (digits > length) {
+      return -1; // reported when formatted
+    }
+    final int width = dimension.getType() == Dimension.Type.FIXED ? length : digits;
+    return isSigned ? width + 1 : width;
+  }
+
+  /**
+   * @return the digits of the <code>value</code>, zero-padded to the field length if fixed,
+   * and preceded by its sign, C or D, if <code>type</code> is signed numeric
+   * @param data  value being formatted, for error reporting
+   * @param value not negative unless <code>type</code> is signed numeric, and not Long.MIN_VALUE
+   * @throws IllegalArgumentException if the value has more digits than the field's length
+   */
+  private static byte[] formatLong(final String type, final Object data, final long value, final Dimension dimension) {
+    final boolean isSigned = FieldType.NUMSIGNED.equalsIgnoreCase(type);
+    final int length = isSigned ? dimension.getLength() - 1 : dimension.getLength();
+    long remaining = Math.abs(value);
+    final int digits = getDigitCount(remaining);
+    if (digits > length) {
+      throw new IllegalArgumentException(
+          "Field data length (" + (!isSigned ? digits : (digits + 1))
+              + ") exceeds field maximum (" + dimension.getLength()
+              + ") [data=" + data + ", type=" + type + ", dim=" + dimension + "]");
+    }
+    final int width = dimension.getType() == Dimension.Type.FIXED ? length : digits;
+    final byte[] result = new byte[isSigned ? width + 1 : width];
+    for (int index = result.length - 1; index >= result.length - width; index--) {
+      result[index] = (byte) ('0' + remaining % 10);
+      remaining /= 10;
+    }
+    if (isSigned) {
+      result[0] = (byte) (value < 0 ? 'D' : 'C');
+    }
+    return result;
+  }
+
+  /** @return true if the data is an integral value that can be formatted as a long, other than
+   * Long.MIN_VALUE, whose magnitude is not a long */
+  private static boolean isLongValue(final Object data) {
+    if (data instanceof Long || data instanceof Integer || data instanceof Short || data instanceof Byte) {
+      return ((Number) data).longValue() != Long.MIN_VALUE;
+    }
+    return data instanceof BigInteger && ((BigInteger) data).bitLength() < 63;
+  }
+
+  /** @return the number of decimal digits in the (non-negative) value, at least one */
+  private static int getDigitCount(final long value) {
+    int result = 1;
+    for (long bound = 10; result < 19 && value >= bound; bound *= 10) {
+      result++;
+    }
+    return result;
+  }
+
   private String zeroPad(final String result, final int length) {
     if (result.length() >= length) {
       return result;
     }
-    return String.format("%" + length + "." + length + "s", result).replaceAll(" ", "0");
+    final StringBuilder padded = new StringBuilder(length);
+    for (int index = result.length(); index < length; index++) {
+      padded.append('0');
+    }
+    return padded.append(result).toString();
   }
 
   /**
@@ -116,7 +399,7 @@ public class NumberFormatter
     if (data instanceof BigDecimal) {
       return BigInteger.valueOf(((BigDecimal) data).longValue());
     } else if (data instanceof Integer || data instanceof Long) {
-      return BigInteger.valueOf(Long.valueOf(data + ""));
+      return BigInteger.valueOf(((Number) data).longValue());
     } else if (data instanceof Float || data instanceof Double) {
       return BigInteger.valueOf(Double.doubleToLongBits((Double) data));
     } else {
@@ -138,6 +421,9 @@ public class NumberFormatter
    */
   @Override
   public boolean isValid(final Object value, final String type, final Dimension dimension) {
+    if (isLongValue(value)) {
+      return isValid(((Number) value).longValue(), type, dimension);
+    }
     final BigInteger bi;
     try {
       bi = getNumericValue(value);
@@ -147,4 +433,13 @@ public class NumberFormatter
     return bi.toString().length() <= dimension.getLength();
   }
 
+  /** @return true if the supplied value, as {@link #isValid(Object, String, Dimension)},
+   * is a valid instance of the type/dim specified, without boxing it */
+  public boolean isValid(final long value, final String type, final Dimension dimension) {
+    if (value == Long.MIN_VALUE) {
+      return isValid(BigInteger.valueOf(value), type, dimension);
+    }
+    return getDigitCount(Math.abs(value)) + (value < 0 ? 1 : 0) <= dimension.getLength();
+  }
+
 }
@@ -6,6 +6,7 @@ import org.joda.time.LocalTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 
@@ -28,6 +29,16 @@ public class TimeFormatter
   @Override
   public LocalTime parse(final String type, final Dimension dimension, final int length, final byte[] data)
       throws ParseException {
+    return parse(type, dimension, length, ByteBuffer.wrap(data));
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws ParseException if the data cannot be parsed as a valid time value
+   */
+  @Override
+  public LocalTime parse(final String type, final Dimension dimension, final int length, final ByteBuffer data)
+      throws ParseException {
     try {
       return Formatter.parseLocalTime(decode(data));
     } catch (final Exception e) {
@@ -35,6 +46,24 @@ public class TimeFormatter
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * <p/>only time values with out-of-range elements (e.g., hour 25) are rejected by catching
+   * the formatter's exception; data of the wrong length or not all digits is rejected up-front
+   */
+  @Override
+  public LocalTime tryParse(final String type, final Dimension dimension, final int length, final ByteBuffer data) {
+    final String value = decode(data);
+    if (value.length() != 6 || !isDigits(value, 0)) {
+      return null;
+    }
+    try {
+      return Formatter.parseLocalTime(value);
+    } catch (final IllegalArgumentException e) {
+      return null;
+    }
+  }
+
   /**
    * {@inheritDoc}
    * @throws IllegalArgumentException if the data is null
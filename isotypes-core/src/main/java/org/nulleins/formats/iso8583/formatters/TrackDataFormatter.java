@@ -8,6 +8,7 @@ import org.nulleins.formats.iso8583.types.Dimension;
 import org.nulleins.formats.iso8583.types.FieldType;
 import org.nulleins.formats.iso8583.TrackData;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -100,6 +101,17 @@ public class TrackDataFormatter extends TypeFormatter<TrackData> {
   @Override
   public TrackData parse(final String type, final Dimension dim, final int length, final byte[] data)
       throws ParseException {
+    return parse(type, dim, length, ByteBuffer.wrap(data));
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>Parse Track1 or Track2 data
+   * @throws ParseException if the supplied data does not match Track1 or Track2 data specification
+   */
+  @Override
+  public TrackData parse(final String type, final Dimension dim, final int length, final ByteBuffer data)
+      throws ParseException {
     final String value = decode(data);
     final Matcher t1matcher = Track1Matcher.matcher(value);
     if (t1matcher.matches()) {
@@ -113,6 +125,20 @@ public class TrackDataFormatter extends TypeFormatter<TrackData> {
     throw new ParseException("Could not understand track data (type=" + type + "): [" + value + "]", length);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TrackData tryParse(final String type, final Dimension dim, final int length, final ByteBuffer data) {
+    final String value = decode(data);
+    final Matcher t1matcher = Track1Matcher.matcher(value);
+    if (t1matcher.matches()) {
+      return parseTrack1(t1matcher);
+    }
+    final Matcher t2matcher = Track2Matcher.matcher(value);
+    return t2matcher.matches() ? parseTrack2(t2matcher) : null;
+  }
+
   /* (non-Javadoc)
    * @see TypeFormatter#format(java.lang.String, java.lang.Object, Dimension)
    */
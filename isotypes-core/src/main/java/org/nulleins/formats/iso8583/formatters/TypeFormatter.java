@@ -5,6 +5,7 @@ import org.nulleins.formats.iso8583.types.Dimension;
 import org.nulleins.formats.iso8583.MessageException;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Arrays;
 
@@ -29,6 +30,66 @@ public abstract class TypeFormatter<T> {
    */
   public abstract T parse(String type, Dimension dimension, int position, byte[] data) throws ParseException;
 
+  /**
+   * Answer with a value parsed from the remaining bytes of the <code>data</code> buffer,
+   * interpreted according to the field type and dim specification supplied; the buffer's
+   * position is not changed
+   * <p/>
+   * This default implementation copies the data and calls {@link #parse(String, Dimension, int, byte[])};
+   * formatters able to decode directly from a buffer should override it
+   * @param type      variant of the type specified for the field
+   * @param dimension specifies if fixed or variable and the required size
+   * @param position  of field value in the input
+   * @param data      buffer holding the bytes to be parsed
+   * @throws IllegalArgumentException if the data is null or invalid the field type
+   * @throws ParseException           if the data cannot be parsed to the specified type
+   */
+  public T parse(final String type, final Dimension dimension, final int position, final ByteBuffer data)
+      throws ParseException {
+    final byte[] bytes = new byte[data.remaining()];
+    data.duplicate().get(bytes);
+    return parse(type, dimension, position, bytes);
+  }
+
+  /**
+   * Answer with a value parsed from the remaining bytes of the <code>data</code> buffer, as
+   * {@link #parse(String, Dimension, int, ByteBuffer)}, or null if the data is not valid for the
+   * field type; the buffer's position is not changed
+   * <p/>
+   * This is used when parsing leniently, where invalid field data is expected and must be
+   * reported cheaply: this default implementation catches the exception thrown by
+   * <code>parse</code>; formatters should override it to validate the data without throwing
+   * @param type      variant of the type specified for the field
+   * @param dimension specifies if fixed or variable and the required size
+   * @param position  of field value in the input
+   * @param data      buffer holding the bytes to be parsed
+   * @return the value parsed, or null if the data is not valid
+   */
+  public T tryParse(final String type, final Dimension dimension, final int position, final ByteBuffer data) {
+    try {
+      return parse(type, dimension, position, data);
+    } catch (final ParseException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return true if every character of <code>value</code>, from <code>start</code>, is a
+   * decimal digit, and there is at least one such character
+   */
+  protected static boolean isDigits(final CharSequence value, final int start) {
+    if (value.length() <= start) {
+      return false;
+    }
+    for (int i = start; i < value.length(); i++) {
+      final char digit = value.charAt(i);
+      if (digit < '0' || digit > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /** @return with a byte array representing the data supplied, formatted according to the
     * field type and dim specified
     * @param type      variant of the alpha type specified for the field
@@ -75,4 +136,25 @@ public abstract class TypeFormatter<T> {
     }
   }
 
+  /**
+   * Decode the remaining bytes of the supplied buffer using the configured charset
+   * @param data
+   * @return A string representation of the data supplied, in the charset specified
+   */
+  protected String decode(final ByteBuffer data) {
+    assert charset != null;
+    return charset.getString(data);
+  }
+
+  /**
+   * Decode the remaining bytes of the supplied buffer using the configured charset, as a
+   * view of the buffer's content, so that it can be parsed without creating a String
+   * @param data
+   * @return A character sequence representing the data supplied, in the charset specified
+   */
+  protected CharSequence decodeChars(final ByteBuffer data) {
+    assert charset != null;
+    return charset.getChars(data);
+  }
+
 }
@@ -1,6 +1,7 @@
 package org.nulleins.formats.iso8583.io;
 
 import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.formatters.NumberFormatter;
 import org.nulleins.formats.iso8583.types.BCD;
 import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.Dimension;
@@ -9,6 +10,10 @@ import org.nulleins.formats.iso8583.types.MTI;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -27,6 +32,9 @@ public class BCDMessageReader
     super.charCodec = charset;
   }
 
+  /** the maximum number of digits unpacked directly as a long */
+  private static final int MaxLongDigits = 18;
+
   private static final Set<String> NumericTypes =
       new HashSet<String>() {{
         add(FieldType.NUMSIGNED);
@@ -45,9 +53,9 @@ public class BCDMessageReader
     int length = field.getDimension().getLength();
     if (field.getDimension().getType() == Dimension.Type.VARIABLE) {
       // LVAR and LLVAR: 1 byte length specifier, LLLVAR: 2 bytes required:
-      final byte[] var = new byte[(int) Math.ceil(field.getDimension().getVSize() / 2.0)];
+      final byte[] var = new byte[BCD.getSize(field.getDimension().getVSize())];
       input.readFully(var);
-      length = Integer.parseInt(BCD.toString(var));
+      length = (int) BCD.unpackLong(ByteBuffer.wrap(var), var.length * 2);
     }
     if (field.getType().equals(FieldType.TRACKDATA)) {
       return readTrackData(length, input);
@@ -64,6 +72,179 @@ public class BCDMessageReader
     return readBytes(length, input);
   }
 
+  /**
+   * {@inheritDoc}
+   * <p/>alpha fields are returned as a slice of the input buffer; numeric and track data fields
+   * are unpacked to their character representation
+   */
+  @Override
+  public ByteBuffer readField(final FieldTemplate field, final ByteBuffer input)
+      throws IOException {
+    int length = field.getDimension().getLength();
+    if (field.getDimension().getType() == Dimension.Type.VARIABLE) {
+      // LVAR and LLVAR: 1 byte length specifier, LLLVAR: 2 bytes required:
+      length = readLength(BCD.getSize(field.getDimension().getVSize()), input);
+    }
+    if (field.getType().equals(FieldType.TRACKDATA)) {
+      final byte[] data = new byte[(int) Math.ceil(length / 2.0)];
+      readSlice(data.length, input).get(data);
+      return ByteBuffer.wrap(parseTrackData(data));
+    }
+    if (NumericTypes.contains(field.getType())) {
+      boolean negative = false;
+      if (field.getType().equals(FieldType.NUMSIGNED)) {
+        final byte sign = readSlice(1, input).get();
+        length -= 2; // read two nibbles
+        negative = sign == 0x0d;
+      }
+      return readNumeric(field, length, negative, input);
+    }
+    return readSlice(length, input);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>numeric and signed numeric fields are unpacked from BCD
+   */
+  @Override
+  public boolean isLongDecoded(final FieldTemplate field) {
+    return field.getType().equals(FieldType.NUMERIC) || field.getType().equals(FieldType.NUMSIGNED);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long readLong(final FieldTemplate field, final ByteBuffer input)
+      throws IOException, ParseException {
+    if (!isLongDecoded(field)) {
+      return super.readLong(field, input);
+    }
+    final long result = tryReadLong(field, input);
+    if (result == NumberFormatter.INVALID_LONG) {
+      throw new ParseException("Invalid BCD value, or value out of range of long, for field " + field, 0);
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long tryReadLong(final FieldTemplate field, final ByteBuffer input)
+      throws IOException {
+    if (!isLongDecoded(field)) {
+      return super.tryReadLong(field, input);
+    }
+    int length = field.getDimension().getLength();
+    if (field.getDimension().getType() == Dimension.Type.VARIABLE) {
+      length = readLength(BCD.getSize(field.getDimension().getVSize()), input);
+    }
+    boolean negative = false;
+    if (field.getType().equals(FieldType.NUMSIGNED)) {
+      negative = readSlice(1, input).get() == 0x0d;
+      length -= 2; // read two nibbles
+    }
+    final ByteBuffer data = readSlice(BCD.getSize(length), input);
+    if (!BCD.isValid(data, length, BCD.Justify.RIGHT)) {
+      return NumberFormatter.INVALID_LONG;
+    }
+    if (length <= MaxLongDigits) {
+      final long result = BCD.unpackLong(data, length);
+      return negative ? -result : result;
+    }
+    final byte[] digits = new byte[length];
+    BCD.unpack(data, length, digits, 0);
+    final BigInteger result = new BigInteger(new String(digits, StandardCharsets.US_ASCII));
+    if (result.bitLength() > 63) {
+      return NumberFormatter.INVALID_LONG;
+    }
+    return negative ? -result.longValue() : result.longValue();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getFieldSize(final FieldTemplate field, final ByteBuffer input)
+      throws IOException {
+    if (field.getDimension().getType() != Dimension.Type.VARIABLE) {
+      return getDataSize(field, field.getDimension().getLength());
+    }
+    final int vsize = BCD.getSize(field.getDimension().getVSize());
+    if (input.remaining() < vsize) {
+      return -1;
+    }
+    return vsize + getDataSize(field, readLength(vsize, input.duplicate()));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getMTISize() {
+    return 2;
+  }
+
+  /**
+   * @return the number of bytes holding the value of <code>field</code> in the input
+   * @param field  template describing the field
+   * @param length of the field value, in digits or characters
+   */
+  private static int getDataSize(final FieldTemplate field, final int length) {
+    if (field.getType().equals(FieldType.TRACKDATA)) {
+      return (int) Math.ceil(length / 2.0);
+    }
+    if (field.getType().equals(FieldType.NUMSIGNED)) {
+      return 1 + BCD.getSize(length - 2); // sign byte, as two nibbles, and packed digits
+    }
+    if (NumericTypes.contains(field.getType())) {
+      return (int) Math.ceil(length / 2.0);
+    }
+    return length;
+  }
+
+  /**
+   * Read a BCD-encoded length specifier from the input buffer
+   * @param size of the length specifier, in bytes
+   * @return the length value
+   * @throws IOException if the required amount of data could not be read
+   */
+  private int readLength(final int size, final ByteBuffer input)
+      throws IOException {
+    try {
+      return (int) BCD.unpackLong(readSlice(size, input), size * 2);
+    } catch (final IllegalArgumentException e) {
+      throw new IOException("Invalid BCD length specifier", e);
+    }
+  }
+
+  /**
+   * Read a BCD-encoded numeric field value from the input buffer,
+   * returning a character representation of the numeric value
+   * @param field    template describing the field to be read
+   * @param length   of the field in the input, in digits
+   * @param negative flag: is the field to be interpreted as a negative value?
+   * @return a buffer holding the numeric value read, as characters
+   * @throws IOException if the required amount of data could not be read, or is not BCD
+   */
+  private ByteBuffer readNumeric(final FieldTemplate field, final int length, final boolean negative, final ByteBuffer input)
+      throws IOException {
+    // packed BCD, half length (rounded-up):
+    final ByteBuffer data = readSlice(BCD.getSize(length), input);
+    final boolean signed = field.getType().equals(FieldType.NUMSIGNED);
+    final byte[] result = new byte[signed ? length + 1 : length];
+    if (signed) {
+      result[0] = (byte) (negative ? 'D' : 'C');
+    }
+    try {
+      BCD.unpack(data, length, result, signed ? 1 : 0);
+    } catch (final IllegalArgumentException e) {
+      throw new IOException("Invalid BCD value of field " + field, e);
+    }
+    return ByteBuffer.wrap(result);
+  }
+
   /**
    * Read a BCD-encoded numeric field value from the input stream,
    * returning a character representation of the numeric value
@@ -71,22 +252,23 @@ public class BCDMessageReader
    * @param length   of the field in the input
    * @param negative flag: is the field to be interpreted as a negative value?
    * @return a byte array representing the numeric value read, as characters
-   * @throws IOException if the required amount of data could not be read
+   * @throws IOException if the required amount of data could not be read, or is not BCD
    */
   private byte[] readNumeric(final FieldTemplate field, final int length, final boolean negative, final DataInputStream input)
       throws IOException {
     // packed BCD, half length (rounded-up):
-    final byte[] data = readBytes((int) Math.ceil(length / 2.0), input);
-    String result = BCD.toString(data);
-    final int rlen = result.length();
-    if (rlen > length) // got left-padded zero when converted to BCD
-    {
-      result = result.substring(rlen - length, rlen);
+    final byte[] data = readBytes(BCD.getSize(length), input);
+    final boolean signed = field.getType().equals(FieldType.NUMSIGNED);
+    final byte[] result = new byte[signed ? length + 1 : length];
+    if (signed) {
+      result[0] = (byte) (negative ? 'D' : 'C');
     }
-    if (field.getType().equals(FieldType.NUMSIGNED)) {
-      result = (negative ? "D" : "C") + result;
+    try {
+      BCD.unpack(ByteBuffer.wrap(data), length, result, signed ? 1 : 0);
+    } catch (final IllegalArgumentException e) {
+      throw new IOException("Invalid BCD value of field " + field, e);
     }
-    return result.getBytes();
+    return result;
   }
 
   /**
@@ -97,13 +279,22 @@ public class BCDMessageReader
    */
   private byte[] readTrackData(final int length, final DataInputStream input)
       throws IOException {
+    final byte[] data = new byte[(int) Math.ceil(length / 2.0)];
+    input.readFully(data);
+    return parseTrackData(data);
+  }
+
+  /**
+   * Convert binary track data to its character representation
+   * @param data packed track data, as read from the input
+   * @return character representation of the track data
+   */
+  private byte[] parseTrackData(final byte[] data) {
     final String name = "";
     String pan = "";
     String exdate = "";
     String scode = "";
     String descr = "";
-    final byte[] data = new byte[(int) Math.ceil(length / 2.0)];
-    input.readFully(data);
     int pos = 0;
     if (data[0] == 0x37) { // start sentinel
       pos++;
@@ -133,12 +324,16 @@ public class BCDMessageReader
   public MTI readMTI(final DataInputStream input)
       throws IOException {
     final byte[] data = readBytes(2, input);
-    final StringBuilder mti = new StringBuilder();
-    mti.append((char) (((data[0] & 0xf0) >> 4) + 0x30));
-    mti.append((char) ((data[0] & 0x0f) + 0x30));
-    mti.append((char) (((data[1] & 0xf0) >> 4) + 0x30));
-    mti.append((char) ((data[1] & 0x0f) + 0x30));
-    return MTI.create(mti.toString());
+    return MTI.create(((data[0] & 0xff) << 8) | (data[1] & 0xff));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public MTI readMTI(final ByteBuffer input)
+      throws IOException {
+    return MTI.create(readSlice(2, input).getShort() & 0xffff);
   }
 
 }
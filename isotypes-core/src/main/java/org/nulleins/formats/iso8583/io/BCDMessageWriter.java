@@ -1,6 +1,5 @@
 package org.nulleins.formats.iso8583.io;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.nulleins.formats.iso8583.FieldTemplate;
 import org.nulleins.formats.iso8583.types.BCD;
 import org.nulleins.formats.iso8583.types.CharEncoder;
@@ -10,6 +9,7 @@ import org.nulleins.formats.iso8583.types.MTI;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -37,6 +37,22 @@ public class BCDMessageWriter
     write(new byte[]{(byte) (mti >> 8), (byte) mti}, output);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void appendMTI(final MTI type, final ByteBuffer output) {
+    output.putShort((short) type.intValue());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getMTISize() {
+    return 2;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -45,45 +61,162 @@ public class BCDMessageWriter
       throws IOException {
     final Dimension dim = field.getDimension();
     final byte[] inputValue = field.format(data);
-    String fieldValue = charCodec.getString(inputValue);
+    final String fieldValue = charCodec.getString(inputValue);
     if (dim.getType() == Dimension.Type.VARIABLE) {
-      write(getVarLengthSpecifier(dim.getVSize(), fieldValue), output);
+      write(getVarLengthSpecifier(field, fieldValue), output);
     }
     if (field.getType().equals(FieldType.NUMSIGNED)) {
       write((byte) (inputValue[0] - 0x37), output); // 'C' => 0xC and 'D' => 0xD
-      fieldValue = fieldValue.substring(1);
-      //$FALL-THROUGH$
+      write(BCD.valueOf(getSignedDigits(field, fieldValue)), output);
+      return;
+    }
+    write(encodeValue(field, fieldValue), output);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void appendField(final FieldTemplate field, final Object data, final ByteBuffer output)
+      throws IOException {
+    final Dimension dim = field.getDimension();
+    final int length = getLongLength(field, data);
+    if (length >= 0) {
+      // integral values are packed directly, without formatting their digits:
+      final long value = ((Number) data).longValue();
+      if (dim.getType() == Dimension.Type.VARIABLE) {
+        BCD.pack(getVarLength(field, length), getVarLengthSize(dim.getVSize()) * 2, output);
+      }
+      if (field.getType().equals(FieldType.NUMSIGNED)) {
+        output.put((byte) (value < 0 ? 0x0d : 0x0c));
+        BCD.pack(Math.abs(value), getSignedDigitCount(field, length), output);
+        return;
+      }
+      BCD.pack(value, length, output);
+      return;
+    }
+    final byte[] inputValue = field.format(data);
+    final String fieldValue = charCodec.getString(inputValue);
+    if (dim.getType() == Dimension.Type.VARIABLE) {
+      BCD.pack(getVarLength(field, fieldValue.length()), getVarLengthSize(dim.getVSize()) * 2, output);
+    }
+    if (!isNumeric(field)) {
+      output.put(fieldValue.getBytes());
+      return;
+    }
+    if (field.getType().equals(FieldType.NUMSIGNED)) {
+      output.put((byte) (inputValue[0] - 0x37)); // 'C' => 0xC and 'D' => 0xD
+      BCD.pack(getSignedDigits(field, fieldValue), output);
+      return;
+    }
+    BCD.pack(fieldValue, output);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>the value is formatted to determine its length, but is not packed
+   */
+  @Override
+  public int getFieldSize(final FieldTemplate field, final Object data)
+      throws IOException {
+    final Dimension dim = field.getDimension();
+    int result = 0;
+    if (dim.getType() == Dimension.Type.VARIABLE) {
+      result += getVarLengthSize(dim.getVSize());
+    }
+    final int length = getLongLength(field, data);
+    if (length >= 0) {
+      return result + (field.getType().equals(FieldType.NUMSIGNED)
+          ? 1 + BCD.getSize(getSignedDigitCount(field, length)) : BCD.getSize(length));
+    }
+    final String fieldValue = charCodec.getString(field.format(data));
+    if (!isNumeric(field)) {
+      return result + fieldValue.getBytes().length;
     }
-    final byte[] encodedValue;
-    if (field.getType().equals(FieldType.NUMERIC) ||
+    if (field.getType().equals(FieldType.NUMSIGNED)) {
+      return result + 1 + BCD.getSize(getSignedDigitCount(field, fieldValue.length()));
+    }
+    return result + BCD.getSize(fieldValue.length());
+  }
+
+  /** @return the value of the field, packed as BCD if numeric, otherwise as character data */
+  private static byte[] encodeValue(final FieldTemplate field, final String fieldValue) {
+    if (isNumeric(field)) {
+      return BCD.valueOf(fieldValue);
+    }
+    return fieldValue.getBytes();
+  }
+
+  /** @return the number of digits packed after the sign byte of a signed numeric field: the
+   * field's length less the two nibbles of the sign byte if fixed, otherwise all of the digits
+   * @param length of the formatted value, including its sign */
+  private static int getSignedDigitCount(final FieldTemplate field, final int length) {
+    final Dimension dim = field.getDimension();
+    return dim.getType() == Dimension.Type.FIXED ? dim.getLength() - 2 : length - 1;
+  }
+
+  /** @return the digits packed after the sign byte of a signed numeric field, being the last
+   * <code>getSignedDigitCount</code> digits of its formatted value
+   * @param fieldValue formatted value, preceded by its sign
+   * @throws IllegalArgumentException if the digits omitted are not zero, as the value does not
+   *                                  fit in the digits following the sign byte */
+  private static String getSignedDigits(final FieldTemplate field, final String fieldValue) {
+    final int start = fieldValue.length() - getSignedDigitCount(field, fieldValue.length());
+    for (int index = 1; index < start; index++) {
+      if (fieldValue.charAt(index) != '0') {
+        throw new IllegalArgumentException("Field data (" + fieldValue + ") exceeds the "
+            + (fieldValue.length() - start) + " digits following the sign of field " + field);
+      }
+    }
+    return fieldValue.substring(start);
+  }
+
+  /** @return the number of characters (digits and sign) of the numeric value supplied, when
+   * formatted for the field, if the value is integral, and can be packed directly as a long,
+   * otherwise -1 */
+  private static int getLongLength(final FieldTemplate field, final Object data) {
+    if (!field.getType().equals(FieldType.NUMERIC) && !field.getType().equals(FieldType.NUMSIGNED)) {
+      return -1;
+    }
+    return field.getFormattedLength(data);
+  }
+
+  /** @return true if the field's value is packed as BCD */
+  private static boolean isNumeric(final FieldTemplate field) {
+    return field.getType().equals(FieldType.NUMERIC) ||
         field.getType().equals(FieldType.NUMSIGNED) ||
         field.getType().equals(FieldType.DATE) ||
         field.getType().equals(FieldType.TIME) ||
-        field.getType().equals(FieldType.EXDATE)) {
-      encodedValue = BCD.valueOf(fieldValue);
-    } else {
-      encodedValue = fieldValue.getBytes();
-    }
-    write(encodedValue, output);
+        field.getType().equals(FieldType.EXDATE);
   }
 
   /**
    * returns a BCD byte array that specifies the length of the
    * supplied value for a variable-width field to the output stream
-   * @param vsize size of the variable width specifier (1, 2 or 3)
+   * @param field template of the variable width field
    * @param value the value to be stored in the field
    * @return field size as a byte array
    */
-  private byte[] getVarLengthSpecifier(final int vsize, final String value) {
-    int length = value.length();
-    if (length % 2 != 0) { // is odd
-      length++;
-    }
-    byte[] vspecifier = BCD.valueOf(length);
-    if (vsize > 2 && vspecifier.length < 2) { // LLLVAR: needs filler to make 2-byte length specifier
-      vspecifier = ArrayUtils.add(vspecifier, 0, (byte) 0);
-    }
-    return vspecifier;
+  private byte[] getVarLengthSpecifier(final FieldTemplate field, final String value) {
+    final byte[] result = new byte[getVarLengthSize(field.getDimension().getVSize())];
+    BCD.pack(getVarLength(field, value.length()), result.length * 2, ByteBuffer.wrap(result));
+    return result;
+  }
+
+  /** @return the length written in the length specifier of a variable field holding a value of
+   * <code>length</code> characters, being its length rounded up to an even number; the sign of
+   * a signed numeric value occupies a byte, counted as two nibbles before its digits */
+  private static int getVarLength(final FieldTemplate field, final int length) {
+    final int digits = field.getType().equals(FieldType.NUMSIGNED) ? length - 1 : length;
+    final int result = digits % 2 != 0 ? digits + 1 : digits;
+    return field.getType().equals(FieldType.NUMSIGNED) ? result + 2 : result;
+  }
+
+  /** @return the size of the length specifier of a variable field, in bytes: one for LVAR
+   * and LLVAR fields, two for LLLVAR
+   * @param vsize size of the variable width specifier (1, 2 or 3) */
+  private static int getVarLengthSize(final int vsize) {
+    return BCD.getSize(vsize);
   }
 
 }
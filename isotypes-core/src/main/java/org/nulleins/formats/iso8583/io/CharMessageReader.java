@@ -7,6 +7,7 @@ import org.nulleins.formats.iso8583.types.MTI;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -33,6 +34,18 @@ public class CharMessageReader
     return MTI.create(charCodec.getString(data));
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public MTI readMTI(final ByteBuffer input)
+      throws IOException {
+    if (isAsciiHex() && input.remaining() >= 4) {
+      return MTI.readASCII(input);
+    }
+    return MTI.create(charCodec.getString(readSlice(4, input)));
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -51,5 +64,67 @@ public class CharMessageReader
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * <p/>character data is passed to the formatter as-is, so the result is always a
+   * slice of the input buffer
+   */
+  @Override
+  public ByteBuffer readField(final FieldTemplate field, final ByteBuffer input)
+      throws IOException {
+    final int length = readLength(field, input);
+    try {
+      return readSlice(length, input);
+    } catch (final Exception e) {
+      throw new IOException("Failed to read field " + field + " from input buffer", e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getFieldSize(final FieldTemplate field, final ByteBuffer input)
+      throws IOException {
+    final Dimension dimension = field.getDimension();
+    if (dimension.getType() != Dimension.Type.VARIABLE) {
+      return dimension.getLength();
+    }
+    if (input.remaining() < dimension.getVSize()) {
+      return -1;
+    }
+    return dimension.getVSize() + readLength(field, input.duplicate());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getMTISize() {
+    return 4;
+  }
+
+  /**
+   * Read the length of the next field value from the input buffer
+   * @param field template describing the next field in the input
+   * @return the fixed length of the field, or the value of its length specifier if variable
+   * @throws IOException if the length specifier cannot be read
+   */
+  private int readLength(final FieldTemplate field, final ByteBuffer input)
+      throws IOException {
+    if (field.getDimension().getType() != Dimension.Type.VARIABLE) {
+      return field.getDimension().getLength();
+    }
+    final CharSequence vsize = charCodec.getChars(readSlice(field.getDimension().getVSize(), input));
+    int result = 0;
+    for (int index = 0; index < vsize.length(); index++) {
+      final int digit = vsize.charAt(index) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new IOException("Invalid length specifier [" + vsize + "] for field " + field);
+      }
+      result = result * 10 + digit;
+    }
+    return result;
+  }
 
 }
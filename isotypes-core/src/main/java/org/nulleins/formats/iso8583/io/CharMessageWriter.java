@@ -7,6 +7,8 @@ import org.nulleins.formats.iso8583.types.MTI;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -33,6 +35,23 @@ public class CharMessageWriter
     write(type.toString(), output);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void appendMTI(final MTI type, final ByteBuffer output)
+      throws IOException {
+    charCodec.encode(type.toString(), output);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getMTISize() {
+    return 4;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -48,4 +67,63 @@ public class CharMessageWriter
     write(fieldValue, output);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void appendField(final FieldTemplate field, final Object data, final ByteBuffer output)
+      throws IOException {
+    final Dimension dim = field.getDimension();
+    if (dim.getType() != Dimension.Type.VARIABLE) {
+      // alpha fields are encoded and padded directly into the output:
+      if (field.format(data, charCodec, output) < 0) {
+        charCodec.encode(field.format(data), output);
+      }
+      return;
+    }
+    // the value is transcoded directly into the output, after space left for its length specifier:
+    final int start = output.position();
+    if (output.remaining() < dim.getVSize()) {
+      throw new BufferOverflowException();
+    }
+    output.position(start + dim.getVSize());
+    int length = field.format(data, charCodec, output);
+    if (length < 0) {
+      length = charCodec.encode(field.format(data), output);
+    }
+    final ByteBuffer specifier = output.duplicate();
+    specifier.position(start);
+    charCodec.encode(getVarLengthSpecifier(dim.getVSize(), length), specifier);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>fixed fields are formatted to the exact width of their dimension, and the length of
+   * numeric values is known, so need not be formatted
+   */
+  @Override
+  public int getFieldSize(final FieldTemplate field, final Object data)
+      throws IOException {
+    final Dimension dim = field.getDimension();
+    if (dim.getType() == Dimension.Type.FIXED) {
+      return dim.getLength();
+    }
+    final int length = field.getFormattedLength(data);
+    if (length >= 0 && charCodec.isSingleByte()) {
+      return dim.getVSize() + length;
+    }
+    return dim.getVSize() + charCodec.getEncodedLength(field.format(data));
+  }
+
+  /** @return the length specifier of a variable field, as <code>vsize</code> zero-padded digits */
+  private static String getVarLengthSpecifier(final int vsize, final int length) {
+    final char[] result = new char[vsize];
+    int value = length;
+    for (int i = vsize - 1; i >= 0; i--) {
+      result[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return new String(result);
+  }
+
 }
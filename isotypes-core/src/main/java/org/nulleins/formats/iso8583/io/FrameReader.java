@@ -0,0 +1,162 @@
+package org.nulleins.formats.iso8583.io;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+
+/**
+ * Reads length-prefixed message frames, back-to-back, from a stream connection: each frame
+ * is read into a buffer that is reused for the next frame, so that a message can be parsed
+ * in place, without further copying or allocation
+ * <p/>
+ * Example:</br>
+ * <code>
+ * final FrameReader frames = new FrameReader(LengthPrefix.binary(2), socket.getInputStream());
+ * for (ByteBuffer frame = frames.readFrame(); frame != null; frame = frames.readFrame()) {
+ * &nbsp;&nbsp;final Message message = factory.parse(frame);
+ * }
+ * </code>
+ * <p/>
+ * Instances are not thread-safe; the channel read from must be in blocking mode
+ * @author phillipsr
+ */
+public class FrameReader implements Closeable {
+  private static final int InitialCapacity = 1024;
+
+  private final LengthPrefix prefix;
+  private final InputStream stream;
+  private final ReadableByteChannel channel;
+  private final int maxFrameLength;
+  private ByteBuffer buffer;
+
+  /**
+   * Instantiate a reader of frames from the input stream supplied
+   * @param prefix codec for the length specifier preceding each frame
+   * @param input  stream from which frames are read
+   * @throws NullPointerException if either argument is null
+   */
+  public FrameReader(final LengthPrefix prefix, final InputStream input) {
+    this(prefix, input, null, prefix.getMaxLength());
+  }
+
+  /**
+   * Instantiate a reader of frames from the (blocking) channel supplied
+   * @param prefix codec for the length specifier preceding each frame
+   * @param input  channel from which frames are read
+   * @throws NullPointerException if either argument is null
+   */
+  public FrameReader(final LengthPrefix prefix, final ReadableByteChannel input) {
+    this(prefix, null, input, prefix.getMaxLength());
+  }
+
+  /**
+   * Instantiate a reader of frames from the input stream supplied, rejecting frames
+   * longer than <code>maxFrameLength</code>
+   * @throws NullPointerException if either argument is null
+   * @throws IllegalArgumentException if the maximum frame length is not positive
+   */
+  public FrameReader(final LengthPrefix prefix, final InputStream input, final int maxFrameLength) {
+    this(prefix, input, null, maxFrameLength);
+  }
+
+  /**
+   * Instantiate a reader of frames from the (blocking) channel supplied, rejecting frames
+   * longer than <code>maxFrameLength</code>
+   * @throws NullPointerException if either argument is null
+   * @throws IllegalArgumentException if the maximum frame length is not positive
+   */
+  public FrameReader(final LengthPrefix prefix, final ReadableByteChannel input, final int maxFrameLength) {
+    this(prefix, null, input, maxFrameLength);
+  }
+
+  private FrameReader(
+      final LengthPrefix prefix, final InputStream stream, final ReadableByteChannel channel, final int maxFrameLength) {
+    Preconditions.checkNotNull(prefix, "Length prefix cannot be null");
+    Preconditions.checkArgument(stream != null || channel != null, "Input cannot be null");
+    Preconditions.checkArgument(maxFrameLength > 0, "Maximum frame length must be positive");
+    this.prefix = prefix;
+    this.stream = stream;
+    this.channel = channel;
+    this.maxFrameLength = maxFrameLength;
+    this.buffer = allocate(Math.max(prefix.getSize(), Math.min(InitialCapacity, maxFrameLength)));
+  }
+
+  /**
+   * Read the next frame from the input
+   * @return a buffer holding the frame's content (not including its length specifier), from
+   * position zero to its limit, or null if the input ended cleanly before the next frame; the
+   * buffer is reused by the next call to this method, so must not be retained
+   * @throws EOFException if the input ended part way through a frame
+   * @throws IOException  if the frame's length specifier is not valid, or exceeds the maximum
+   *                      frame length, or on errors reading from the input
+   */
+  public ByteBuffer readFrame() throws IOException {
+    buffer.clear();
+    buffer.limit(prefix.getSize());
+    if (!fill(true)) {
+      return null;
+    }
+    buffer.flip();
+    final int length = prefix.read(buffer);
+    if (length > maxFrameLength) {
+      throw new IOException("Frame length (" + length + ") exceeds maximum (" + maxFrameLength + ")");
+    }
+    if (length > buffer.capacity()) {
+      buffer = allocate(Math.min(Math.max(length, buffer.capacity() * 2), maxFrameLength));
+    }
+    buffer.clear();
+    buffer.limit(length);
+    fill(false);
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Read from the input until the buffer is full
+   * @param atFrameStart is the reader at the start of a frame, where the input may end cleanly?
+   * @return false if the input ended cleanly, before any data was read, otherwise true
+   * @throws EOFException if the input ended part way through the data required
+   */
+  private boolean fill(final boolean atFrameStart) throws IOException {
+    while (buffer.hasRemaining()) {
+      final int count;
+      if (stream != null) {
+        count = stream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (count > 0) {
+          buffer.position(buffer.position() + count);
+        }
+      } else {
+        count = channel.read(buffer);
+      }
+      if (count < 0) {
+        if (atFrameStart && buffer.position() == 0) {
+          return false;
+        }
+        throw new EOFException("Input ended after " + buffer.position() + " of " + buffer.limit() + " bytes expected");
+      }
+    }
+    return true;
+  }
+
+  /** @return a buffer of <code>capacity</code> bytes, heap-based when reading from a stream */
+  private ByteBuffer allocate(final int capacity) {
+    return stream != null ? ByteBuffer.allocate(capacity) : ByteBuffer.allocateDirect(capacity);
+  }
+
+  /** Close the underlying input */
+  @Override
+  public void close() throws IOException {
+    if (stream != null) {
+      stream.close();
+    } else {
+      channel.close();
+    }
+  }
+
+}
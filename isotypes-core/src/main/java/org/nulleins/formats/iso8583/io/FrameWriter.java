@@ -0,0 +1,144 @@
+package org.nulleins.formats.iso8583.io;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Writes length-prefixed message frames to a stream connection: the length specifier and
+ * message data are assembled in a buffer reused for each frame, and written with a single
+ * write to the output
+ * <p/>
+ * Instances are not thread-safe; the channel written to must be in blocking mode
+ * @author phillipsr
+ */
+public class FrameWriter implements Closeable, Flushable {
+  private static final int InitialCapacity = 1024;
+
+  private final LengthPrefix prefix;
+  private final OutputStream stream;
+  private final WritableByteChannel channel;
+  private ByteBuffer buffer;
+
+  /**
+   * Instantiate a writer of frames to the output stream supplied
+   * @param prefix codec for the length specifier preceding each frame
+   * @param output stream to which frames are written
+   * @throws NullPointerException if either argument is null
+   */
+  public FrameWriter(final LengthPrefix prefix, final OutputStream output) {
+    this(prefix, output, null);
+  }
+
+  /**
+   * Instantiate a writer of frames to the (blocking) channel supplied
+   * @param prefix codec for the length specifier preceding each frame
+   * @param output channel to which frames are written
+   * @throws NullPointerException if either argument is null
+   */
+  public FrameWriter(final LengthPrefix prefix, final WritableByteChannel output) {
+    this(prefix, null, output);
+  }
+
+  private FrameWriter(final LengthPrefix prefix, final OutputStream stream, final WritableByteChannel channel) {
+    Preconditions.checkNotNull(prefix, "Length prefix cannot be null");
+    Preconditions.checkArgument(stream != null || channel != null, "Output cannot be null");
+    this.prefix = prefix;
+    this.stream = stream;
+    this.channel = channel;
+    this.buffer = allocate(InitialCapacity);
+  }
+
+  /**
+   * Write the supplied message data as a frame, preceded by its length specifier
+   * @param data message data to be written
+   * @throws IllegalArgumentException if the length of the data exceeds the prefix maximum
+   * @throws IOException on errors writing to the output
+   */
+  public void writeFrame(final byte[] data) throws IOException {
+    writeFrame(ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Write the remaining bytes of the supplied buffer as a frame, preceded by its length
+   * specifier; the buffer's position is not changed
+   * @param data buffer holding the message data to be written
+   * @throws IllegalArgumentException if the length of the data exceeds the prefix maximum
+   * @throws IOException on errors writing to the output
+   */
+  public void writeFrame(final ByteBuffer data) throws IOException {
+    final ByteBuffer frame = beginFrame(data.remaining());
+    frame.put(data.duplicate());
+    endFrame();
+  }
+
+  /**
+   * Start a frame of exactly <code>length</code> bytes, returning the buffer into which the
+   * frame's content is to be written before calling <code>endFrame()</code>; this allows
+   * message data to be written directly into the frame buffer, without an intermediate copy
+   * @param length of the frame content, excluding the length specifier
+   * @return buffer positioned after the length specifier, with <code>length</code> bytes remaining
+   * @throws IllegalArgumentException if the length exceeds the prefix maximum
+   */
+  public ByteBuffer beginFrame(final int length) {
+    Preconditions.checkArgument(length >= 0 && length <= prefix.getMaxLength(),
+        "Frame length (" + length + ") must be in the range 0.." + prefix.getMaxLength() + " for " + prefix);
+    final int frameLength = prefix.getSize() + length;
+    if (frameLength > buffer.capacity()) {
+      buffer = allocate(Math.max(frameLength, buffer.capacity() * 2));
+    }
+    buffer.clear();
+    buffer.limit(frameLength);
+    prefix.write(length, buffer);
+    return buffer;
+  }
+
+  /**
+   * Write the frame started by <code>beginFrame</code> to the output
+   * @throws IllegalStateException if the frame content written is not the length specified
+   * @throws IOException on errors writing to the output
+   */
+  public void endFrame() throws IOException {
+    if (buffer.hasRemaining()) {
+      throw new IllegalStateException("Frame incomplete: " + buffer.remaining() + " bytes of content not written");
+    }
+    buffer.flip();
+    if (stream != null) {
+      stream.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+    } else {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  /** @return a buffer of <code>capacity</code> bytes, heap-based when writing to a stream */
+  private ByteBuffer allocate(final int capacity) {
+    return stream != null ? ByteBuffer.allocate(capacity) : ByteBuffer.allocateDirect(capacity);
+  }
+
+  /** Flush the underlying output stream (channel writes are not buffered) */
+  @Override
+  public void flush() throws IOException {
+    if (stream != null) {
+      stream.flush();
+    }
+  }
+
+  /** Close the underlying output */
+  @Override
+  public void close() throws IOException {
+    if (stream != null) {
+      stream.close();
+    } else {
+      channel.close();
+    }
+  }
+
+}
@@ -0,0 +1,224 @@
+package org.nulleins.formats.iso8583.io;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Codec for the length specifier preceding each message sent over a stream connection,
+ * giving the number of bytes in the message that follows (not including the specifier)
+ * <p/>
+ * Instances are immutable, and are obtained from the factory methods for the common forms:
+ * <code>binary(2)</code> (two-byte big-endian length), <code>ascii(4)</code> (four decimal
+ * digits), <code>text(4, charset)</code> (e.g., EBCDIC digits) and <code>bcd(2)</code>
+ * (four packed BCD digits)
+ * @author phillipsr
+ */
+public abstract class LengthPrefix {
+  private final int size;
+  private final int maxLength;
+
+  private LengthPrefix(final int size, final int maxLength) {
+    this.size = size;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * @return a length specifier of <code>size</code> bytes, holding an unsigned, big-endian
+   * binary value
+   * @param size of the specifier in bytes (1..4)
+   * @throws IllegalArgumentException if the size is not in the range 1..4
+   */
+  public static LengthPrefix binary(final int size) {
+    Preconditions.checkArgument(size >= 1 && size <= 4, "Binary length prefix must be 1..4 bytes (got: " + size + ")");
+    return new Binary(size);
+  }
+
+  /**
+   * @return a length specifier of <code>digits</code> zero-padded ASCII decimal digits
+   * @param digits size of the specifier (1..9)
+   * @throws IllegalArgumentException if the number of digits is not in the range 1..9
+   */
+  public static LengthPrefix ascii(final int digits) {
+    return text(digits, CharEncoder.ASCII);
+  }
+
+  /**
+   * @return a length specifier of <code>digits</code> zero-padded decimal digits, each encoded
+   * as a single byte in the character set specified
+   * @param digits  size of the specifier (1..9)
+   * @param charset used to encode the digits, e.g., an EBCDIC character set
+   * @throws IllegalArgumentException if the number of digits is not in the range 1..9, or
+   *                                  the character set does not encode digits as single bytes
+   */
+  public static LengthPrefix text(final int digits, final CharEncoder charset) {
+    Preconditions.checkArgument(digits >= 1 && digits <= 9, "Text length prefix must be 1..9 digits (got: " + digits + ")");
+    Preconditions.checkNotNull(charset, "charset cannot be null");
+    return new Text(digits, charset);
+  }
+
+  /**
+   * @return a length specifier of <code>size</code> bytes, each holding two packed BCD digits
+   * @param size of the specifier in bytes (1..4)
+   * @throws IllegalArgumentException if the size is not in the range 1..4
+   */
+  public static LengthPrefix bcd(final int size) {
+    Preconditions.checkArgument(size >= 1 && size <= 4, "BCD length prefix must be 1..4 bytes (got: " + size + ")");
+    return new PackedDecimal(size);
+  }
+
+  /** @return the size of the length specifier, in bytes */
+  public int getSize() {
+    return size;
+  }
+
+  /** @return the maximum message length that can be represented by this specifier */
+  public int getMaxLength() {
+    return maxLength;
+  }
+
+  /**
+   * Read a length specifier from the input buffer, advancing its position past the specifier
+   * @return the length of the message that follows
+   * @throws IOException if the specifier read is not valid
+   * @throws java.nio.BufferUnderflowException if fewer than <code>getSize()</code> bytes remain
+   */
+  public abstract int read(ByteBuffer input) throws IOException;
+
+  /**
+   * Write the specifier for a message of <code>length</code> bytes to the output buffer,
+   * advancing its position past the specifier
+   * @throws IllegalArgumentException if the length is negative or exceeds the maximum
+   * @throws java.nio.BufferOverflowException if fewer than <code>getSize()</code> bytes remain
+   */
+  public void write(final int length, final ByteBuffer output) {
+    Preconditions.checkArgument(length >= 0 && length <= maxLength,
+        "Message length (" + length + ") must be in the range 0.." + maxLength + " for " + this);
+    encode(length, output);
+  }
+
+  abstract void encode(int length, ByteBuffer output);
+
+  private static final class Binary extends LengthPrefix {
+    private Binary(final int size) {
+      super(size, size == 4 ? Integer.MAX_VALUE : (1 << (8 * size)) - 1);
+    }
+
+    @Override
+    public int read(final ByteBuffer input) throws IOException {
+      int result = 0;
+      for (int i = 0; i < getSize(); i++) {
+        result = (result << 8) | (input.get() & 0xff);
+      }
+      if (result < 0) {
+        throw new IOException("Invalid length specifier: " + (result & 0xffffffffL) + " exceeds maximum message length");
+      }
+      return result;
+    }
+
+    @Override
+    void encode(final int length, final ByteBuffer output) {
+      for (int shift = 8 * (getSize() - 1); shift >= 0; shift -= 8) {
+        output.put((byte) (length >>> shift));
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "binary(" + getSize() + ")";
+    }
+  }
+
+  private static final class Text extends LengthPrefix {
+    private final CharEncoder charset;
+    /** the byte encoding each digit, 0..9 */
+    private final byte[] digits = new byte[10];
+    /** the digit encoded by each byte value, or -1 if not a digit */
+    private final byte[] values = new byte[256];
+
+    private Text(final int size, final CharEncoder charset) {
+      super(size, (int) Math.pow(10, size) - 1);
+      this.charset = charset;
+      Arrays.fill(values, (byte) -1);
+      for (int digit = 0; digit <= 9; digit++) {
+        final byte[] encoded;
+        try {
+          encoded = charset.getBytes(Integer.toString(digit));
+        } catch (final UnsupportedEncodingException e) {
+          throw new IllegalArgumentException("charset [" + charset + "] cannot encode digits", e);
+        }
+        Preconditions.checkArgument(encoded.length == 1, "charset [" + charset + "] must encode digits as single bytes");
+        digits[digit] = encoded[0];
+        values[encoded[0] & 0xff] = (byte) digit;
+      }
+    }
+
+    @Override
+    public int read(final ByteBuffer input) throws IOException {
+      int result = 0;
+      for (int i = 0; i < getSize(); i++) {
+        final byte data = input.get();
+        final int digit = values[data & 0xff];
+        if (digit < 0) {
+          throw new IOException("Invalid length specifier: byte 0x" + Integer.toHexString(data & 0xff) + " is not a digit in " + charset);
+        }
+        result = result * 10 + digit;
+      }
+      return result;
+    }
+
+    @Override
+    void encode(final int length, final ByteBuffer output) {
+      int divisor = (getMaxLength() + 1) / 10;
+      for (int i = 0; i < getSize(); i++, divisor /= 10) {
+        output.put(digits[(length / divisor) % 10]);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "text(" + getSize() + "," + charset + ")";
+    }
+  }
+
+  private static final class PackedDecimal extends LengthPrefix {
+    private PackedDecimal(final int size) {
+      super(size, (int) Math.pow(10, 2 * size) - 1);
+    }
+
+    @Override
+    public int read(final ByteBuffer input) throws IOException {
+      int result = 0;
+      for (int i = 0; i < getSize(); i++) {
+        final int data = input.get() & 0xff;
+        final int high = data >>> 4;
+        final int low = data & 0x0f;
+        if (high > 9 || low > 9) {
+          throw new IOException("Invalid length specifier: byte 0x" + Integer.toHexString(data) + " is not packed BCD");
+        }
+        result = result * 100 + high * 10 + low;
+      }
+      return result;
+    }
+
+    @Override
+    void encode(final int length, final ByteBuffer output) {
+      int divisor = (getMaxLength() + 1) / 100;
+      for (int i = 0; i < getSize(); i++, divisor /= 100) {
+        final int pair = (length / divisor) % 100;
+        output.put((byte) (((pair / 10) << 4) | (pair % 10)));
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "bcd(" + getSize() + ")";
+    }
+  }
+
+}
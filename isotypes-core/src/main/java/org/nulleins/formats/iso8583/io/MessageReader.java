@@ -10,6 +10,11 @@ import org.nulleins.formats.iso8583.types.MTI;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Arrays;
 
 
 /**
@@ -18,7 +23,11 @@ import java.io.IOException;
  * @author phillipsr
  */
 public abstract class MessageReader {
+  private static final String HexChars = "0123456789ABCDEFabcdef";
   protected CharEncoder charCodec;
+  /** true if the hex digits of this reader's charset are those of ASCII, so that a hex bitmap
+    * can be decoded directly from the input bytes; null until first determined */
+  private Boolean asciiHex;
 
   /**
    * Read the value of the supplied field from the input stream
@@ -28,6 +37,94 @@ public abstract class MessageReader {
    */
   public abstract byte[] readField(FieldTemplate field, DataInputStream input) throws IOException;
 
+  /**
+   * Read the value of the supplied field from the input buffer, advancing its position
+   * past the field
+   * @param field template describing the next field in the input
+   * @return the value of the field, as a slice of the input buffer where the data can
+   * be handed to the field's formatter as-is, otherwise a buffer holding the converted data
+   * @throws IOException if the input buffer does not contain the whole field
+   */
+  public abstract ByteBuffer readField(FieldTemplate field, ByteBuffer input) throws IOException;
+
+  /**
+   * Determine if this reader decodes the values of the supplied numeric field itself, rather
+   * than handing their characters to the field's formatter, so that they can be read by
+   * {@link #readLong(FieldTemplate, ByteBuffer)}
+   * @param field template describing a numeric field
+   * @return true if the field's values can be read as longs by this reader
+   */
+  public boolean isLongDecoded(final FieldTemplate field) {
+    return false;
+  }
+
+  /**
+   * Read the value of the supplied numeric field from the input buffer as a long, advancing
+   * its position past the field, without converting it to characters
+   * @param field template describing the next field in the input
+   * @return the value of the field
+   * @throws IOException                   if the input buffer does not contain the whole field
+   * @throws ParseException                if the field value is not numeric, or is outside the
+   *                                       range of a long
+   * @throws UnsupportedOperationException if this reader does not decode the field's values,
+   *                                       as reported by {@link #isLongDecoded(FieldTemplate)}
+   */
+  public long readLong(final FieldTemplate field, final ByteBuffer input) throws IOException, ParseException {
+    throw new UnsupportedOperationException("Field values are not decoded by the reader: " + field);
+  }
+
+  /**
+   * Read the value of the supplied numeric field from the input buffer as a long, as
+   * {@link #readLong(FieldTemplate, ByteBuffer)}, but without throwing an exception if the
+   * field's value is not valid
+   * @param field template describing the next field in the input
+   * @return the value of the field, or <code>NumberFormatter.INVALID_LONG</code> if the field
+   * value is not numeric, or is outside the range of a long
+   * @throws IOException                   if the input buffer does not contain the whole field
+   * @throws UnsupportedOperationException if this reader does not decode the field's values,
+   *                                       as reported by {@link #isLongDecoded(FieldTemplate)}
+   */
+  public long tryReadLong(final FieldTemplate field, final ByteBuffer input) throws IOException {
+    throw new UnsupportedOperationException("Field values are not decoded by the reader: " + field);
+  }
+
+  /**
+   * Advance the position of the input buffer past the supplied field, using its
+   * dimension (and length specifier, if variable) without reading the field's value
+   * @param field template describing the next field in the input
+   * @throws IOException if the input buffer does not contain the whole field
+   */
+  public void skipField(final FieldTemplate field, final ByteBuffer input) throws IOException {
+    final int size = getFieldSize(field, input);
+    if (size < 0 || input.remaining() < size) {
+      throw new IOException("Failed to read field " + field + " from input buffer (remaining="
+          + input.remaining() + ")");
+    }
+    input.position(input.position() + size);
+  }
+
+  /**
+   * Determine the number of bytes occupied in the input by the supplied field, including its
+   * length specifier if variable, without changing the position of the input buffer
+   * @param field template describing the next field in the input
+   * @return the size of the field, or -1 if the input buffer does not hold the whole length
+   * specifier, so that the size cannot yet be determined
+   * @throws IOException if the field's length specifier is not valid
+   */
+  public abstract int getFieldSize(FieldTemplate field, ByteBuffer input) throws IOException;
+
+  /** @return the number of bytes occupied in the input by the Message Type Indicator */
+  public abstract int getMTISize();
+
+  /**
+   * Read past the supplied field in the input stream, discarding its value
+   * @param field template describing the next field in the input
+   * @throws IOException if the required amount of data cannot be read
+   */
+  public void skipField(final FieldTemplate field, final DataInputStream input) throws IOException {
+    readField(field, input);
+  }
+
   /**
    * Read the Message Type Indicator from the input stream
    * @return an MTI object representing the message type being read
@@ -35,6 +132,13 @@ public abstract class MessageReader {
    */
   public abstract MTI readMTI(DataInputStream input) throws IOException;
 
+  /**
+   * Read the Message Type Indicator from the input buffer
+   * @return an MTI object representing the message type being read
+   * @throws IOException if the input buffer does not contain the whole MTI
+   */
+  public abstract MTI readMTI(ByteBuffer input) throws IOException;
+
   /**
    * Read an ISO8583 bitmap from the input stream
    * @param bitmapType specifies if the bitmap is binary or hex (character data)
@@ -49,6 +153,58 @@ public abstract class MessageReader {
     return readHexBitmap(input);
   }
 
+  /**
+   * Read an ISO8583 bitmap from the input buffer
+   * @param bitmapType specifies if the bitmap is binary or hex (character data)
+   * @return a Bitmap object initialized from the input data
+   * @throws IOException if the input buffer does not contain the whole bitmap
+   */
+  public Bitmap readBitmap(final BitmapType bitmapType, final ByteBuffer input)
+      throws IOException {
+    if (bitmapType == BitmapType.BINARY) {
+      return readBinaryBitmap(input);
+    }
+    return readHexBitmap(input);
+  }
+
+  /**
+   * Determine the number of bytes occupied in the input by the bitmap, being 1, 2 or 3 times the
+   * size of the primary bitmap, without changing the position of the input buffer
+   * @param bitmapType specifies if the bitmap is binary or hex (character data)
+   * @return the size of the bitmap, or -1 if the input buffer does not hold enough of the bitmap
+   * to determine if secondary or tertiary bitmaps are present
+   */
+  public int getBitmapSize(final BitmapType bitmapType, final ByteBuffer input) {
+    final int unit = bitmapType == BitmapType.BINARY ? 8 : 16;
+    int result = unit;
+    // the first bit of the primary and secondary bitmaps flags the presence of the next:
+    for (int map = 0; map < 2; map++) {
+      final int index = result - unit;
+      if (input.remaining() <= index) {
+        return -1;
+      }
+      if (!isNextBitmapPresent(bitmapType, input, input.position() + index)) {
+        break;
+      }
+      result += unit;
+    }
+    return result;
+  }
+
+  /** @return true if the first bit of the bitmap at <code>index</code> in the input is set */
+  private boolean isNextBitmapPresent(final BitmapType bitmapType, final ByteBuffer input, final int index) {
+    if (bitmapType == BitmapType.BINARY) {
+      return (input.get(index) & (byte) 0x80) != 0;
+    }
+    if (isAsciiHex()) {
+      return Character.digit((char) (input.get(index) & 0xff), 16) >= 8;
+    }
+    final ByteBuffer digit = input.duplicate();
+    digit.position(index);
+    digit.limit(index + 1);
+    return Character.digit(charCodec.getString(digit).charAt(0), 16) >= 8;
+  }
+
   /**
    * Read a binary bitmap from the input stream
    * @return a Bitmap object initialized from the input data
@@ -71,6 +227,24 @@ public abstract class MessageReader {
     return new Bitmap(bitmap1);
   }
 
+  /**
+   * Read a binary bitmap from the input buffer
+   * @return a Bitmap object initialized from the input data
+   * @throws IOException if the input buffer does not contain the whole bitmap
+   */
+  private Bitmap readBinaryBitmap(final ByteBuffer input)
+      throws IOException {
+    // the first bit of the primary and secondary bitmaps flags the presence of the next:
+    int length = 8;
+    if (input.remaining() >= length && (input.get(input.position()) & (byte) 0x80) != 0) {
+      length += 8;
+      if (input.remaining() >= length && (input.get(input.position() + 8) & (byte) 0x80) != 0) {
+        length += 8;
+      }
+    }
+    return Bitmap.readBinary(readSlice(length, input));
+  }
+
   /**
    * Read a hex string bitmap from the input stream
    * @return a Bitmap object initialized from the input data
@@ -96,6 +270,53 @@ public abstract class MessageReader {
     return result;
   }
 
+  /**
+   * Read a hex string bitmap from the input buffer
+   * @return a Bitmap object initialized from the input data
+   * @throws IOException if the input buffer does not contain the whole bitmap
+   */
+  private Bitmap readHexBitmap(final ByteBuffer input)
+      throws IOException {
+    if (isAsciiHex()) {
+      final int length = getBitmapSize(BitmapType.HEX, input);
+      if (length < 0) {
+        throw new IOException("Input buffer does not contain the whole bitmap (remaining="
+            + input.remaining() + ")");
+      }
+      return Bitmap.readHex(readSlice(length, input));
+    }
+    // read the first bitmap
+    final String bitmap1 = charCodec.getString(readSlice(16, input));
+
+    Bitmap result = Bitmap.parse(bitmap1);
+
+    // read secondary bitmap (if present):
+    if (result.isBitmapPresent(Bitmap.Id.SECONDARY)) {
+      final String bitmap2 = charCodec.getString(readSlice(16, input));
+      result = Bitmap.parse(bitmap1 + bitmap2);
+      // read tertiary bitmap (if present):
+      if (result.isBitmapPresent(Bitmap.Id.TERTIARY)) {
+        final String bitmap3 = charCodec.getString(readSlice(16, input));
+        result = Bitmap.parse(bitmap1 + bitmap2 + bitmap3);
+      }
+    }
+    return result;
+  }
+
+  /** @return true if this reader's charset encodes the hex digits as ASCII does */
+  protected boolean isAsciiHex() {
+    Boolean result = asciiHex;
+    if (result == null) {
+      try {
+        result = Arrays.equals(charCodec.getBytes(HexChars), HexChars.getBytes(StandardCharsets.US_ASCII));
+      } catch (final UnsupportedEncodingException e) {
+        result = false;
+      }
+      asciiHex = result;
+    }
+    return result;
+  }
+
   /**
    * Read the header field from the input stream
    * @param size of the header to be read
@@ -109,6 +330,17 @@ public abstract class MessageReader {
     return charCodec.getString(data);
   }
 
+  /**
+   * Read the header field from the input buffer
+   * @param size of the header to be read
+   * @return the header as a string
+   * @throws IOException if the input buffer does not contain the whole header
+   */
+  public String readHeader(final int size, final ByteBuffer input)
+      throws IOException {
+    return charCodec.getString(readSlice(size, input));
+  }
+
   /**
    * Helper method to read fully a f of bytes
    * @param size f of bytes to be read
@@ -126,4 +358,24 @@ public abstract class MessageReader {
     }
   }
 
+  /**
+   * Helper method to take <code>size</code> bytes from the input buffer, without copying them
+   * @param size number of bytes to be read
+   * @return a buffer sharing the content of <code>input</code>, from its current position
+   * and limited to <code>size</code> bytes; the position of <code>input</code> is advanced
+   * past the bytes taken
+   * @throws IOException if fewer than <code>size</code> bytes remain in the input buffer
+   */
+  protected ByteBuffer readSlice(final int size, final ByteBuffer input)
+      throws IOException {
+    if (size < 0 || input.remaining() < size) {
+      throw new IOException("Failed to read fully " + size + " bytes from input buffer (remaining="
+          + input.remaining() + ")");
+    }
+    final ByteBuffer result = input.slice();
+    result.limit(size);
+    input.position(input.position() + size);
+    return result;
+  }
+
 }
@@ -8,7 +8,7 @@ import org.nulleins.formats.iso8583.types.MTI;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -19,19 +19,21 @@ import java.io.UnsupportedEncodingException;
 public abstract class MessageWriter {
   /** specifies the character encoding for text data (ASCII, EBCDIC) */
   protected CharEncoder charCodec;
+  /** hex digits in the character encoding, for bitmaps; encoded on first use */
+  private byte[] hexDigits;
 
   protected void write(final String data, final DataOutputStream output)
-      throws UnsupportedEncodingException, IOException {
+      throws IOException {
     write(charCodec.getBytes(data), output);
   }
 
   protected void write(final byte[] data, final DataOutputStream output)
-      throws UnsupportedEncodingException, IOException {
+      throws IOException {
     output.write(data);
   }
 
   protected void write(final byte data, final DataOutputStream output)
-      throws UnsupportedEncodingException, IOException {
+      throws IOException {
     output.write(data);
   }
 
@@ -46,6 +48,24 @@ public abstract class MessageWriter {
     output.write(charCodec.getBytes(header));
   }
 
+  /**
+   * Write the supplied header string to the output buffer
+   * @param header
+   * @param output buffer to append data to
+   * @throws IOException if the header cannot be encoded
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public void appendHeader(final String header, final ByteBuffer output)
+      throws IOException {
+    charCodec.encode(header, output);
+  }
+
+  /** @return the number of bytes occupied in the output by the supplied header
+   * @throws IOException if the header cannot be encoded */
+  public int getHeaderSize(final String header) throws IOException {
+    return charCodec.getBytes(header).length;
+  }
+
   /**
    * Write the Message Type Indicator to the output stream
    * @param type   of message (MTI)
@@ -54,6 +74,18 @@ public abstract class MessageWriter {
    */
   public abstract void appendMTI(MTI type, DataOutputStream output) throws IOException;
 
+  /**
+   * Write the Message Type Indicator to the output buffer
+   * @param type   of message (MTI)
+   * @param output buffer to append data to
+   * @throws IOException if the MTI cannot be encoded
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public abstract void appendMTI(MTI type, ByteBuffer output) throws IOException;
+
+  /** @return the number of bytes occupied in the output by the Message Type Indicator */
+  public abstract int getMTISize();
+
   /**
    * Write the supplied field to the output stream
    * @param field  template describing field to be written
@@ -63,6 +95,27 @@ public abstract class MessageWriter {
    */
   public abstract void appendField(FieldTemplate field, Object data, DataOutputStream output) throws IOException;
 
+  /**
+   * Write the supplied field to the output buffer
+   * @param field  template describing field to be written
+   * @param data   value of the field to output
+   * @param output buffer to append data to
+   * @throws IOException if the field value cannot be encoded
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public abstract void appendField(FieldTemplate field, Object data, ByteBuffer output) throws IOException;
+
+  /**
+   * Determine the number of bytes the supplied field will occupy in the output, including its
+   * length specifier if variable: for fixed fields, this is derived from the dimension, otherwise
+   * the value is formatted to find its length
+   * @param field template describing field to be written
+   * @param data  value of the field
+   * @return the size of the field, as written by <code>appendField</code>
+   * @throws IOException if the field value cannot be encoded
+   */
+  public abstract int getFieldSize(FieldTemplate field, Object data) throws IOException;
+
   /**
    * Write the supplied bitmap to the output stream
    * @param bitmap to be written to message stream
@@ -79,6 +132,71 @@ public abstract class MessageWriter {
     appendHexBitmap(bitmap, output);
   }
 
+  /**
+   * Write the bitmap of the fields present in a message to the output stream
+   * @param bitmap three words, bit <code>(n-1)</code> being set if field <code>n</code> is present,
+   *               the bits of fields 1 and 65 indicating the presence of the next bitmap
+   * @param type   of bitmap, hex or binary
+   * @param output stream to append data to
+   * @throws IOException if the data could not be written to the output stream
+   */
+  public void appendBitmap(final long[] bitmap, final BitmapType type, final DataOutputStream output)
+      throws IOException {
+    final byte[] data = new byte[getBitmapSize(bitmap, type)];
+    appendBitmap(bitmap, type, ByteBuffer.wrap(data));
+    output.write(data);
+  }
+
+  /**
+   * Write the bitmap of the fields present in a message to the output buffer
+   * @param bitmap three words, bit <code>(n-1)</code> being set if field <code>n</code> is present,
+   *               the bits of fields 1 and 65 indicating the presence of the next bitmap
+   * @param type   of bitmap, hex or binary
+   * @param output buffer to append data to
+   * @throws IOException if the hex digits cannot be encoded
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public void appendBitmap(final long[] bitmap, final BitmapType type, final ByteBuffer output)
+      throws IOException {
+    final int count = getBitmapCount(bitmap);
+    for (int index = 0; index < count; index++) {
+      // ISO8583 bitmaps are big-endian: field 1 is the most significant bit
+      final long word = Long.reverse(bitmap[index]);
+      if (type == BitmapType.BINARY) {
+        output.putLong(word);
+        continue;
+      }
+      final byte[] digits = getHexDigits();
+      for (int shift = 60; shift >= 0; shift -= 4) {
+        output.put(digits[(int) (word >>> shift) & 0x0f]);
+      }
+    }
+  }
+
+  /** @return the number of bytes occupied in the output by the supplied bitmap,
+   * being 1, 2 or 3 times the size of the primary bitmap */
+  public int getBitmapSize(final long[] bitmap, final BitmapType type) {
+    return getBitmapCount(bitmap) * (type == BitmapType.BINARY ? 8 : 16);
+  }
+
+  /** @return the number of bitmaps present (primary, secondary, tertiary) */
+  private static int getBitmapCount(final long[] bitmap) {
+    if ((bitmap[0] & 1L) == 0) {
+      return 1;
+    }
+    return (bitmap[1] & 1L) == 0 ? 2 : 3;
+  }
+
+  /** @return the hex digits 0-9, A-F in this writer's character encoding */
+  private byte[] getHexDigits() throws IOException {
+    byte[] result = hexDigits;
+    if (result == null) {
+      result = charCodec.getBytes("0123456789ABCDEF");
+      hexDigits = result;
+    }
+    return result;
+  }
+
   /**
    * Append a binary bitmap to the output stream
    * @param bitmap to be appended
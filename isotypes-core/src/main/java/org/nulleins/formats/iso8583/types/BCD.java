@@ -1,23 +1,50 @@
 package org.nulleins.formats.iso8583.types;
 
-import org.apache.commons.lang3.ArrayUtils;
-
 import java.math.BigInteger;
-import java.util.regex.Pattern;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Utilities to manipulate (Packed) Binary Coded Decimal values, as no standard
  * third-party library found (mail me if you know of one...)
+ * <p/>
+ * Digits are packed two to a byte, most significant first, so that <i>n</i> digits always
+ * occupy <code>(n + 1) / 2</code> bytes; a value with an odd number of digits is padded with
+ * a pad nibble, by default a zero nibble before the first digit (right-justified).  Values are
+ * packed and unpacked directly between byte arrays or buffers and longs or character
+ * sequences, using a table of digit pairs
  * @author Converted from an old C library (author unknown)
  */
 public class BCD {
-  /** regex to validate values passed in as strings */
-  private static final Pattern NumberMatcher = Pattern.compile("[0-9]*");
+  /** Position of the digits of an odd-length value relative to its pad nibble */
+  public enum Justify {
+    /** the digits are followed by the pad nibble, in the low nibble of the last byte */
+    LEFT,
+    /** the digits are preceded by the pad nibble, in the high nibble of the first byte */
+    RIGHT
+  }
+
+  /** the two ASCII digits of each packed byte, indexed by <code>byte * 2</code>; nibbles above
+    * 9 are not digits, and are rejected when unpacking */
+  private static final byte[] DigitPairs = new byte[512];
+
+  static {
+    for (int value = 0; value < 256; value++) {
+      DigitPairs[value * 2] = (byte) ('0' + (value >> 4));
+      DigitPairs[value * 2 + 1] = (byte) ('0' + (value & 0x0f));
+    }
+  }
+
+  /** @return the number of bytes occupied by <code>digits</code> packed digits */
+  public static int getSize(final int digits) {
+    return (digits + 1) / 2;
+  }
 
   /**
    * Answer with a byte array being the BCD representation of the numberic string supplied
-   * @param value string representation of the f to convert
-   * @return BCD byte array
+   * @param value string of digits to convert
+   * @return BCD byte array, of half the length of the (trimmed) value, rounded up
    * @throws IllegalArgumentException if the supplied value is not a valid numeric string
    */
   public static byte[] valueOf(final String value) {
@@ -25,77 +52,280 @@ public class BCD {
       throw new IllegalArgumentException("Cannot convert <null> to BCD");
     }
     final String candidate = value.trim();
-    if (!NumberMatcher.matcher(candidate).matches()) {
-      throw new IllegalArgumentException("Can only convert strings of digits to BCD");
-    }
-    byte[] result = valueOf(new BigInteger(candidate));
-    final int vlength = candidate.length() / 2;
-    while (result.length < vlength) {
-      result = ArrayUtils.add(result, 0, (byte) 0);
-    }
+    final byte[] result = new byte[getSize(candidate.length())];
+    pack(candidate, ByteBuffer.wrap(result));
     return result;
   }
 
   /**
    * Answer with a byte array being the BCD representation of the long supplied
-   * @param value
-   * @return
+   * @param value to be converted, not negative
+   * @return BCD byte array, large enough to hold the digits of the value
+   * @throws IllegalArgumentException if the value is negative
    */
   public static byte[] valueOf(final long value) {
-    final int nbDigits = (int) (Math.log10(value) + 1);
-    final int bytes = nbDigits % 2 == 0 ? nbDigits / 2 : (nbDigits + 1) / 2;
-    final byte[] result = new byte[bytes];
-    long candidate = value;
-    for (int i = 0; i < nbDigits; i++) {
-      byte register = (byte) (candidate % 10);
-      candidate /= 10;
-      if ((i % 2 == 0) || (i == nbDigits - 1 && (nbDigits % 2 != 0))) {
-        result[i / 2] = register;
-        continue;
-      }
-      register = (byte) (register << 4);
-      result[i / 2] |= register;
-    }
-
-    swapOrder(bytes, result);
+    final byte[] result = new byte[getSize(getDigitCount(value))];
+    pack(value, result.length * 2, ByteBuffer.wrap(result));
     return result;
   }
 
   /**
    * Answer with a byte array being the BCD representation of the BigInteger supplied
    * @param value
-   * @return
-   * @throws IllegalArgumentException if the value is null
+   * @return BCD byte array, large enough to hold the digits of the value
+   * @throws IllegalArgumentException if the value is null or negative
    */
   public static byte[] valueOf(final BigInteger value) {
     if (value == null) {
       throw new IllegalArgumentException("Cannot convert <null> to BCD");
     }
-    BigInteger candidate = value;
-    final int nbDigits = (int) (Math.log10(candidate.doubleValue()) + 1);
-    final int bytes = nbDigits % 2 == 0 ? nbDigits / 2 : (nbDigits + 1) / 2;
-    final byte[] result = new byte[bytes];
-
-    for (int i = 0; i < nbDigits; i++) {
-      byte register = candidate.mod(BigInteger.TEN).byteValue();
-      candidate = candidate.divide(BigInteger.TEN);
-      if ((i % 2 == 0) || (i == nbDigits - 1 && (nbDigits % 2 != 0))) {
-        result[i / 2] = register;
-        continue;
-      }
-      register = (byte) (register << 4);
-      result[i / 2] |= register;
+    if (value.bitLength() < 64) {
+      return valueOf(value.longValue());
     }
+    return valueOf(value.toString());
+  }
 
-    swapOrder(bytes, result);
+  /**
+   * Pack the digits supplied into the output buffer, left-padding an odd number of digits
+   * with a zero nibble
+   * @param digits characters '0' to '9'
+   * @param output buffer to which <code>getSize(digits.length())</code> bytes are written
+   * @throws IllegalArgumentException         if the value contains characters other than digits
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public static void pack(final CharSequence digits, final ByteBuffer output) {
+    pack(digits, Justify.RIGHT, 0, output);
+  }
+
+  /**
+   * Pack the digits supplied into the output buffer, padding an odd number of digits with
+   * the <code>pad</code> nibble, before or after the digits as specified by <code>justify</code>
+   * @param digits  characters '0' to '9'
+   * @param justify position of the digits relative to the pad nibble
+   * @param pad     value of the pad nibble, typically 0 or 0xF
+   * @param output  buffer to which <code>getSize(digits.length())</code> bytes are written
+   * @throws IllegalArgumentException         if the value contains characters other than digits,
+   *                                          or the pad is not a nibble
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public static void pack(final CharSequence digits, final Justify justify, final int pad, final ByteBuffer output) {
+    checkPad(pad);
+    final int length = digits.length();
+    final boolean odd = length % 2 != 0;
+    int index = 0;
+    if (odd && justify == Justify.RIGHT) {
+      output.put((byte) ((pad << 4) | digitValue(digits, index++)));
+    }
+    for (; index < length - 1; index += 2) {
+      output.put((byte) ((digitValue(digits, index) << 4) | digitValue(digits, index + 1)));
+    }
+    if (odd && justify == Justify.LEFT) {
+      output.put((byte) ((digitValue(digits, index) << 4) | pad));
+    }
+  }
+
+  /**
+   * Pack the value supplied into the output buffer, as <code>digits</code> digits, left-padded
+   * with zeros
+   * @param value  to be packed, not negative
+   * @param digits number of digits to be written, occupying <code>getSize(digits)</code> bytes
+   * @param output buffer to which the packed value is written
+   * @throws IllegalArgumentException         if the value is negative, or has more digits than
+   *                                          specified
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public static void pack(final long value, final int digits, final ByteBuffer output) {
+    pack(value, digits, Justify.RIGHT, 0, output);
+  }
+
+  /**
+   * Pack the value supplied into the output buffer, as <code>digits</code> digits, left-padded
+   * with zeros; if the number of digits is odd, they are padded with the <code>pad</code>
+   * nibble, before or after the digits as specified by <code>justify</code>
+   * @param value   to be packed, not negative
+   * @param digits  number of digits to be written, occupying <code>getSize(digits)</code> bytes
+   * @param justify position of the digits relative to the pad nibble
+   * @param pad     value of the pad nibble, typically 0 or 0xF
+   * @param output  buffer to which the packed value is written
+   * @throws IllegalArgumentException         if the value is negative, or has more digits than
+   *                                          specified, or the pad is not a nibble
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public static void pack(final long value, final int digits, final Justify justify, final int pad,
+                          final ByteBuffer output) {
+    checkPad(pad);
+    if (value < 0) {
+      throw new IllegalArgumentException("Cannot convert negative value to BCD: " + value);
+    }
+    final int size = getSize(digits);
+    if (getDigitCount(value) > digits) {
+      throw new IllegalArgumentException("Value " + value + " has more than " + digits + " digits");
+    }
+    final int start = output.position();
+    if (output.remaining() < size) {
+      throw new BufferOverflowException();
+    }
+    final boolean odd = digits % 2 != 0;
+    long remaining = value;
+    int index = size - 1;
+    if (odd && justify == Justify.LEFT) {
+      output.put(start + index--, (byte) (((int) (remaining % 10) << 4) | pad));
+      remaining /= 10;
+    }
+    for (; index >= 0; index--) {
+      final int pair = (int) (remaining % 100);
+      remaining /= 100;
+      output.put(start + index, (byte) (((pair / 10) << 4) | (pair % 10)));
+    }
+    if (odd && justify == Justify.RIGHT) {
+      // the value has no more than the digits specified, so the high nibble is zero:
+      output.put(start, (byte) ((pad << 4) | output.get(start)));
+    }
+    output.position(start + size);
+  }
+
+  /**
+   * Unpack <code>digits</code> right-justified digits from the input buffer as a long,
+   * ignoring the pad nibble of an odd number of digits
+   * @param input  buffer from which <code>getSize(digits)</code> bytes are read
+   * @param digits number of digits to be read, up to 18
+   * @return the value read
+   * @throws IllegalArgumentException          if the input holds nibbles other than digits
+   * @throws java.nio.BufferUnderflowException if the input buffer does not hold the whole value
+   */
+  public static long unpackLong(final ByteBuffer input, final int digits) {
+    return unpackLong(input, digits, Justify.RIGHT);
+  }
+
+  /**
+   * Unpack <code>digits</code> digits from the input buffer as a long, ignoring the pad nibble
+   * of an odd number of digits, whatever its value
+   * @param input   buffer from which <code>getSize(digits)</code> bytes are read
+   * @param digits  number of digits to be read, up to 18
+   * @param justify position of the digits relative to the pad nibble
+   * @return the value read
+   * @throws IllegalArgumentException          if the input holds nibbles other than digits
+   * @throws java.nio.BufferUnderflowException if the input buffer does not hold the whole value
+   */
+  public static long unpackLong(final ByteBuffer input, final int digits, final Justify justify) {
+    final boolean odd = digits % 2 != 0;
+    long result = 0;
+    if (odd && justify == Justify.RIGHT) {
+      result = lowDigit(input.get() & 0xff);
+    }
+    for (int index = digits / 2; index > 0; index--) {
+      final int packed = checkDigits(input.get() & 0xff);
+      result = result * 100 + (packed >> 4) * 10 + (packed & 0x0f);
+    }
+    if (odd && justify == Justify.LEFT) {
+      result = result * 10 + highDigit(input.get() & 0xff);
+    }
     return result;
   }
 
-  private static void swapOrder(final int bytes, final byte[] result) {
-    for (int i = 0; i < bytes / 2; i++) {
-      final byte register = result[i];
-      result[i] = result[bytes - i - 1];
-      result[bytes - i - 1] = register;
+  /**
+   * Unpack <code>digits</code> right-justified digits from the input buffer as ASCII
+   * characters, ignoring the pad nibble of an odd number of digits
+   * @param input  buffer from which <code>getSize(digits)</code> bytes are read
+   * @param digits number of digits to be read
+   * @param output array to receive the characters
+   * @param offset in the output array of the first character
+   * @throws IllegalArgumentException          if the input holds nibbles other than digits
+   * @throws java.nio.BufferUnderflowException if the input buffer does not hold the whole value
+   */
+  public static void unpack(final ByteBuffer input, final int digits, final byte[] output, final int offset) {
+    unpack(input, digits, Justify.RIGHT, output, offset);
+  }
+
+  /**
+   * Unpack <code>digits</code> digits from the input buffer as ASCII characters, ignoring the
+   * pad nibble of an odd number of digits, whatever its value
+   * @param input   buffer from which <code>getSize(digits)</code> bytes are read
+   * @param digits  number of digits to be read
+   * @param justify position of the digits relative to the pad nibble
+   * @param output  array to receive the characters
+   * @param offset  in the output array of the first character
+   * @throws IllegalArgumentException          if the input holds nibbles other than digits
+   * @throws java.nio.BufferUnderflowException if the input buffer does not hold the whole value
+   */
+  public static void unpack(final ByteBuffer input, final int digits, final Justify justify,
+                            final byte[] output, final int offset) {
+    final boolean odd = digits % 2 != 0;
+    int pos = offset;
+    if (odd && justify == Justify.RIGHT) {
+      output[pos++] = (byte) ('0' + lowDigit(input.get() & 0xff));
+    }
+    for (int index = digits / 2; index > 0; index--) {
+      final int pair = checkDigits(input.get() & 0xff) * 2;
+      output[pos++] = DigitPairs[pair];
+      output[pos++] = DigitPairs[pair + 1];
+    }
+    if (odd && justify == Justify.LEFT) {
+      output[pos] = (byte) ('0' + highDigit(input.get() & 0xff));
+    }
+  }
+
+  /**
+   * Determine if the <code>digits</code> digits held by the input buffer from its position are
+   * all valid, ignoring the pad nibble of an odd number of digits, without changing its position
+   * @param input   buffer holding at least <code>getSize(digits)</code> bytes
+   * @param digits  number of digits to be checked
+   * @param justify position of the digits relative to the pad nibble
+   * @return true if every nibble, other than the pad nibble, is a digit
+   * @throws java.nio.BufferUnderflowException if the input buffer does not hold the whole value
+   */
+  public static boolean isValid(final ByteBuffer input, final int digits, final Justify justify) {
+    final int size = getSize(digits);
+    if (input.remaining() < size) {
+      throw new BufferUnderflowException();
+    }
+    final boolean odd = digits % 2 != 0;
+    for (int index = 0; index < size; index++) {
+      final int packed = input.get(input.position() + index) & 0xff;
+      final boolean high = packed >> 4 <= 9 || (odd && justify == Justify.RIGHT && index == 0);
+      final boolean low = (packed & 0x0f) <= 9 || (odd && justify == Justify.LEFT && index == size - 1);
+      if (!high || !low) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return the <code>packed</code> byte, if both its nibbles are digits
+    * @throws IllegalArgumentException if either nibble is not a digit */
+  private static int checkDigits(final int packed) {
+    if (packed >> 4 > 9 || (packed & 0x0f) > 9) {
+      throw invalidDigits(packed);
+    }
+    return packed;
+  }
+
+  /** @return the digit in the high nibble of the <code>packed</code> byte, whose low nibble is padding
+    * @throws IllegalArgumentException if the nibble is not a digit */
+  private static int highDigit(final int packed) {
+    if (packed >> 4 > 9) {
+      throw invalidDigits(packed);
+    }
+    return packed >> 4;
+  }
+
+  /** @return the digit in the low nibble of the <code>packed</code> byte, whose high nibble is padding
+    * @throws IllegalArgumentException if the nibble is not a digit */
+  private static int lowDigit(final int packed) {
+    if ((packed & 0x0f) > 9) {
+      throw invalidDigits(packed);
+    }
+    return packed & 0x0f;
+  }
+
+  private static IllegalArgumentException invalidDigits(final int packed) {
+    return new IllegalArgumentException("Invalid BCD digits: " + Integer.toHexString(packed));
+  }
+
+  /** @throws IllegalArgumentException if the <code>pad</code> is not a nibble value */
+  private static void checkPad(final int pad) {
+    if (pad < 0 || pad > 0x0f) {
+      throw new IllegalArgumentException("BCD pad must be a nibble value (got: " + pad + ")");
     }
   }
 
@@ -106,21 +336,52 @@ public class BCD {
    * @return
    */
   public static String toString(final byte value) {
-    final byte[] nibbles = new byte[2];
-    nibbles[1] = (byte) ((value & 0x0f));
-    byte b = (byte) (value & 0xf0);
-    b >>>= 4;
-    nibbles[0] = (byte) ((b & 0x0f));
-    return "" + nibbles[0] + nibbles[1];
+    return toString(new byte[]{value});
   }
 
   public static String toString(final byte[] bcd) {
+    final char[] result = new char[bcd.length * 2];
+    for (int index = 0; index < bcd.length; index++) {
+      final int packed = bcd[index] & 0xff;
+      if (packed >> 4 > 9 || (packed & 0x0f) > 9) {
+        return toStringNonDigits(bcd);
+      }
+      result[index * 2] = (char) DigitPairs[packed * 2];
+      result[index * 2 + 1] = (char) DigitPairs[packed * 2 + 1];
+    }
+    return new String(result);
+  }
+
+  /** @return the string representation of BCD data holding nibbles that are not digits,
+    * each nibble being represented by its decimal value */
+  private static String toStringNonDigits(final byte[] bcd) {
     final StringBuilder result = new StringBuilder();
     for (final byte b : bcd) {
-      result.append(toString(b));
+      result.append((b & 0xf0) >> 4).append(b & 0x0f);
     }
-
     return result.toString();
   }
 
-}
\ No newline at end of file
+  /** @return the number of decimal digits in the value (at least one) */
+  private static int getDigitCount(final long value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Cannot convert negative value to BCD: " + value);
+    }
+    int result = 1;
+    for (long bound = 10; result < 19 && value >= bound; bound *= 10) {
+      result++;
+    }
+    return result;
+  }
+
+  /** @return the value of the digit at <code>index</code>
+    * @throws IllegalArgumentException if the character is not a digit */
+  private static int digitValue(final CharSequence digits, final int index) {
+    final int result = digits.charAt(index) - '0';
+    if (result < 0 || result > 9) {
+      throw new IllegalArgumentException("Can only convert strings of digits to BCD");
+    }
+    return result;
+  }
+
+}
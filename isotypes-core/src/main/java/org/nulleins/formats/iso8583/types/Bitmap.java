@@ -1,17 +1,27 @@
 package org.nulleins.formats.iso8583.types;
 
-import java.util.Arrays;
-import java.util.BitSet;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
 
 
 /**
  * Implementation of the ISO8583 bitmap type, with facilities to create, parse and format a
- * message's bitmap in a f of formats
+ * message's bitmap in a number of formats
+ * <p/>
+ * The three bitmaps are held as three words, bit <code>(n-1)</code> being set if field
+ * <code>n</code> is present; hex and binary forms are encoded and decoded a word at a time,
+ * using lookup tables
  * @author phillipsr
  */
 public class Bitmap {
-  private static final Pattern HexMatcher = Pattern.compile("[0-9A-Fa-f]+");
+  private static final char[] HexDigits = "0123456789ABCDEF".toCharArray();
+  /** value of each (ASCII) hexadecimal digit, indexed by character, or -1 if not a digit */
+  private static final byte[] HexValues = new byte[128];
+
+  static {
+    for (int index = 0; index < HexValues.length; index++) {
+      HexValues[index] = (byte) Character.digit((char) index, 16);
+    }
+  }
 
   public enum Id {
     PRIMARY(0), SECONDARY(1), TERTIARY(2);
@@ -23,10 +33,10 @@ public class Bitmap {
   }
 
   /**
-   * bitsets hold the three bitmaps available to a message, and
+   * words hold the three bitmaps available to a message, and
    * are indexed by the <code>Id.index</code> from the enum above
    */
-  private final BitSet[] bitmaps = new BitSet[]{new BitSet(), new BitSet(), new BitSet()};
+  private final long[] words = new long[3];
 
   public Bitmap() {
   }
@@ -49,16 +59,13 @@ public class Bitmap {
       throw new IllegalArgumentException(
           "Hex bitmap must be 16, 32 or 48 characters in size (got: " + hexlength + " chars)");
     }
-    if (!HexMatcher.matcher(hexBitmap).matches()) {
-      throw new IllegalArgumentException("Hex bitmap must contain only hexadecimal digits (0-9A-F)");
-    }
     final Bitmap result = new Bitmap();
-    result.bitmaps[Id.PRIMARY.index] = BitsetUtil.hex2Bitset(hexBitmap.substring(0, 16));
-    if (hexlength > 16) {
-      result.bitmaps[Id.SECONDARY.index] = BitsetUtil.hex2Bitset(hexBitmap.substring(16, 32));
-    }
-    if (hexlength > 32) {
-      result.bitmaps[Id.TERTIARY.index] = BitsetUtil.hex2Bitset(hexBitmap.substring(32));
+    for (int map = 0; map < hexlength / 16; map++) {
+      long word = 0;
+      for (int index = map * 16; index < (map + 1) * 16; index++) {
+        word = (word << 4) | hexValue(hexBitmap.charAt(index));
+      }
+      result.words[map] = Long.reverse(word);
     }
     return result;
   }
@@ -70,28 +77,113 @@ public class Bitmap {
     if (binBitmap == null || binBitmap.length < 8) {
       throw new IllegalArgumentException("Bin bitmap must be >= 8 bytes in size");
     }
-    final int length = binBitmap.length;
-    if (length > 16) {
-      bitmaps[Id.TERTIARY.index] = BitsetUtil.bin2Bitset(Arrays.copyOfRange(binBitmap, 16, 24));
+    for (int index = 0; index < binBitmap.length && index < 24; index++) {
+      words[index >> 3] |= (Integer.reverse(binBitmap[index] & 0xff) >>> 24 & 0xffL) << ((index & 7) * 8);
+    }
+  }
+
+  /**
+   * Read a binary bitmap from the input buffer: the primary bitmap, and the secondary and
+   * tertiary bitmaps, if flagged as present by the first bit of the preceding bitmap
+   * @param input buffer holding the bitmap from its current position, which is advanced
+   *              past the bitmap; the bitmap is read a byte at a time, whatever the buffer's
+   *              byte order
+   * @return a bitmap initialized from the input data
+   * @throws java.nio.BufferUnderflowException if the buffer does not hold the whole bitmap
+   */
+  public static Bitmap readBinary(final ByteBuffer input) {
+    final Bitmap result = new Bitmap();
+    for (int map = 0; map < 3; map++) {
+      long word = 0;
+      for (int index = 0; index < 8; index++) {
+        word = (word << 8) | (input.get() & 0xffL);
+      }
+      result.words[map] = Long.reverse(word);
+      if ((result.words[map] & 1L) == 0) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Read a hex bitmap from the input buffer, encoded as ASCII characters: the primary bitmap,
+   * and the secondary and tertiary bitmaps, if flagged as present by the first bit of the
+   * preceding bitmap
+   * @param input buffer holding the bitmap from its current position, which is advanced
+   *              past the bitmap
+   * @return a bitmap initialized from the input data
+   * @throws IllegalArgumentException          if the bitmap contains non-hexadecimal characters
+   * @throws java.nio.BufferUnderflowException if the buffer does not hold the whole bitmap
+   */
+  public static Bitmap readHex(final ByteBuffer input) {
+    final Bitmap result = new Bitmap();
+    for (int map = 0; map < 3; map++) {
+      long word = 0;
+      for (int index = 0; index < 16; index++) {
+        word = (word << 4) | hexValue((char) (input.get() & 0xff));
+      }
+      result.words[map] = Long.reverse(word);
+      if ((result.words[map] & 1L) == 0) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Write this bitmap to the output buffer in binary: the primary bitmap, and the secondary
+   * and tertiary bitmaps, if present
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public void writeBinary(final ByteBuffer output) {
+    for (int map = 0; map < getCount(); map++) {
+      output.putLong(Long.reverse(words[map]));
     }
-    if (length > 8) {
-      bitmaps[Id.SECONDARY.index] = BitsetUtil.bin2Bitset(Arrays.copyOfRange(binBitmap, 8, 16));
+  }
+
+  /**
+   * Write this bitmap to the output buffer in hex, encoded as ASCII characters: the primary
+   * bitmap, and the secondary and tertiary bitmaps, if present
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public void writeHex(final ByteBuffer output) {
+    for (int map = 0; map < getCount(); map++) {
+      final long word = Long.reverse(words[map]);
+      for (int shift = 60; shift >= 0; shift -= 4) {
+        output.put((byte) HexDigits[(int) (word >>> shift) & 0x0f]);
+      }
     }
-    bitmaps[Id.PRIMARY.index] = BitsetUtil.bin2Bitset(Arrays.copyOfRange(binBitmap, 0, 9));
+  }
+
+  /** @return the number of bytes this bitmap occupies when written in the format specified,
+   * being 1, 2 or 3 times the size of the primary bitmap */
+  public int getSize(final BitmapType type) {
+    return getCount() * (type == BitmapType.BINARY ? 8 : 16);
   }
 
   public String asHex(final Id map) {
-    return BitsetUtil.bitset2Hex(bitmaps[map.index], 16);
+    final long word = Long.reverse(words[map.index]);
+    final char[] result = new char[16];
+    for (int index = 0; index < 16; index++) {
+      result[index] = HexDigits[(int) (word >>> (60 - index * 4)) & 0x0f];
+    }
+    return new String(result);
   }
 
   public byte[] asBinary(final Id map) {
-    return BitsetUtil.bitset2bin(bitmaps[map.index], 8);
+    final long word = Long.reverse(words[map.index]);
+    final byte[] result = new byte[8];
+    for (int index = 0; index < 8; index++) {
+      result[index] = (byte) (word >>> (56 - index * 8));
+    }
+    return result;
   }
 
   public void clear() {
-    bitmaps[Id.PRIMARY.index].clear();
-    bitmaps[Id.SECONDARY.index].clear();
-    bitmaps[Id.TERTIARY.index].clear();
+    words[Id.PRIMARY.index] = 0;
+    words[Id.SECONDARY.index] = 0;
+    words[Id.TERTIARY.index] = 0;
   }
 
   /**
@@ -103,78 +195,77 @@ public class Bitmap {
       throw new IllegalArgumentException(
           "fieldNb can only be: {2..64} or {66..128} or {130..192} (fieldNb=" + fieldNb + ")");
     }
-    final Id bitmapId = getBitmapIdForField(fieldNb);
-    final BitSet bitmap = bitmaps[bitmapId.index];
-    bitmap.set(getFieldPosInBitmap(fieldNb, bitmapId));
-    setBitmapPresent(bitmapId);
+    words[(fieldNb - 1) >> 6] |= 1L << ((fieldNb - 1) & 63);
+    // if tertiary bitmap is present, then secondary is implicitly present
+    if (fieldNb > 128) {
+      words[Id.SECONDARY.index] |= 1L;
+    }
+    if (fieldNb > 64) {
+      words[Id.PRIMARY.index] |= 1L;
+    }
   }
 
   /**
    * @param fieldNb
-   * @return
+   * @return true if the bit for field <code>fieldNb</code> is set
    */
-  private Id getBitmapIdForField(final int fieldNb) {
-    if (fieldNb <= 64) {
-      return Id.PRIMARY;
-    }
-    if (fieldNb > 64 && fieldNb <= 128) {
-      return Id.SECONDARY;
-    }
-    return Id.TERTIARY;
-  }
-
-  private int getFieldPosInBitmap(final int fieldNb, final Id bitmapId) {
-    switch (bitmapId) {
-      case PRIMARY:
-        return fieldNb - 1;
-      case SECONDARY:
-        return fieldNb - 65;
-      case TERTIARY:
-        return fieldNb - 129;
-      default:
-        return 0; // unreachable as Id is enum
-    }
+  public boolean isFieldPresent(final int fieldNb) {
+    return fieldNb > 0 && fieldNb <= 192 && (words[(fieldNb - 1) >> 6] & (1L << ((fieldNb - 1) & 63))) != 0;
   }
 
   /**
-   * @param fieldNb
-   * @return
+   * @return the number of the first field present in this bitmap whose number is not less
+   * than <code>fieldNb</code>, or -1 if there is none; the bits indicating the presence of
+   * the secondary and tertiary bitmaps (fields 1 and 65) and field 129 are not reported
+   * @param fieldNb from which to search, e.g., 2 for the first field present
    */
-  public boolean isFieldPresent(final int fieldNb) {
-    final Id bitmapId = getBitmapIdForField(fieldNb);
-    final BitSet bitmap = bitmaps[bitmapId.index];
-    final int pos = getFieldPosInBitmap(fieldNb, bitmapId);
-    return bitmap.get(pos);
+  public int nextPresentField(final int fieldNb) {
+    final int start = Math.max(fieldNb, 2) - 1;
+    for (int index = start >> 6; index < 3; index++) {
+      long bits = words[index] & ~1L;
+      if (index == start >> 6) {
+        bits &= -1L << (start & 63);
+      }
+      if (bits != 0) {
+        return index * 64 + Long.numberOfTrailingZeros(bits) + 1;
+      }
+    }
+    return -1;
   }
 
   public boolean isBitmapPresent(final Id map) {
     if (map == Id.PRIMARY) {
       return true;
     }
-    final BitSet bitmap = bitmaps[map.index - 1];
-    return bitmap.get(0);
+    return (words[map.index - 1] & 1L) != 0;
   }
 
-  private void setBitmapPresent(final Id bitmapId) {
-    if (bitmapId == Id.PRIMARY) {
-      return; // always present
+  /** @return the number of bitmaps present (primary, secondary, tertiary) */
+  private int getCount() {
+    if ((words[Id.PRIMARY.index] & 1L) == 0) {
+      return 1;
     }
-    bitmaps[bitmapId.index - 1].set(0);
+    return (words[Id.SECONDARY.index] & 1L) == 0 ? 2 : 3;
+  }
 
-    // if tertiary bitmap is present, then secondary is implicitly present
-    if (bitmapId == Id.TERTIARY) {
-      setBitmapPresent(Id.SECONDARY);
+  /** @return the value of the hexadecimal digit
+    * @throws IllegalArgumentException if the character is not a hexadecimal digit */
+  private static int hexValue(final char digit) {
+    final int result = digit < HexValues.length ? HexValues[digit] : -1;
+    if (result < 0) {
+      throw new IllegalArgumentException("Hex bitmap must contain only hexadecimal digits (0-9A-F)");
     }
+    return result;
   }
 
   @Override
   public String toString() {
     final StringBuilder result = new StringBuilder();
-    result.append(BitsetUtil.bitset2Hex(bitmaps[Id.PRIMARY.index], 16));
+    result.append(asHex(Id.PRIMARY));
     if (isBitmapPresent(Id.SECONDARY)) {
-      result.append(BitsetUtil.bitset2Hex(bitmaps[Id.SECONDARY.index], 16));
+      result.append(asHex(Id.SECONDARY));
       if (isBitmapPresent(Id.TERTIARY)) {
-        result.append(BitsetUtil.bitset2Hex(bitmaps[Id.TERTIARY.index], 16));
+        result.append(asHex(Id.TERTIARY));
       }
     }
     return result.toString();
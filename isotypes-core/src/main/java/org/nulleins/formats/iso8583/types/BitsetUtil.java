@@ -9,6 +9,7 @@ import java.util.BitSet;
  * @author phillipsr
  */
 public class BitsetUtil {
+  private static final char[] HexDigits = "0123456789ABCDEF".toCharArray();
 
   /**
    * Answer with a bitmap equivalent to the hexadecimal string supplied
@@ -48,20 +49,27 @@ public class BitsetUtil {
    */
   static String
   bitset2Hex(final BitSet bitset, final int minLength) {
-    final StringBuilder result = new StringBuilder();
-    for (int bytenum = 0; bytenum < minLength / 2; bytenum++) {
-      byte v = 0;
-      for (int bit = 0, mask = 0x80; mask >= 0x01; bit++, mask /= 2) {
-        if (bitset.get((bytenum * 8) + bit)) {
-          v |= mask;
-        }
-      }
-      result.append(String.format("%02X", v));
+    final long[] words = bitset.toLongArray();
+    final char[] result = new char[minLength - minLength % 2];
+    for (int bytenum = 0; bytenum < result.length / 2; bytenum++) {
+      final int v = getByte(words, bytenum);
+      result[bytenum * 2] = HexDigits[v >> 4];
+      result[bytenum * 2 + 1] = HexDigits[v & 0x0f];
     }
-    while (result.length() < minLength) {
-      result.append("00");
+    return new String(result);
+  }
+
+  /**
+   * @return the value of byte <code>bytenum</code> of the bitmap held in <code>words</code> (as
+   * from <code>BitSet.toLongArray</code>), the lowest-numbered bit being the most significant,
+   * as ISO8583 bitmaps are big-endian
+   */
+  private static int getByte(final long[] words, final int bytenum) {
+    final int word = bytenum >> 3;
+    if (word >= words.length) {
+      return 0;
     }
-    return result.toString();
+    return Integer.reverse((int) (words[word] >>> ((bytenum & 7) * 8)) & 0xff) >>> 24;
   }
 
   /**
@@ -116,14 +124,10 @@ public class BitsetUtil {
       throw new IllegalArgumentException("bitSet must be non-null");
     }
 
+    final long[] words = bitSet.toLongArray();
     final byte[] result = new byte[length];
-    for (int bytenum = length - 1; bytenum >= 0; bytenum--) {
-      result[bytenum] = 0;
-      for (int bit = 0, mask = 0x80; mask >= 0x01; bit++, mask /= 2) {
-        if (bitSet.get((bytenum * 8) + bit)) {
-          result[bytenum] |= mask;
-        }
-      }
+    for (int bytenum = 0; bytenum < length; bytenum++) {
+      result[bytenum] = (byte) getByte(words, bytenum);
     }
     return result;
   }
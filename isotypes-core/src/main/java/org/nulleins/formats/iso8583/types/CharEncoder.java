@@ -1,16 +1,35 @@
 package org.nulleins.formats.iso8583.types;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
  * Holds the character set that should be used for text encoding and decoding,
  * and provides the methods for encoding/decoding to/from byte[]/String
+ * <p/>
+ * For single-byte charsets, e.g., US-ASCII and the EBCDIC code pages (Cp037, Cp1047),
+ * 256-entry translation tables are built when the encoder is created, so that text is
+ * encoded and decoded a byte at a time, without looking up the charset or creating
+ * encoders, decoders or intermediate strings; other charsets are encoded and decoded
+ * by the JVM's charset implementation
+ * <p/>
+ * Formatters produce their output in the platform's default charset: this is translated
+ * using the tables only if it consists of ASCII characters, and the default charset is
+ * compatible with ASCII
  * @author phillipsr
  */
 public class CharEncoder {
   public static final CharEncoder ASCII = new CharEncoder("US-ASCII");
+  /** true if the platform default charset encodes the ASCII characters as ASCII does */
+  private static final boolean DefaultIsAscii = isAsciiCompatible(Charset.defaultCharset());
   private final Charset charset;
+  /** the character encoded by each byte value, or null if the charset is not single-byte */
+  private final char[] decodeTable;
+  /** the byte encoding each character 0-255 (the charset's replacement if the character
+   * cannot be encoded), or null if the charset is not single-byte */
+  private final byte[] encodeTable;
 
   /**
    * Set the charset that should be used for writing text field values
@@ -25,6 +44,15 @@ public class CharEncoder {
       throw new IllegalArgumentException("charset [" + charsetName + "] not supported by JVM");
     }
     this.charset = Charset.forName(charsetName);
+    final char[] decode = new char[256];
+    final byte[] encode = new byte[256];
+    if (buildTables(charset, decode, encode)) {
+      decodeTable = decode;
+      encodeTable = encode;
+    } else {
+      decodeTable = null;
+      encodeTable = null;
+    }
   }
 
   @Override
@@ -37,36 +65,232 @@ public class CharEncoder {
    * Answer with a String in this character encoding, initialized from the byte data supplied
    * @param data bytes to be converted
    * @return a String using this character encoding
-   * @throws UnsupportedEncodingException if <code>charset</code> is not supported by the JVM
+   * @throws UnsupportedEncodingException declared for source compatibility; never thrown, as the
+   *                                      charset is resolved when the encoder is created
    */
   public String
   getString(final byte[] data)
       throws UnsupportedEncodingException {
-    return new String(data, charset.name());
+    if (decodeTable == null) {
+      return new String(data, charset);
+    }
+    final char[] result = new char[data.length];
+    for (int index = 0; index < data.length; index++) {
+      result[index] = decodeTable[data[index] & 0xff];
+    }
+    return new String(result);
+  }
+
+  /**
+   * Answer with a String in this character encoding, initialized from the remaining bytes
+   * of the buffer supplied; the buffer's position is not changed
+   * @param data buffer holding the bytes to be converted
+   * @return a String using this character encoding
+   */
+  public String
+  getString(final ByteBuffer data) {
+    if (decodeTable == null) {
+      if (data.hasArray()) {
+        return new String(data.array(), data.arrayOffset() + data.position(), data.remaining(), charset);
+      }
+      return charset.decode(data.duplicate()).toString();
+    }
+    final char[] result = new char[data.remaining()];
+    final int start = data.position();
+    for (int index = 0; index < result.length; index++) {
+      result[index] = decodeTable[data.get(start + index) & 0xff];
+    }
+    return new String(result);
+  }
+
+  /**
+   * Answer with a character sequence view of the remaining bytes of the buffer supplied,
+   * decoding each character as it is accessed, so that text can be examined or parsed
+   * without creating a String; the view shares the buffer's content, which must not change
+   * while the view is in use, and the buffer's position is not changed
+   * @param data buffer holding the bytes to be viewed
+   * @return a character sequence using this character encoding
+   */
+  public CharSequence
+  getChars(final ByteBuffer data) {
+    if (decodeTable == null) {
+      return getString(data);
+    }
+    return new CharView(data.duplicate(), data.position(), data.remaining(), decodeTable);
   }
 
   /**
    * Answer with a byte array in this character encoding, initialized from the byte data supplied
    * @param data String to be converted
    * @return a byte character using this character encoding
-   * @throws UnsupportedEncodingException if <code>charset</code> is not supported by the JVM
+   * @throws UnsupportedEncodingException declared for source compatibility; never thrown, as the
+   *                                      charset is resolved when the encoder is created
    */
   public byte[]
   getBytes(final String data)
       throws UnsupportedEncodingException {
-    return data.getBytes(charset.name());
+    if (encodeTable == null || !isTableEncodable(data)) {
+      return data.getBytes(charset);
+    }
+    final byte[] result = new byte[data.length()];
+    for (int index = 0; index < result.length; index++) {
+      result[index] = encodeTable[data.charAt(index)];
+    }
+    return result;
   }
 
   /**
    * Answer with a byte array in this character encoding, initialized from the byte data supplied
-   * @param data bytes to be converted
+   * @param data bytes to be converted, in the platform's default charset
    * @return a byte character using this character encoding
-   * @throws UnsupportedEncodingException if <code>charset</code> is not supported by the JVM
+   * @throws UnsupportedEncodingException declared for source compatibility; never thrown, as the
+   *                                      charset is resolved when the encoder is created
    */
   public byte[]
   getBytes(final byte[] data)
       throws UnsupportedEncodingException {
-    return getBytes(new String(data));
+    if (!isTableEncodable(data)) {
+      return getBytes(new String(data));
+    }
+    final byte[] result = new byte[data.length];
+    for (int index = 0; index < data.length; index++) {
+      result[index] = encodeTable[data[index]];
+    }
+    return result;
+  }
+
+  /**
+   * Encode the characters supplied in this character encoding, writing them to the
+   * output buffer
+   * @param data   characters to be converted
+   * @param output buffer to which the encoded characters are written
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public void
+  encode(final CharSequence data, final ByteBuffer output) {
+    if (encodeTable == null || !isTableEncodable(data)) {
+      output.put(data.toString().getBytes(charset));
+      return;
+    }
+    for (int index = 0; index < data.length(); index++) {
+      output.put(encodeTable[data.charAt(index)]);
+    }
+  }
+
+  /**
+   * Write <code>count</code> copies of the character supplied, in this character encoding,
+   * to the output buffer, e.g., to pad a fixed-width field
+   * @param c      character to be written
+   * @param count  number of copies to write
+   * @param output buffer to which the encoded characters are written
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public void
+  pad(final char c, final int count, final ByteBuffer output) {
+    if (encodeTable != null && c <= 0xff) {
+      final byte encoded = encodeTable[c];
+      for (int index = 0; index < count; index++) {
+        output.put(encoded);
+      }
+      return;
+    }
+    final byte[] encoded = String.valueOf(c).getBytes(charset);
+    for (int index = 0; index < count; index++) {
+      output.put(encoded);
+    }
+  }
+
+  /**
+   * Transcode the byte data supplied to this character encoding, writing it to the
+   * output buffer, without creating an intermediate String where possible
+   * @param data   bytes to be converted, in the platform's default charset
+   * @param output buffer to which the encoded characters are written
+   * @return the number of bytes written
+   * @throws java.nio.BufferOverflowException if the output buffer has insufficient space
+   */
+  public int
+  encode(final byte[] data, final ByteBuffer output) {
+    if (!isTableEncodable(data)) {
+      final byte[] result = new String(data).getBytes(charset);
+      output.put(result);
+      return result.length;
+    }
+    for (final byte b : data) {
+      output.put(encodeTable[b]);
+    }
+    return data.length;
+  }
+
+  /**
+   * @return the number of bytes occupied by the byte data supplied when transcoded to this
+   * character encoding
+   * @param data bytes to be converted, in the platform's default charset
+   */
+  public int
+  getEncodedLength(final byte[] data) {
+    return isTableEncodable(data) ? data.length : new String(data).getBytes(charset).length;
+  }
+
+  /** @return true if this charset encodes every character as a single byte, so that text
+   * is encoded and decoded using translation tables */
+  public boolean isSingleByte() {
+    return decodeTable != null;
+  }
+
+  /** @return true if the characters can all be encoded using the translation table */
+  private boolean isTableEncodable(final CharSequence data) {
+    for (int index = 0; index < data.length(); index++) {
+      if (data.charAt(index) > 0xff) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return true if the bytes, in the platform's default charset, can all be encoded
+   * using the translation table, i.e., are ASCII characters */
+  private boolean isTableEncodable(final byte[] data) {
+    if (encodeTable == null || !DefaultIsAscii) {
+      return false;
+    }
+    for (final byte b : data) {
+      if (b < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Fill the translation tables for the <code>charset</code> supplied
+   * @return true if the charset encodes every character as a single byte, and so the tables
+   * could be filled, otherwise false
+   */
+  private static boolean buildTables(final Charset charset, final char[] decode, final byte[] encode) {
+    if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1.0f
+        || charset.newDecoder().maxCharsPerByte() != 1.0f) {
+      return false;
+    }
+    for (int value = 0; value < 256; value++) {
+      final String decoded = new String(new byte[]{(byte) value}, charset);
+      final byte[] encoded = String.valueOf((char) value).getBytes(charset);
+      if (decoded.length() != 1 || encoded.length != 1) {
+        return false;
+      }
+      decode[value] = decoded.charAt(0);
+      encode[value] = encoded[0];
+    }
+    return true;
+  }
+
+  /** @return true if the charset encodes the ASCII characters as ASCII does */
+  private static boolean isAsciiCompatible(final Charset charset) {
+    final byte[] ascii = new byte[128];
+    for (int value = 0; value < ascii.length; value++) {
+      ascii[value] = (byte) value;
+    }
+    final byte[] encoded = new String(ascii, Charset.forName("US-ASCII")).getBytes(charset);
+    return Arrays.equals(ascii, encoded);
   }
 
   @Override
@@ -81,4 +305,50 @@ public class CharEncoder {
   public int hashCode() {
     return charset.hashCode();
   }
+
+  /** Character sequence view of single-byte encoded data held in a buffer */
+  private static final class CharView implements CharSequence {
+    private final ByteBuffer data;
+    private final int offset;
+    private final int length;
+    private final char[] decodeTable;
+
+    private CharView(final ByteBuffer data, final int offset, final int length, final char[] decodeTable) {
+      this.data = data;
+      this.offset = offset;
+      this.length = length;
+      this.decodeTable = decodeTable;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException("index " + index + " out of range for length " + length);
+      }
+      return decodeTable[data.get(offset + index) & 0xff];
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+      if (start < 0 || end > length || start > end) {
+        throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") out of range for length " + length);
+      }
+      return new CharView(data, offset + start, end - start, decodeTable);
+    }
+
+    @Override
+    public String toString() {
+      final char[] result = new char[length];
+      for (int index = 0; index < length; index++) {
+        result[index] = decodeTable[data.get(offset + index) & 0xff];
+      }
+      return new String(result);
+    }
+  }
+
 }
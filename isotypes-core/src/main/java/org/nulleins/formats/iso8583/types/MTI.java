@@ -1,63 +1,159 @@
 package org.nulleins.formats.iso8583.types;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 /**
  * Representation of an ISO8583 Message Type Indicator
+ * <p/>
+ * MTIs are interned: a single instance of each valid MTI is created when the class is loaded,
+ * and the factory methods answer with that instance, using per-digit lookup tables
  * @author phillipsr
  */
 public final class MTI implements Comparable<MTI> {
   // regex defining valid MTI values
   private static final String ValidMTI = "[0129][123456789][0123489][012345]";
 
-  private static final Pattern ValidMTIMatcher = Pattern.compile(ValidMTI);
+  /** valid digits in each position of an MTI */
+  private static final String[] ValidDigits = {"0129", "123456789", "0123489", "012345"};
+
+  /** the number of valid MTI values */
+  public static final int COUNT = 4 * 9 * 7 * 6;
+
+  /** index of each digit (0-15) in its position's valid digits, or -1 if not valid there */
+  private static final byte[][] DigitIndex = new byte[4][16];
+
+  /** the canonical instance of each valid MTI, indexed by <code>ordinal</code> */
+  private static final MTI[] Types = new MTI[COUNT];
+
+  static {
+    for (int pos = 0; pos < 4; pos++) {
+      Arrays.fill(DigitIndex[pos], (byte) -1);
+      for (int index = 0; index < ValidDigits[pos].length(); index++) {
+        DigitIndex[pos][ValidDigits[pos].charAt(index) - '0'] = (byte) index;
+      }
+    }
+    for (final char version : ValidDigits[0].toCharArray()) {
+      for (final char messageClass : ValidDigits[1].toCharArray()) {
+        for (final char function : ValidDigits[2].toCharArray()) {
+          for (final char origin : ValidDigits[3].toCharArray()) {
+            final String value = new String(new char[]{version, messageClass, function, origin});
+            final int code = Integer.parseInt(value, 16);
+            final int ordinal = ordinal(code);
+            Types[ordinal] = new MTI(value, code, ordinal);
+          }
+        }
+      }
+    }
+  }
 
   private final String value;
+  private final int code;
+  private final int ordinal;
+
+  private MTI(final String value, final int code, final int ordinal) {
+    this.value = value;
+    this.code = code;
+    this.ordinal = ordinal;
+  }
 
   /**
-   * @param code
-   * @throws IllegalArgumentException if the code is null, not 4 chars in length,
-   *                                  or does not conform to the valid MTI pattern: <code>[0129][123456789][0123489][012345]</code>
+   * Create an MTI object from its string representation
+   * @param code four digits, conforming to the valid MTI pattern:
+   *             <code>[0129][123456789][0123489][012345]</code>
+   * @return the canonical instance of the MTI
+   * @throws IllegalArgumentException if the code is not 4 chars in length (after trimming),
+   *                                  or does not conform to the valid MTI pattern
+   * @throws NullPointerException     if the code is null
    */
-  private MTI(final char[] code) {
-    if (code == null || code.length != 4) {
-      throw new IllegalArgumentException(
-          "MTI must not be null and four chars long [" + Arrays.toString(code) + "]");
-    }
-    value = new String(code).trim();
+  public static MTI create(final String code) {
+    final String value = code.trim();
     if (value.length() != 4) {
       throw new IllegalArgumentException("MTI must be exactly 4 digits in length, got [" + value + "]");
     }
-    if (!ValidMTIMatcher.matcher(value).matches()) {
-      throw new IllegalArgumentException("MTI must be numeric and conform to pattern: [" + ValidMTI
-          + "]: got [" + value + "]");
+    int result = 0;
+    for (int index = 0; index < 4; index++) {
+      final int digit = value.charAt(index) - '0';
+      if (digit < 0 || digit > 9) {
+        throw invalid(value);
+      }
+      result = (result << 4) | digit;
     }
+    return lookup(result, value);
   }
 
   /**
-   * Create an MTI object from its string representation
+   * Create an MTI object from its numeric representation, each digit being held
+   * in a nibble, e.g., <code>0x0200</code>
    * @param code
-   * @return
+   * @return the canonical instance of the MTI
+   * @throws IllegalArgumentException if the code does not conform to the valid MTI pattern
    */
-  public static MTI create(final String code) {
-    return new MTI(code.toCharArray());
+  public static MTI create(final int code) {
+    return lookup(code, null);
   }
 
   /**
-   * Create an MTI object from its numeric representation
-   * @param code
-   * @return
+   * Read an MTI from the input buffer, encoded as four ASCII digits
+   * @param input buffer holding the MTI from its current position, which is advanced past it
+   * @return the canonical instance of the MTI read
+   * @throws IllegalArgumentException          if the data read is not a valid MTI
+   * @throws java.nio.BufferUnderflowException if the buffer does not hold four bytes
    */
-  public static MTI create(final int code) {
-    char[] mti = new char[]{
-        (char) (((code & 0xf000) >> 12) + 0x30),
-        (char) (((code & 0x0f00) >> 8) + 0x30),
-        (char) (((code & 0x00f0) >> 4) + 0x30),
-        (char) (((code & 0x000f)) + 0x30)};
-    return new MTI(mti);
+  public static MTI readASCII(final ByteBuffer input) {
+    if (input.remaining() < 4) {
+      throw new BufferUnderflowException();
+    }
+    // read a byte at a time, as the buffer's byte order is not known:
+    final int position = input.position();
+    int result = 0;
+    for (int index = 0; index < 4; index++) {
+      final int digit = (input.get(position + index) & 0xff) - '0';
+      if (digit < 0 || digit > 9) {
+        final byte[] data = new byte[4];
+        input.duplicate().get(data);
+        throw invalid(new String(data, StandardCharsets.ISO_8859_1));
+      }
+      result = (result << 4) | digit;
+    }
+    final MTI mti = lookup(result, null);
+    input.position(position + 4);
+    return mti;
+  }
+
+  /** @return the MTI whose numeric representation is <code>code</code>
+    * @param value string representation of the code, for error reporting, or null */
+  private static MTI lookup(final int code, final String value) {
+    final int ordinal = ordinal(code);
+    if (ordinal < 0) {
+      throw invalid(value != null ? value : String.format("%04x", code));
+    }
+    return Types[ordinal];
+  }
+
+  /** @return the ordinal of the MTI whose numeric representation is <code>code</code>,
+    * or -1 if the code is not a valid MTI */
+  private static int ordinal(final int code) {
+    if ((code & ~0xffff) != 0) {
+      return -1;
+    }
+    final int version = DigitIndex[0][(code >> 12) & 0x0f];
+    final int messageClass = DigitIndex[1][(code >> 8) & 0x0f];
+    final int function = DigitIndex[2][(code >> 4) & 0x0f];
+    final int origin = DigitIndex[3][code & 0x0f];
+    if ((version | messageClass | function | origin) < 0) {
+      return -1;
+    }
+    return ((version * 9 + messageClass) * 7 + function) * 6 + origin;
+  }
+
+  private static IllegalArgumentException invalid(final String value) {
+    return new IllegalArgumentException("MTI must be numeric and conform to pattern: [" + ValidMTI
+        + "]: got [" + value + "]");
   }
 
   private static final Map<Character, String> versions = new HashMap<Character, String>() {{
@@ -134,7 +230,7 @@ public final class MTI implements Comparable<MTI> {
 
   @Override
   public boolean equals(final Object other) {
-    return this == other || !(other == null || other.getClass() != this.getClass()) && value.equals(((MTI) other).value);
+    return this == other || !(other == null || other.getClass() != this.getClass()) && code == ((MTI) other).code;
   }
 
   @Override
@@ -143,7 +239,13 @@ public final class MTI implements Comparable<MTI> {
   }
 
   public int intValue() {
-    return Integer.parseInt(value, 16);
+    return code;
+  }
+
+  /** @return the index of this MTI amongst all valid MTIs, from 0 to <code>COUNT - 1</code>,
+   * e.g., to index an array by message type */
+  public int ordinal() {
+    return ordinal;
   }
 
   @Override
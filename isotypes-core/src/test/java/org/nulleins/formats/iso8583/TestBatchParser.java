@@ -0,0 +1,107 @@
+package org.nulleins.formats.iso8583;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nulleins.formats.iso8583.io.FrameWriter;
+import org.nulleins.formats.iso8583.io.LengthPrefix;
+import org.nulleins.formats.iso8583.schema.MessageConfig;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+
+/**
+ * @author phillipsr
+ */
+public class TestBatchParser {
+  private static final int Records = 2000;
+
+  private final MessageFactory factory = MessageConfig.configure("streamedMessageTest.conf");
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testParseInOrder() throws IOException {
+    final File batch = createBatch(Records);
+    final List<Message> messages = new BatchParser(factory, LengthPrefix.binary(2)).parse(batch);
+    assertThat(messages.size(), is(Records));
+    for (int record = 0; record < Records; record++) {
+      assertThat((BigInteger) messages.get(record).getFieldValue(11), is(BigInteger.valueOf(record)));
+    }
+  }
+
+  @Test
+  public void testParseToHandler() throws IOException {
+    final File batch = createBatch(Records);
+    final BitSet received = new BitSet();
+    final int count = new BatchParser(factory, LengthPrefix.binary(2), new ForkJoinPool(4)).parse(batch,
+        new BatchParser.RecordHandler() {
+          @Override
+          public void onMessage(final int record, final Message message) {
+            synchronized (received) {
+              received.set(((BigInteger) message.getFieldValue(11)).intValue());
+            }
+          }
+        });
+    assertThat(count, is(Records));
+    assertThat(received.cardinality(), is(Records));
+  }
+
+  @Test
+  public void testParseSegments() throws IOException {
+    // map the file in small segments, so that records fall across segment boundaries:
+    final File batch = createBatch(100);
+    final List<Message> messages = new BatchParser(factory, LengthPrefix.binary(2), null, 1000).parse(batch);
+    assertThat(messages.size(), is(100));
+    assertThat((BigInteger) messages.get(99).getFieldValue(11), is(BigInteger.valueOf(99)));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedBatch() throws IOException {
+    final File batch = createBatch(10);
+    try (final RandomAccessFile file = new RandomAccessFile(batch, "rw")) {
+      file.setLength(file.length() - 1);
+    }
+    new BatchParser(factory, LengthPrefix.binary(2)).parse(batch);
+  }
+
+  @Test(expected = MessageException.class)
+  public void testBadRecord() throws IOException {
+    final File batch = folder.newFile();
+    try (final FrameWriter writer = new FrameWriter(LengthPrefix.binary(2), new FileOutputStream(batch))) {
+      writer.writeFrame(request(1).getBytes());
+      writer.writeFrame("ISO0150000770990".getBytes());
+    }
+    new BatchParser(factory, LengthPrefix.binary(2)).parse(batch);
+  }
+
+  /** @return a batch file of <code>records</code> requests, numbered by their STAN (field 11) */
+  private File createBatch(final int records) throws IOException {
+    final File result = folder.newFile();
+    try (final FrameWriter writer = new FrameWriter(LengthPrefix.binary(2), new FileOutputStream(result))) {
+      for (int record = 0; record < records; record++) {
+        writer.writeFrame(request(record).getBytes());
+      }
+    }
+    return result;
+  }
+
+  private static String request(final int stan) {
+    return "ISO01500007702007238000108A18000165264391220494002305700000000032000"
+        + "1210220213" + String.format("%06d", stan) + "00021312111181800601368034522937166CIB08520263     CIB-57357"
+        + "HOSPITAL     CAIRO          EG01120167124377818";
+  }
+
+}
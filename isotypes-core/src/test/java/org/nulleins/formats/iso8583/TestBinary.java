@@ -3,12 +3,15 @@ package org.nulleins.formats.iso8583;
 import org.junit.Test;
 import org.nulleins.formats.iso8583.config.BinaryMessageConfiguration;
 import org.nulleins.formats.iso8583.formatters.HexDumper;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.ContentType;
 import org.nulleins.formats.iso8583.types.MTI;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -16,6 +19,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
+import static java.util.Arrays.asList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.startsWith;
@@ -32,24 +36,9 @@ public class TestBinary {
   public void testCreateBinaryMessage()
       throws IOException, ParseException {
     assertThat(factory, notNullValue());
-    final Date testDate = (new SimpleDateFormat("ddMMyyyy:HHmmss")).parse("12122012:121200");
     // create a request message with binary bitmap and bcd encoded content
     // as specified in the iso:schema (see associated TestBinary-context.xml)
-    final Message request = factory.create(MTI.create(0x0200));
-    request.setFieldValue(2, 5432818929192L);
-    request.setFieldValue(3, 1010);
-    request.setFieldValue(4, new BigInteger("1200"));
-    request.setFieldValue(7, testDate);
-    request.setFieldValue(11, 666666);
-    request.setFieldValue(12, testDate);
-    request.setFieldValue(13, testDate);
-    request.setFieldValue(32, 1029);
-    request.setFieldValue(37, 937278626262L);
-    request.setFieldValue(41, "ATM-10101");
-    request.setFieldValue(43, "DUB87");
-    request.setFieldValue(48, 353863579271L);
-    request.setFieldValue(49, 840);
-    request.setFieldValue(90, BigInteger.TEN);
+    final Message request = createRequest();
 
     final byte[] expectData = {
         0x02, 0x00, (byte) 0xf2, 0x38, 0x00, 0x01, 0x08, (byte) 0xa1, (byte) 0x80, 0x00, 0x00, 0x00, 0x00, 0x40, 0x00, 0x00,
@@ -70,6 +59,18 @@ public class TestBinary {
 
     final byte[] odata = factory.getMessageData(message);
     assertThat(odata, is(expectData));
+
+    final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data).flip();
+    assertThat(factory.parse(direct), is(message));
+    direct.rewind();
+    final Message lazy = factory.parseLazy(direct);
+    assertThat(direct.hasRemaining(), is(false));
+    // numeric fields are unpacked directly as longs, including odd-length and signed values:
+    assertThat(lazy.getLong(2), is(5432818929192L));
+    assertThat(lazy.getLong(49), is(840L));
+    assertThat(lazy.getLong(90), is(10L));
+    assertThat(lazy, is(message));
   }
 
   @Test
@@ -103,8 +104,112 @@ public class TestBinary {
 
     final byte[] odata = factory.getMessageData(message);
     assertThat(odata, is(expectData));
+    assertThat(factory.parseLazy(ByteBuffer.wrap(data)), is(message));
+
+    // encoded directly, into a buffer sized exactly:
+    assertThat(factory.encodedLength(message), is(expectData.length));
+    final ByteBuffer direct = ByteBuffer.allocateDirect(expectData.length);
+    assertThat(factory.encode(message, direct), is(expectData.length));
+    direct.flip();
+    final byte[] encoded = new byte[direct.remaining()];
+    direct.get(encoded);
+    assertThat(encoded, is(expectData));
+  }
+
+  @Test
+  public void testSignedRoundTrip()
+      throws IOException, ParseException {
+    final MessageFactory signed = MessageFactory.Builder()
+        .id("signedMessageSet")
+        .contentType(ContentType.BCD)
+        .bitmapType(BitmapType.BINARY)
+        .build();
+    final MessageTemplate template = MessageTemplate.create("ISO015000077", MTI.create(0x0200), BitmapType.BINARY);
+    signed.addMessage(template);
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder(template).get();
+    template.addFields(asList(
+        builder.f(28).name("transactionFee").desc("Amount, transaction fee").dim("fixed(12)").type("xn").build(),
+        builder.f(30).name("processingFee").desc("Amount, tx processing fee").dim("fixed(11)").type("xn").build(),
+        builder.f(41).name("cardTermId").desc("Card Acceptor Terminal ID").dim("fixed(8)").type("ans").build(),
+        builder.f(90).name("originalData").desc("Original data elements").dim("lllvar(999)").type("xn").build()));
+
+    final Message request = signed.create(MTI.create(0x0200));
+    request.setFieldValue(28, 123);
+    request.setFieldValue(30, new BigInteger("-4567"));
+    request.setFieldValue(41, "ATM-1010");
+    request.setFieldValue(90, -100);
+
+    final byte[] expectData = {
+        0x02, 0x00, (byte) 0x80, 0x00, 0x00, 0x14, 0x00, (byte) 0x80, 0x00, 0x00, 0x00, 0x00, 0x00, 0x40, 0x00, 0x00,
+        0x00, 0x00, 0x0c, 0x00, 0x00, 0x00, 0x01, 0x23, 0x0d, 0x00, 0x00, 0x00, 0x45, 0x67, 0x41, 0x54,
+        0x4d, 0x2d, 0x31, 0x30, 0x31, 0x30, 0x00, 0x06, 0x0d, 0x01, 0x00};
+    final byte[] data = signed.getMessageData(request);
+    assertThat(data, is(expectData));
+    assertThat(signed.encodedLength(request), is(expectData.length));
+    final ByteBuffer direct = ByteBuffer.allocate(expectData.length);
+    assertThat(signed.encode(request, direct), is(expectData.length));
+    assertThat(direct.array(), is(expectData));
+
+    final Message message = signed.parse(new ByteArrayInputStream(data));
+    assertThat(signed.getMessageData(message), is(expectData));
+    assertThat(signed.parse(ByteBuffer.wrap(data)), is(message));
+    final Message lazy = signed.parseLazy(ByteBuffer.wrap(data));
+    assertThat(lazy.getLong(28), is(123L));
+    assertThat(lazy.getLong(30), is(-4567L));
+    assertThat((String) lazy.getFieldValue(41), is("ATM-1010"));
+    assertThat(lazy.getLong(90), is(-100L));
   }
 
+  @Test
+  public void testTryParseInvalidBcd() throws IOException, ParseException {
+    final byte[] data = factory.getMessageData(createRequest());
+    // the processing code (3) follows the MTI, bitmaps and card number; corrupt its last nibble:
+    data[28] = 0x1a;
+    final ParseResult result = factory.tryParse(ByteBuffer.wrap(data));
+    assertThat(result.getErrorCount(), is(1));
+    assertThat(result.getError(3), is(ParseResult.INVALID_VALUE));
+    assertThat(result.getMessage().getLong(11), is(666666L));
+    assertThat(result.getMessage().getLong(90), is(10L));
+  }
+
+  /** @return a request message holding a value for each of its fields */
+  private Message createRequest() throws ParseException {
+    final Date testDate = (new SimpleDateFormat("ddMMyyyy:HHmmss")).parse("12122012:121200");
+    final Message request = factory.create(MTI.create(0x0200));
+    request.setFieldValue(2, 5432818929192L);
+    request.setFieldValue(3, 1010);
+    request.setFieldValue(4, new BigInteger("1200"));
+    request.setFieldValue(7, testDate);
+    request.setFieldValue(11, 666666);
+    request.setFieldValue(12, testDate);
+    request.setFieldValue(13, testDate);
+    request.setFieldValue(32, 1029);
+    request.setFieldValue(37, 937278626262L);
+    request.setFieldValue(41, "ATM-10101");
+    request.setFieldValue(43, "DUB87");
+    request.setFieldValue(48, 353863579271L);
+    request.setFieldValue(49, 840);
+    request.setFieldValue(90, BigInteger.TEN);
+    return request;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExceedSignedDigits()
+      throws IOException {
+    final MessageFactory signed = MessageFactory.Builder()
+        .id("signedMessageSet")
+        .contentType(ContentType.BCD)
+        .bitmapType(BitmapType.BINARY)
+        .build();
+    final MessageTemplate template = MessageTemplate.create("ISO015000077", MTI.create(0x0200), BitmapType.BINARY);
+    signed.addMessage(template);
+    template.addField(FieldTemplate.localBuilder(template).get()
+        .f(28).name("transactionFee").desc("Amount, transaction fee").dim("fixed(4)").type("xn").build());
+    final Message fee = signed.create(MTI.create(0x0200));
+    // three digits fit the formatted field, but only two follow the sign byte:
+    fee.setFieldValue(28, 123);
+    signed.getMessageData(fee);
+  }
 
   @Test(expected = IllegalArgumentException.class)
   public void testExceedFieldSize()
@@ -0,0 +1,101 @@
+package org.nulleins.formats.iso8583;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.schema.MessageConfig;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+
+/**
+ * @author phillipsr
+ */
+public class TestFramePatcher {
+  private static final String Fields =
+      "      fields: {"+
+      "          2: {name = accountNumber, desc = 'Primary Account Number', dim = llvar(19), type = n},"+
+      "          4: {name = amount, desc = 'Transaction amount (cents)', dim = fixed(12), type = n},"+
+      "         11: {name = stan, desc = 'System Trace Audit Number', dim = fixed(6), type = n},"+
+      "         38: {name = authCode, desc = 'Authorization Code', dim = fixed(6), type = an},"+
+      "         39: {name = responseCode, desc = 'Response Code', dim = fixed(2), type = an},"+
+      "         41: {name = cardTermId, desc = 'Card Acceptor Terminal ID', dim = fixed(8), type = ans}"+
+      "      }";
+  private static final String Config = "schema {"+
+      "  id = patchMessages, description = 'Patched messages', header = ISO015000077,"+
+      "  bitmapType = hex, contentType = text, charset = ascii,"+
+      "  messages: ["+
+      "    { type = 0200, name = Transaction Request,"+ Fields + "},"+
+      "    { type = 0210, name = Transaction Response,"+ Fields + "}"+
+      "  ]}";
+
+  private final MessageFactory factory = MessageConfig.configure(new ByteArrayInputStream(Config.getBytes()));
+
+  @Test
+  public void testPatchResponse() throws ParseException, IOException {
+    final ByteBuffer frame = ByteBuffer.wrap(factory.getMessageData(createRequest()));
+    final FramePatcher patcher = factory.patch(frame);
+    assertThat(patcher.getMTI(), is(MTI.create(0x0200)));
+
+    patcher.setMTI(MTI.create(0x0210)).setFieldValue(38, "A1B2C3").setFieldValue(39, "00");
+    assertThat(frame.position(), is(0));
+
+    final Message response = factory.parse(frame);
+    assertThat(response.getMTI(), is(MTI.create(0x0210)));
+    assertThat((String) response.getFieldValue(38), is("A1B2C3"));
+    assertThat((String) response.getFieldValue(39), is("00"));
+    assertThat((BigInteger) response.getFieldValue(11), is(BigInteger.valueOf(1234)));
+    assertThat((String) response.getFieldValue(41), is("TERM0001"));
+  }
+
+  @Test
+  public void testPatchFromOffset() throws ParseException, IOException {
+    final byte[] message = factory.getMessageData(createRequest());
+    final ByteBuffer frame = ByteBuffer.allocate(message.length + 10);
+    frame.position(10);
+    frame.put(message).position(10);
+
+    factory.patch(frame).setFieldValue(11, BigInteger.valueOf(42));
+    assertThat((BigInteger) factory.parse(frame).getFieldValue(11), is(BigInteger.valueOf(42)));
+  }
+
+  @Test
+  public void testPatchVariableSameLength() throws ParseException, IOException {
+    final ByteBuffer frame = ByteBuffer.wrap(factory.getMessageData(createRequest()));
+    factory.patch(frame).setFieldValue(2, BigInteger.valueOf(9999888877776666L));
+    assertThat((BigInteger) factory.parse(frame).getFieldValue(2), is(BigInteger.valueOf(9999888877776666L)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPatchVariableDifferentLength() throws IOException {
+    factory.patch(ByteBuffer.wrap(factory.getMessageData(createRequest()))).setFieldValue(2, BigInteger.valueOf(99998888));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPatchFieldNotPresent() throws IOException {
+    factory.patch(ByteBuffer.wrap(factory.getMessageData(createRequest()))).setFieldValue(3, BigInteger.ONE);
+  }
+
+  @Test(expected = MessageException.class)
+  public void testPatchUndefinedType() throws IOException {
+    factory.patch(ByteBuffer.wrap(factory.getMessageData(createRequest()))).setMTI(MTI.create(0x0400));
+  }
+
+  private Message createRequest() {
+    final Message result = factory.create(MTI.create(0x0200));
+    result.setFieldValue(2, BigInteger.valueOf(5264391220494002L));
+    result.setFieldValue(4, BigInteger.valueOf(3200));
+    result.setFieldValue(11, BigInteger.valueOf(1234));
+    result.setFieldValue(38, "      ");
+    result.setFieldValue(39, "  ");
+    result.setFieldValue(41, "TERM0001");
+    return result;
+  }
+
+}
@@ -0,0 +1,109 @@
+package org.nulleins.formats.iso8583;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.config.BinaryMessageConfiguration;
+import org.nulleins.formats.iso8583.io.LengthPrefix;
+import org.nulleins.formats.iso8583.schema.MessageConfig;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+
+/**
+ * @author phillipsr
+ */
+public class TestMessageDecoder {
+  private static final String Payment_Request =
+      "ISO01500007702007238000108A18000165264391220494002305700000000032000"
+          + "121022021393716600021312111181800601368034522937166CIB08520263     CIB-57357"
+          + "HOSPITAL     CAIRO          EG01120167124377818";
+
+  private final MessageFactory factory = MessageConfig.configure("streamedMessageTest.conf");
+
+  @Test
+  public void testDecodeByteByByte() throws IOException, ParseException {
+    final MessageDecoder decoder = factory.newDecoder(4096);
+    final byte[] data = (Payment_Request + Payment_Request).getBytes();
+
+    final List<Message> messages = decode(decoder, data, 1);
+    assertThat(messages.size(), is(2));
+    assertThat(decoder.getPendingLength(), is(0));
+    assertThat(messages.get(0), is(factory.parse(Payment_Request.getBytes())));
+    assertThat((String) messages.get(1).getFieldValue(43), is("CIB-57357HOSPITAL     CAIRO          EG0"));
+  }
+
+  @Test
+  public void testDecodeChunks() throws IOException, ParseException {
+    final byte[] data = (Payment_Request + Payment_Request + Payment_Request).getBytes();
+    for (final int chunk : new int[]{3, 17, 100, 200, data.length}) {
+      final MessageDecoder decoder = factory.newDecoder(4096);
+      final List<Message> messages = decode(decoder, data, chunk);
+      assertThat("chunk size=" + chunk, messages.size(), is(3));
+      assertThat((BigInteger) messages.get(2).getFieldValue(49), is(BigInteger.valueOf(818)));
+    }
+  }
+
+  @Test
+  public void testDecodeFramed() throws IOException, ParseException {
+    final MessageDecoder decoder = factory.newDecoder(LengthPrefix.binary(2));
+    final ByteBuffer data = ByteBuffer.allocate(2 * (2 + Payment_Request.length()));
+    for (int i = 0; i < 2; i++) {
+      data.putShort((short) Payment_Request.length()).put(Payment_Request.getBytes());
+    }
+
+    final List<Message> messages = decode(decoder, data.array(), 7);
+    assertThat(messages.size(), is(2));
+    assertThat((String) messages.get(1).getFieldValue(41), is("CIB08520263"));
+  }
+
+  @Test
+  public void testDecodeBinaryMessage() throws IOException, ParseException {
+    final MessageFactory binaryFactory = BinaryMessageConfiguration.createMessageFactory();
+    final Message request = binaryFactory.create(MTI.create(0x0220));
+    request.setFieldValue(2, "1234567890123456");
+    request.setFieldValue(7, "0609173030");
+    request.setFieldValue(22, "ABC123");
+    request.setFieldValue(63, "0123456789");
+    final byte[] message = binaryFactory.getMessageData(request);
+    final byte[] data = new byte[message.length * 2];
+    System.arraycopy(message, 0, data, 0, message.length);
+    System.arraycopy(message, 0, data, message.length, message.length);
+
+    final List<Message> messages = decode(binaryFactory.newDecoder(1024), data, 5);
+    assertThat(messages.size(), is(2));
+    assertThat(messages.get(1), is(binaryFactory.parse(message)));
+  }
+
+  @Test(expected = IOException.class)
+  public void testDecodeExceedsMaximum() throws IOException, ParseException {
+    decode(factory.newDecoder(100), Payment_Request.getBytes(), 10);
+  }
+
+  @Test(expected = MessageException.class)
+  public void testDecodeUnknownMessage() throws IOException, ParseException {
+    decode(factory.newDecoder(4096), "ISO0150000770990".getBytes(), 4);
+  }
+
+  /** @return the messages decoded from <code>data</code>, passed to the decoder in chunks */
+  private static List<Message> decode(final MessageDecoder decoder, final byte[] data, final int chunk)
+      throws IOException, ParseException {
+    final List<Message> result = new ArrayList<>();
+    for (int offset = 0; offset < data.length; offset += chunk) {
+      final ByteBuffer input = ByteBuffer.wrap(data, offset, Math.min(chunk, data.length - offset));
+      for (Message message = decoder.decode(input); message != null; message = decoder.decode(input)) {
+        result.add(message);
+      }
+      assertThat(input.hasRemaining(), is(false));
+    }
+    return result;
+  }
+
+}
@@ -14,6 +14,7 @@ import java.util.Set;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
 
 
 /**
@@ -21,6 +22,7 @@ import static org.hamcrest.core.Is.is;
  */
 public class TestMessageFactory {
   private static final MTI RequestMessage = MTI.create(0x0200);
+  private static final MTI ResponseMessage = MTI.create(0x0210);
   private MessageFactory factory;
 
   @Test
@@ -106,6 +108,76 @@ public class TestMessageFactory {
     message.removeField(3);
   }
 
+  @Test
+  public void testDuplicateSharesFields() {
+    addResponseTemplate();
+    final Message request = factory.create(RequestMessage);
+    request.setFieldValue(2, BigInteger.TEN);
+
+    final Message response = factory.duplicate(ResponseMessage, request);
+    assertThat(response.getMTI(), is(ResponseMessage));
+    assertThat((BigInteger) response.getFieldValue(2), is(BigInteger.TEN));
+    assertThat(response.getFieldValue(3), is(nullValue()));
+
+    // changing either message does not affect the other:
+    response.setFieldValue(2, BigInteger.ONE);
+    assertThat((BigInteger) request.getFieldValue(2), is(BigInteger.TEN));
+    final Message copy = factory.duplicate(ResponseMessage, request);
+    request.removeField(2);
+    assertThat((BigInteger) copy.getFieldValue(2), is(BigInteger.TEN));
+  }
+
+  @Test
+  public void testDuplicateCommonFields() {
+    addResponseTemplate();
+    final Message response = factory.create(ResponseMessage);
+    response.setFieldValue(2, BigInteger.ONE);
+    response.setFieldValue(3, BigInteger.TEN);
+
+    final Message request = factory.duplicate(RequestMessage, response);
+    assertThat(request.getFields().size(), is(1));
+    assertThat((BigInteger) request.getFields().get(2), is(BigInteger.ONE));
+    assertThat(response.getFields().size(), is(2));
+  }
+
+  @Test
+  public void testDuplicateCopiesOnWrite() {
+    addResponseTemplate();
+    final Message request = factory.create(RequestMessage);
+    request.setFieldValue(2, BigInteger.TEN);
+
+    final Message response = factory.duplicate(ResponseMessage, request);
+    // nothing is copied until a message is changed:
+    assertThat(response.isShared(), is(true));
+    assertThat(request.isShared(), is(true));
+    response.getFields();
+    assertThat(response.isShared(), is(true));
+    response.setFieldValue(3, BigInteger.ONE);
+    assertThat(response.isShared(), is(false));
+    assertThat(request.getFields().size(), is(1));
+    request.setFieldValue(2, BigInteger.ONE);
+    assertThat((BigInteger) response.getFieldValue(2), is(BigInteger.TEN));
+  }
+
+  @Test
+  public void testDuplicateNoTemplate() {
+    addResponseTemplate();
+    final Message source = new Message(RequestMessage, "ISO015000077");
+    source.getFields().put(2, BigInteger.TEN);
+    source.getFields().put(4, BigInteger.ONE);
+
+    final Message response = factory.duplicate(ResponseMessage, source);
+    assertThat(response.getFields().size(), is(1));
+    assertThat((BigInteger) response.getFieldValue(2), is(BigInteger.TEN));
+  }
+
+  private void addResponseTemplate() {
+    final MessageTemplate template = MessageTemplate.create("ISO015000077", ResponseMessage, BitmapType.HEX);
+    template.addField(FieldTemplate.localBuilder(template).get().f(2).type(FieldType.NUMERIC).dim("fixed(6)").name("TestField").build());
+    template.addField(FieldTemplate.localBuilder(template).get().f(3).type(FieldType.NUMERIC).dim("fixed(6)").name("ResponseField").build());
+    factory.addMessage(template);
+  }
+
   private static final String MESSAGE_FACTORY_DESCRIPTION =
       "MessageFactory id=testFactory desc='Test Message Schema' "
           + "header=ISO015000077 contentType=TEXT charset=US-ASCII bitmapType=HEX messages# 1";
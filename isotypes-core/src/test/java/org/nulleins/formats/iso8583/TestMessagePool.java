@@ -0,0 +1,96 @@
+package org.nulleins.formats.iso8583;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.schema.MessageConfig;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+
+/**
+ * @author phillipsr
+ */
+public class TestMessagePool {
+  private static final String Payment_Request =
+      "ISO01500007702007238000108A18000165264391220494002305700000000032000"
+          + "121022021393716600021312111181800601368034522937166CIB08520263     CIB-57357"
+          + "HOSPITAL     CAIRO          EG01120167124377818";
+
+  private final MessageFactory factory = MessageConfig.configure("streamedMessageTest.conf");
+
+  @Test
+  public void testReset() throws ParseException, IOException {
+    final Message message = factory.parse(ByteBuffer.wrap(Payment_Request.getBytes()), FieldSelector.of(2, 11));
+    message.setLong(4, 100);
+    message.reset();
+    assertThat(message.getFields().isEmpty(), is(true));
+    assertThat(message.getSkippedFields().isEmpty(), is(true));
+    assertThat(message.hasValue(4), is(false));
+    assertThat(message.getMTI(), is(factory.getTemplate(message.getMTI()).getMessageTypeIndicator()));
+  }
+
+  @Test
+  public void testParseInto() throws ParseException, IOException {
+    final Message target = factory.parse(ByteBuffer.wrap(Payment_Request.getBytes()), FieldSelector.of(2, 11));
+    target.setLong(4, 100);
+    final ByteBuffer input = ByteBuffer.wrap(Payment_Request.getBytes());
+    assertThat(factory.parseInto(input, target), is(sameInstance(target)));
+    assertThat(input.remaining(), is(0));
+    assertThat(target, is(factory.parse(Payment_Request.getBytes())));
+    assertThat(target.getSkippedFields().isEmpty(), is(true));
+    assertThat(target.getLong(4), is(32000L));
+    assertThat(new String(factory.getMessageData(target)), is(Payment_Request));
+  }
+
+  @Test
+  public void testTryParseInto() throws ParseException, IOException {
+    final Message target = factory.parse(Payment_Request.getBytes());
+    target.setFieldValue(41, "CIB00000001");
+    final String request = Payment_Request.substring(0, 70) + "XX" + Payment_Request.substring(72);
+    final ParseResult result = factory.tryParseInto(ByteBuffer.wrap(request.getBytes()), target);
+    assertThat(result.getMessage(), is(sameInstance(target)));
+    assertThat(result.getError(7), is(ParseResult.INVALID_VALUE));
+    assertThat((String) target.getFieldValue(41), is("CIB08520263"));
+    assertThat(target.isFieldSkipped(7), is(true));
+  }
+
+  @Test
+  public void testPoolReuse() throws ParseException, IOException {
+    final MessagePool pool = new MessagePool(factory, 1);
+    final Message first = pool.parse(ByteBuffer.wrap(Payment_Request.getBytes()));
+    final Message second = pool.parse(ByteBuffer.wrap(Payment_Request.getBytes()));
+    pool.release(first);
+    pool.release(second);
+    assertThat(pool.size(), is(1));
+    final Message reused = pool.parse(ByteBuffer.wrap(Payment_Request.getBytes()));
+    assertThat(reused, is(sameInstance(first)));
+    assertThat(pool.size(), is(0));
+    assertThat((BigInteger) reused.getFieldValue(11), is(BigInteger.valueOf(937166)));
+  }
+
+  @Test
+  public void testPoolParseFailure() throws ParseException, IOException {
+    final MessagePool pool = new MessagePool(factory, 2);
+    pool.release(factory.parse(Payment_Request.getBytes()));
+    try {
+      pool.parse(ByteBuffer.wrap(Payment_Request.substring(0, 60).getBytes()));
+    } catch (final IOException e) {
+      // message is returned to the pool, and can be reused:
+      assertThat(pool.size(), is(1));
+      return;
+    }
+    throw new AssertionError("truncated message parsed");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPoolCapacity() {
+    new MessagePool(factory, 0);
+  }
+
+}
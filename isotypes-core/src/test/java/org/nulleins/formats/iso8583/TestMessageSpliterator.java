@@ -0,0 +1,100 @@
+package org.nulleins.formats.iso8583;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.io.FrameWriter;
+import org.nulleins.formats.iso8583.io.LengthPrefix;
+import org.nulleins.formats.iso8583.schema.MessageConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+
+/**
+ * @author phillipsr
+ */
+public class TestMessageSpliterator {
+  private static final int Records = 3000;
+
+  private final MessageFactory factory = MessageConfig.configure("streamedMessageTest.conf");
+
+  @Test
+  public void testSplitBuffer() throws IOException {
+    final MessageSpliterator messages = factory.spliterator(ByteBuffer.wrap(createBatch(Records)), LengthPrefix.binary(2));
+    assertThat(messages.estimateSize(), is((long) Records));
+    final MessageSpliterator prefix = messages.trySplit();
+    assertThat(prefix.estimateSize(), is((long) Records / 2));
+    assertThat(messages.estimateSize(), is((long) Records / 2));
+    // the prefix holds the first records, in order:
+    assertThat((BigInteger) prefix.next().getFieldValue(11), is(BigInteger.ZERO));
+    assertThat((BigInteger) messages.next().getFieldValue(11), is(BigInteger.valueOf(Records / 2)));
+  }
+
+  @Test
+  public void testSplitStream() throws IOException {
+    final MessageSpliterator messages = factory.spliterator(
+        new ByteArrayInputStream(createBatch(Records)), LengthPrefix.binary(2));
+    assertThat(messages.next().getFieldValue(11), is((Object) BigInteger.ZERO));
+    final MessageSpliterator batch = messages.trySplit();
+    assertThat(batch.estimateSize(), is(1024L));
+    assertThat((BigInteger) batch.next().getFieldValue(11), is(BigInteger.ONE));
+    assertThat((BigInteger) messages.next().getFieldValue(11), is(BigInteger.valueOf(1025)));
+    assertThat(messages.trySplit().estimateSize(), is((long) Records - 1026));
+    assertThat(messages.hasNext(), is(false));
+    assertThat(messages.trySplit() == null, is(true));
+  }
+
+  @Test
+  public void testParallelStream() throws IOException {
+    assertParsedAll(factory.spliterator(new ByteArrayInputStream(createBatch(Records)), LengthPrefix.binary(2)));
+  }
+
+  @Test
+  public void testParallelBuffer() throws IOException {
+    final ByteBuffer input = ByteBuffer.allocateDirect(Records * 256);
+    input.put(createBatch(Records)).flip();
+    assertParsedAll(factory.spliterator(input, LengthPrefix.binary(2)));
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedBuffer() throws IOException {
+    final byte[] batch = createBatch(2);
+    factory.spliterator(ByteBuffer.wrap(batch, 0, batch.length - 1), LengthPrefix.binary(2));
+  }
+
+  private static void assertParsedAll(final MessageSpliterator messages) {
+    final BitSet received = new BitSet();
+    messages.forEach(new ForkJoinPool(4), new MessageSpliterator.Handler() {
+      @Override
+      public void onMessage(final Message message) {
+        synchronized (received) {
+          received.set(((BigInteger) message.getFieldValue(11)).intValue());
+        }
+      }
+    });
+    assertThat(received.cardinality(), is(Records));
+  }
+
+  private static byte[] createBatch(final int records) throws IOException {
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    final FrameWriter writer = new FrameWriter(LengthPrefix.binary(2), result);
+    for (int record = 0; record < records; record++) {
+      writer.writeFrame(request(record).getBytes());
+    }
+    return result.toByteArray();
+  }
+
+  private static String request(final int stan) {
+    return "ISO01500007702007238000108A18000165264391220494002305700000000032000"
+        + "1210220213" + String.format("%06d", stan) + "00021312111181800601368034522937166CIB08520263     CIB-57357"
+        + "HOSPITAL     CAIRO          EG01120167124377818";
+  }
+
+}
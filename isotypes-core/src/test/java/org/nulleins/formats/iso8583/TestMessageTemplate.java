@@ -1,12 +1,16 @@
 package org.nulleins.formats.iso8583;
 
 import org.junit.Test;
+import org.nulleins.formats.iso8583.io.CharMessageWriter;
+import org.nulleins.formats.iso8583.io.MessageWriter;
 import org.nulleins.formats.iso8583.types.Bitmap;
 import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.Dimension;
 import org.nulleins.formats.iso8583.types.FieldType;
 import org.nulleins.formats.iso8583.types.MTI;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -56,4 +60,18 @@ public class TestMessageTemplate {
     assertThat(Arrays.equals(BINARY_BITMAP3, template.getBitmap().asBinary(Bitmap.Id.TERTIARY)), is(true));
   }
 
+  @Test
+  public void testEncodedPrefix() throws IOException {
+    final MessageTemplate template = MessageTemplate.create("ISO015000077", PaymentRequest, BitmapType.HEX);
+    final MessageWriter writer = new CharMessageWriter(CharEncoder.ASCII);
+
+    final byte[] prefix = template.getEncodedPrefix(writer, "ISO015000077");
+    assertThat(new String(prefix), is("ISO0150000770200"));
+    assertThat(template.getEncodedPrefix(writer, "ISO015000077") == prefix, is(true));
+
+    // the cached prefix is discarded when the template's type changes:
+    template.setMessageTypeIndicator(MTI.create("0210"));
+    assertThat(new String(template.getEncodedPrefix(writer, "ISO015000077")), is("ISO0150000770210"));
+  }
+
 }
@@ -1,10 +1,14 @@
 package org.nulleins.formats.iso8583;
 
+import com.google.common.base.Function;
+import com.google.common.collect.FluentIterable;
 import org.joda.time.DateTime;
 import org.joda.time.LocalTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.junit.Test;
+import org.nulleins.formats.iso8583.io.FrameWriter;
+import org.nulleins.formats.iso8583.io.LengthPrefix;
 import org.nulleins.formats.iso8583.schema.MessageConfig;
 import org.nulleins.formats.iso8583.types.MTI;
 
@@ -12,13 +16,22 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 
 
 /**
@@ -64,6 +77,307 @@ public class TestStreamedMessage {
     assertThat((BigInteger)response.getFieldValue(49), is(BigInteger.valueOf(818)));
   }
 
+  @Test
+  public void testParseDirectBuffer() throws ParseException, IOException {
+    final byte[] data = Payment_Request.getBytes();
+    final ByteBuffer input = ByteBuffer.allocateDirect(data.length * 2);
+    input.put(data).put(data).flip();
+
+    // messages held back-to-back are parsed in turn, leaving the buffer positioned after each
+    final Message first = factory.parse(input);
+    assertThat(input.position(), is(data.length));
+    final Message second = factory.parse(input);
+    assertThat(input.hasRemaining(), is(false));
+
+    assertThat(first, is(second));
+    assertThat((BigInteger)second.getFieldValue(2), is(BigInteger.valueOf(5264391220494002L)));
+    assertThat((String)second.getFieldValue(43), is("CIB-57357HOSPITAL     CAIRO          EG0"));
+    assertThat((BigInteger)second.getFieldValue(49), is(BigInteger.valueOf(818)));
+  }
+
+  @Test
+  public void testParseArrayRange() throws ParseException, IOException {
+    final byte[] data = ("XXXX" + Payment_Request + "YYYY").getBytes();
+    final Message response = factory.parse(data, 4, Payment_Request.length());
+
+    assertThat((BigInteger)response.getFieldValue(4), is(BigInteger.valueOf(32000)));
+    assertThat((String)response.getFieldValue(41), is("CIB08520263"));
+    assertThat((BigInteger)response.getFieldValue(48), is(BigInteger.valueOf(20167124377L)));
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseTruncatedBuffer() throws ParseException, IOException {
+    final byte[] data = Payment_Request.getBytes();
+    factory.parse(data, 0, data.length - 1);
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseTruncatedBitmap() throws ParseException, IOException {
+    // the primary bitmap flags a secondary bitmap, but the buffer ends after the primary:
+    factory.parse(ByteBuffer.wrap("ISO0150000770200F238000108A18000".getBytes()));
+  }
+
+  @Test
+  public void testParseLazy() throws ParseException, IOException {
+    final byte[] data = Payment_Request.getBytes();
+    final ByteBuffer input = ByteBuffer.allocateDirect(data.length);
+    input.put(data).flip();
+
+    final Message response = factory.parseLazy(input);
+    assertThat(input.hasRemaining(), is(false));
+    assertThat(response.isDecoded(), is(false));
+    assertThat(response.toString(), is("Message mti=0200 header=ISO015000077 #field=13"));
+
+    assertThat((String)response.getFieldValue(41), is("CIB08520263"));
+    assertThat((BigInteger)response.getFieldValue(49), is(BigInteger.valueOf(818)));
+    response.setFieldValue(4, BigInteger.TEN);
+    assertThat((BigInteger)response.getFieldValue(4), is(BigInteger.TEN));
+    assertThat(response.isDecoded(), is(false));
+
+    // remaining fields are decoded when the field map is requested
+    assertThat(response.getFields().size(), is(13));
+    assertThat(response.isDecoded(), is(true));
+    assertThat((DateTime)response.getFieldValue(7), is(DATE10Formatter.parseDateTime("1210220213")));
+    assertThat((String)response.getFieldValue(43), is("CIB-57357HOSPITAL     CAIRO          EG0"));
+  }
+
+  @Test(expected = MessageException.class)
+  public void testParseLazyDefersFieldErrors() throws ParseException, IOException {
+    // the date field (7) is not valid, but is only parsed when requested:
+    final String request = Payment_Request.substring(0, 70) + "XX" + Payment_Request.substring(72);
+    final Message response = factory.parseLazy(ByteBuffer.wrap(request.getBytes()));
+    assertThat((String)response.getFieldValue(41), is("CIB08520263"));
+    response.getFieldValue(7);
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseLazyTruncatedBuffer() throws ParseException, IOException {
+    final byte[] data = Payment_Request.getBytes();
+    factory.parseLazy(ByteBuffer.wrap(data, 0, data.length - 1));
+  }
+
+  @Test
+  public void testEncodeFrame() throws ParseException, IOException {
+    final Message message = factory.parse(Payment_Request.getBytes());
+    assertThat(factory.encodedLength(message), is(Payment_Request.length()));
+
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final FrameWriter writer = new FrameWriter(LengthPrefix.binary(2), output);
+    factory.encode(message, writer.beginFrame(factory.encodedLength(message)));
+    writer.endFrame();
+    final byte[] frame = output.toByteArray();
+    assertThat(new String(frame, 2, frame.length - 2), is(Payment_Request));
+  }
+
+  @Test
+  public void testEncodeOmitsOptionalField() throws ParseException, IOException {
+    final MessageFactory optionalFactory = MessageConfig.configure(CONFIG_PATH);
+    optionalFactory.getTemplate(MTI.create("0200")).getFields().get(43).setOptional(true);
+    final Message message = optionalFactory.parse(Payment_Request.getBytes());
+    message.removeField(43);
+
+    // field 43 is dropped from the bitmap (A1 => 81), as well as from the message data:
+    final byte[] data = optionalFactory.getMessageData(message);
+    assertThat(data.length, is(Payment_Request.length() - 40));
+    assertThat(new String(data, 16, 16), is("7238000108818000"));
+    assertThat(optionalFactory.parse(data).getFields().containsKey(43), is(false));
+  }
+
+  @Test(expected = BufferOverflowException.class)
+  public void testEncodeOverflow() throws ParseException, IOException {
+    final Message message = factory.parse(Payment_Request.getBytes());
+    factory.encode(message, ByteBuffer.allocate(Payment_Request.length() - 1));
+  }
+
+  @Test
+  public void testTryParse() throws ParseException, IOException {
+    final ParseResult result = factory.tryParse(ByteBuffer.wrap(Payment_Request.getBytes()));
+    assertThat(result.isValid(), is(true));
+    assertThat(result.getMessage(), is(factory.parse(Payment_Request.getBytes())));
+  }
+
+  @Test
+  public void testTryParseCollectsFieldErrors() {
+    // the date field (7) is not valid, but the other fields are parsed:
+    final String request = Payment_Request.substring(0, 70) + "XX" + Payment_Request.substring(72);
+    final ParseResult result = factory.tryParse(ByteBuffer.wrap(request.getBytes()));
+    assertThat(result.isValid(), is(false));
+    assertThat(result.getErrorCount(), is(1));
+    assertThat(result.getError(7), is(ParseResult.INVALID_VALUE));
+    assertThat(new String(result.getRawData(7)), is(request.substring(68, 78)));
+    assertThat(result.getMessage().isFieldSkipped(7), is(true));
+    assertThat((String) result.getMessage().getFieldValue(41), is("CIB08520263"));
+  }
+
+  @Test
+  public void testTryParseInvalidNumeric() {
+    // the STAN (11), parsed as a long, is not valid, but the following fields are parsed:
+    final String request = Payment_Request.substring(0, 80) + "A" + Payment_Request.substring(81);
+    final ParseResult result = factory.tryParse(ByteBuffer.wrap(request.getBytes()));
+    assertThat(result.getErrorCount(), is(1));
+    assertThat(result.getError(11), is(ParseResult.INVALID_VALUE));
+    assertThat(new String(result.getRawData(11)), is(request.substring(78, 84)));
+    assertThat(result.getMessage().getLong(4), is(32000L));
+    assertThat((String) result.getMessage().getFieldValue(41), is("CIB08520263"));
+  }
+
+  @Test
+  public void testTryParseTruncated() {
+    final byte[] data = Payment_Request.getBytes();
+    final ParseResult result = factory.tryParse(ByteBuffer.wrap(data, 0, data.length - 1));
+    assertThat(result.getFailedFields().size(), is(1));
+    assertThat(result.getError(result.getFailedFields().first()), is(ParseResult.TRUNCATED));
+    assertThat((BigInteger) result.getMessage().getFieldValue(4), is(BigInteger.valueOf(32000)));
+  }
+
+  @Test
+  public void testTryParseUnknownMessage() {
+    final ParseResult result = factory.tryParse(ByteBuffer.wrap("ISO0150000770990".getBytes()));
+    assertThat(result.getMessage(), is((Message) null));
+    assertThat(result.getError(0), is(ParseResult.INVALID_TYPE));
+    assertThat(new String(result.getRawData(0)), is("0990"));
+  }
+
+  @Test(expected = MessageException.class)
+  public void testParseNotStrict() throws ParseException, IOException {
+    // lenient parsing is only by tryParse: parse throws for invalid data, whether strict or not
+    final String request = Payment_Request.substring(0, 70) + "XX" + Payment_Request.substring(72);
+    final MessageFactory lenient = MessageConfig.configure(CONFIG_PATH);
+    lenient.setStrict(false);
+    lenient.parse(ByteBuffer.wrap(request.getBytes()));
+  }
+
+  @Test
+  public void testPeek() throws ParseException, IOException {
+    // the date field (7) is not valid, but is skipped without being parsed:
+    final String request = Payment_Request.substring(0, 70) + "XX" + Payment_Request.substring(72);
+    final ByteBuffer input = ByteBuffer.wrap(request.getBytes());
+
+    final MessagePeek peek = factory.peek(input, 41, 3);
+    assertThat(input.position(), is(0));
+    assertThat(peek.getHeader(), is("ISO015000077"));
+    assertThat(peek.getMTI(), is(MTI.create("0200")));
+    assertThat(peek.getBitmap().toString(), is("7238000108A18000"));
+    assertThat(peek.isFieldPresent(49), is(true));
+    assertThat(peek.getFields().size(), is(2));
+    assertThat((BigInteger)peek.getFieldValue(3), is(BigInteger.valueOf(305700)));
+    assertThat((String)peek.getFieldValue(41), is("CIB08520263"));
+    assertThat(peek.getFieldValue(49), is((Object)null));
+  }
+
+  @Test
+  public void testPeekUnknownMessage() throws ParseException, IOException {
+    // message type can be peeked, even if not defined, if no field values are requested
+    final MessagePeek peek = factory.peek(ByteBuffer.wrap(Unknown_Request.getBytes()));
+    assertThat(peek.getMTI(), is(MTI.create("0990")));
+    assertThat(peek.getFields().isEmpty(), is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPeekInvalidField() throws ParseException, IOException {
+    factory.peek(ByteBuffer.wrap(Payment_Request.getBytes()), 193);
+  }
+
+  @Test
+  public void testParseSelectedFields() throws ParseException, IOException {
+    // the date field (7) is not valid, but is skipped without being parsed:
+    final String request = Payment_Request.substring(0, 70) + "XX" + Payment_Request.substring(72);
+    final ByteBuffer input = ByteBuffer.wrap(request.getBytes());
+
+    final Message response = factory.parse(input, FieldSelector.of(2, 41, 49));
+    assertThat(input.hasRemaining(), is(false));
+    assertThat(response.getFields().size(), is(3));
+    assertThat((BigInteger)response.getFieldValue(2), is(BigInteger.valueOf(5264391220494002L)));
+    assertThat((String)response.getFieldValue(41), is("CIB08520263"));
+    assertThat((BigInteger)response.getFieldValue(49), is(BigInteger.valueOf(818)));
+    assertThat(response.isFieldSkipped(7), is(true));
+    assertThat(response.isFieldSkipped(41), is(false));
+    assertThat(response.getSkippedFields().toString(), is("[3, 4, 7, 11, 12, 13, 32, 37, 43, 48]"));
+
+    // setting a skipped field's value means it is no longer skipped
+    response.setFieldValue(4, BigInteger.TEN);
+    assertThat(response.isFieldSkipped(4), is(false));
+    assertThat((BigInteger)response.getFieldValue(4), is(BigInteger.TEN));
+  }
+
+  @Test
+  public void testParseSelectedFieldsFromStream() throws ParseException, IOException {
+    final Message response = factory.parse(
+        new ByteArrayInputStream(Payment_Request.getBytes()), FieldSelector.of(43, 48));
+    assertThat((String)response.getFieldValue(43), is("CIB-57357HOSPITAL     CAIRO          EG0"));
+    assertThat((BigInteger)response.getFieldValue(48), is(BigInteger.valueOf(20167124377L)));
+    assertThat(response.getSkippedFields().size(), is(11));
+    assertThat(factory.parse(new ByteArrayInputStream(Payment_Request.getBytes())).getSkippedFields().isEmpty(), is(true));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testGetSkippedField() throws ParseException, IOException {
+    final Message response = factory.parse(ByteBuffer.wrap(Payment_Request.getBytes()), FieldSelector.of(2));
+    response.getFieldValue(3);
+  }
+
+  @Test
+  public void testEncodeSkippedField() throws ParseException, IOException {
+    final Message response = factory.parse(ByteBuffer.wrap(Payment_Request.getBytes()), FieldSelector.of(2, 41));
+    // the skipped fields have no value, nor raw data to be copied, so cannot be written:
+    try {
+      factory.getMessageData(response);
+      throw new AssertionError("message with skipped fields encoded");
+    } catch (final IllegalStateException e) {
+      assertThat(e.getMessage(), is("Field 3 is present in the message, but was not parsed"));
+    }
+    try {
+      factory.writeToStream(response, new ByteArrayOutputStream());
+      throw new AssertionError("message with skipped fields written");
+    } catch (final IllegalStateException e) {
+      assertThat(e.getMessage(), is("Field 3 is present in the message, but was not parsed"));
+    }
+    final ByteBuffer output = ByteBuffer.allocate(Payment_Request.length());
+    try {
+      factory.encode(response, output);
+      throw new AssertionError("message with skipped fields encoded");
+    } catch (final IllegalStateException e) {
+      assertThat(output.position(), is(0));
+    }
+
+    // once a value is set for each skipped field, the message can be written:
+    final Message request = factory.parse(Payment_Request.getBytes());
+    for (final int number : response.getSkippedFields()) {
+      response.setFieldValue(number, request.getFieldValue(number));
+    }
+    assertThat(new String(factory.getMessageData(response)), is(Payment_Request));
+  }
+
+  @Test
+  public void testStreamMessages() throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final FrameWriter writer = new FrameWriter(LengthPrefix.ascii(4), output);
+    for (int i = 0; i < 5; i++) {
+      writer.writeFrame(i == 2 ? Unknown_Request.getBytes() : Payment_Request.getBytes());
+    }
+
+    final FluentIterable<Message> messages = factory.stream(
+        Channels.newChannel(new ByteArrayInputStream(output.toByteArray())), LengthPrefix.ascii(4));
+    // messages are parsed lazily, so the undefined message is never reached:
+    final List<Object> values = messages.limit(2).transform(new Function<Message, Object>() {
+      @Override
+      public Object apply(final Message message) {
+        return message.getFieldValue(41);
+      }
+    }).toList();
+    assertThat(values.toString(), is("[CIB08520263, CIB08520263]"));
+  }
+
+  @Test(expected = MessageException.class)
+  public void testStreamUnknownMessage() throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final FrameWriter writer = new FrameWriter(LengthPrefix.binary(2), output);
+    writer.writeFrame(Payment_Request.getBytes());
+    writer.writeFrame(Unknown_Request.getBytes());
+
+    factory.stream(new ByteArrayInputStream(output.toByteArray()), LengthPrefix.binary(2)).size();
+  }
+
   @Test(expected = MessageException.class)
   public void testParseUnknownMessage()
       throws ParseException, IOException {
@@ -110,4 +424,168 @@ public class TestStreamedMessage {
     assertThat(baos.toString(), is(Payment_Request));
   }
 
+  @Test
+  public void testRawPassthrough() throws ParseException, IOException {
+    final MessageFactory passthrough = MessageConfig.configure(CONFIG_PATH);
+    passthrough.setRawPassthrough(true);
+    final byte[] data = Payment_Request.getBytes();
+    final Message message = passthrough.parse(ByteBuffer.wrap(data));
+    assertThat(new String(passthrough.getMessageData(message)), is(Payment_Request));
+
+    // the message no longer refers to the input buffer:
+    Arrays.fill(data, (byte) '0');
+    message.setFieldValue(11, BigInteger.valueOf(42));
+    assertThat(new String(passthrough.getMessageData(message)),
+        is(Payment_Request.substring(0, 78) + "000042" + Payment_Request.substring(84)));
+  }
+
+  @Test
+  public void testRawPassthroughLazy() throws ParseException, IOException {
+    final MessageFactory passthrough = MessageConfig.configure(CONFIG_PATH);
+    passthrough.setRawPassthrough(true);
+    final Message message = passthrough.parseLazy(ByteBuffer.wrap(Payment_Request.getBytes()));
+    assertThat(passthrough.encodedLength(message), is(Payment_Request.length()));
+    assertThat(new String(passthrough.getMessageData(message)), is(Payment_Request));
+    assertThat(message.isDecoded(), is(false));
+  }
+
+  @Test
+  public void testRawPassthroughSkipped() throws ParseException, IOException {
+    final MessageFactory passthrough = MessageConfig.configure(CONFIG_PATH);
+    passthrough.setRawPassthrough(true);
+    final Message message = passthrough.parse(ByteBuffer.wrap(Payment_Request.getBytes()), FieldSelector.of(2, 11));
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    passthrough.writeToStream(message, output);
+    assertThat(output.toString(), is(Payment_Request));
+  }
+
+  @Test
+  public void testRawPassthroughReplacedValue() throws ParseException, IOException {
+    final MessageFactory passthrough = MessageConfig.configure(CONFIG_PATH);
+    passthrough.setRawPassthrough(true);
+    final Message message = passthrough.parse(Payment_Request.getBytes());
+    // value replaced without going through the message is still detected:
+    message.getFields().put(11, BigInteger.valueOf(42));
+    assertThat(new String(passthrough.getMessageData(message)),
+        is(Payment_Request.substring(0, 78) + "000042" + Payment_Request.substring(84)));
+  }
+
+  @Test
+  public void testDuplicateLazy() throws ParseException, IOException {
+    final Message request = factory.parseLazy(ByteBuffer.wrap(Payment_Request.getBytes()));
+    final Message copy = factory.duplicate(request.getMTI(), request);
+    // the fields are decoded by each message when first requested, not when duplicated:
+    assertThat(request.isDecoded(), is(false));
+    assertThat(copy.isDecoded(), is(false));
+    assertThat((BigInteger) copy.getFieldValue(11), is(BigInteger.valueOf(937166)));
+    assertThat(copy.getFields().size(), is(13));
+    assertThat(request.isDecoded(), is(false));
+    assertThat(request.getFields(), is(copy.getFields()));
+  }
+
+  @Test
+  public void testPrimitiveAccessors() throws ParseException, IOException {
+    final Message message = factory.parse(Payment_Request.getBytes());
+    assertThat(message.getLong(4), is(32000L));
+    assertThat(message.getInt(11), is(937166));
+    assertThat(message.getInt(49), is(818));
+    assertThat(message.getCharSequence(41).toString(), is("CIB08520263"));
+  }
+
+  @Test
+  public void testPrimitiveAccessorsLazy() throws ParseException, IOException {
+    final Message message = factory.parseLazy(ByteBuffer.wrap(Payment_Request.getBytes()));
+    assertThat(message.getLong(4), is(32000L));
+    assertThat(message.getInt(11), is(937166));
+    assertThat(message.hasValue(49), is(true));
+    assertThat(message.isDecoded(), is(false));
+    assertThat((BigInteger) message.getFieldValue(4), is(BigInteger.valueOf(32000)));
+    assertThat(message.getFields().size(), is(13));
+  }
+
+  @Test
+  public void testSetLong() throws ParseException, IOException {
+    final Message message = factory.parse(Payment_Request.getBytes());
+    message.setLong(11, 42);
+    message.setAscii(41, "CIB00000001");
+    assertThat(message.getLong(11), is(42L));
+    assertThat((BigInteger) message.getFieldValue(11), is(BigInteger.valueOf(42)));
+    assertThat(new String(factory.getMessageData(message)),
+        is(Payment_Request.substring(0, 78) + "000042" + Payment_Request.substring(84).replace("CIB08520263", "CIB00000001")));
+  }
+
+  @Test
+  public void testBoxedValueRetained() throws ParseException, IOException {
+    final Message message = factory.parse(Payment_Request.getBytes());
+    // numeric fields are held as longs, and boxed once, when first requested:
+    final Object amount = message.getFieldValue(4);
+    assertThat(amount, is((Object) BigInteger.valueOf(32000)));
+    assertThat(message.getFieldValue(4), is(sameInstance(amount)));
+    assertThat(message.getFields().get(4), is(sameInstance(amount)));
+    message.setLong(4, 100);
+    assertThat(message.getFieldValue(4), is((Object) BigInteger.valueOf(100)));
+  }
+
+  @Test
+  public void testSetAscii() throws ParseException, IOException {
+    final Message message = factory.parse(Payment_Request.getBytes());
+    final StringBuilder terminal = new StringBuilder("CIB00000001");
+    message.setAscii(41, terminal);
+    final CharSequence held = message.getCharSequence(41);
+    terminal.setCharAt(10, '2');
+    message.setAscii(41, terminal);
+    // the characters are copied into the same holder, and converted to a String when requested:
+    assertThat(message.getCharSequence(41), is(sameInstance(held)));
+    assertThat(held.toString(), is("CIB00000002"));
+    assertThat((String) message.getFieldValue(41), is("CIB00000002"));
+    assertThat(new String(factory.getMessageData(message)),
+        is(Payment_Request.replace("CIB08520263", "CIB00000002")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetAsciiNotAscii() throws ParseException, IOException {
+    factory.parse(Payment_Request.getBytes()).setAscii(41, "CIB0000000\u00e9");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testGetLongNotIntegral() throws ParseException, IOException {
+    final Message message = factory.parse(Payment_Request.getBytes());
+    message.setFieldValue(4, new BigDecimal("1.5"));
+    message.getLong(4);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGetLongNotNumeric() throws ParseException, IOException {
+    factory.parse(Payment_Request.getBytes()).getLong(41);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetLongTooLong() throws ParseException, IOException {
+    factory.parse(Payment_Request.getBytes()).setLong(11, 1234567);
+  }
+
+  @Test
+  public void testFieldsInOrder() throws ParseException, IOException {
+    final Message message = factory.parse(Payment_Request.getBytes());
+    message.removeField(3);
+    message.setFieldValue(4, BigInteger.valueOf(100));
+    assertThat(new ArrayList<>(message.getFields().keySet()),
+        is(Arrays.asList(2, 4, 7, 11, 12, 13, 32, 37, 41, 43, 48, 49)));
+  }
+
+  @Test
+  public void testFieldMapView() throws ParseException, IOException {
+    final Message message = factory.parse(Payment_Request.getBytes());
+    final Map<Integer, Object> fields = message.getFields();
+    final Iterator<Map.Entry<Integer, Object>> entries = fields.entrySet().iterator();
+    entries.next().setValue(BigInteger.ONE);
+    entries.next();
+    entries.remove();
+    assertThat((BigInteger) message.getFieldValue(2), is(BigInteger.ONE));
+    assertThat(fields.containsKey(3), is(false));
+    assertThat(fields.size(), is(12));
+    fields.clear();
+    assertThat(message.getFields().isEmpty(), is(true));
+  }
+
 }
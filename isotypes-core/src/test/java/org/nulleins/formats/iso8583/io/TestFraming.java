@@ -0,0 +1,109 @@
+package org.nulleins.formats.iso8583.io;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.schema.MessageConfig;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+
+/**
+ * @author phillipsr
+ */
+public class TestFraming {
+  private static final String Payment_Request =
+      "ISO01500007702007238000108A18000165264391220494002305700000000032000"
+          + "121022021393716600021312111181800601368034522937166CIB08520263     CIB-57357"
+          + "HOSPITAL     CAIRO          EG01120167124377818";
+
+  private final MessageFactory factory = MessageConfig.configure("streamedMessageTest.conf");
+
+  @Test
+  public void testLengthPrefixes() throws IOException {
+    assertThat(encode(LengthPrefix.binary(2), 300), is(new byte[]{0x01, 0x2c}));
+    assertThat(encode(LengthPrefix.ascii(4), 300), is("0300".getBytes()));
+    assertThat(encode(LengthPrefix.text(4, new CharEncoder("Cp1047")), 300),
+        is(new byte[]{(byte) 0xf0, (byte) 0xf3, (byte) 0xf0, (byte) 0xf0}));
+    assertThat(encode(LengthPrefix.bcd(2), 300), is(new byte[]{0x03, 0x00}));
+
+    assertThat(LengthPrefix.binary(2).read(ByteBuffer.wrap(new byte[]{(byte) 0xff, (byte) 0xff})), is(65535));
+    assertThat(LengthPrefix.ascii(4).read(ByteBuffer.wrap("9999".getBytes())), is(9999));
+    assertThat(LengthPrefix.bcd(2).read(ByteBuffer.wrap(new byte[]{0x12, 0x34})), is(1234));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLengthExceedsPrefix() {
+    LengthPrefix.ascii(2).write(100, ByteBuffer.allocate(2));
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidTextPrefix() throws IOException {
+    LengthPrefix.ascii(4).read(ByteBuffer.wrap("03X0".getBytes()));
+  }
+
+  @Test
+  public void testStreamFrames() throws IOException, ParseException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final FrameWriter writer = new FrameWriter(LengthPrefix.binary(2), output);
+    writer.writeFrame(Payment_Request.getBytes());
+    writer.writeFrame(Payment_Request.getBytes());
+    assertThat(output.size(), is(2 * (2 + Payment_Request.length())));
+
+    final FrameReader reader = new FrameReader(LengthPrefix.binary(2), new ByteArrayInputStream(output.toByteArray()));
+    for (int i = 0; i < 2; i++) {
+      final ByteBuffer frame = reader.readFrame();
+      assertThat(frame.remaining(), is(Payment_Request.length()));
+      final Message message = factory.parse(frame);
+      assertThat((BigInteger) message.getFieldValue(49), is(BigInteger.valueOf(818)));
+    }
+    assertThat(reader.readFrame(), is((ByteBuffer) null));
+  }
+
+  @Test
+  public void testChannelFrames() throws IOException, ParseException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final FrameWriter writer = new FrameWriter(LengthPrefix.ascii(4), Channels.newChannel(output));
+    final ByteBuffer frame = writer.beginFrame(Payment_Request.length());
+    frame.put(Payment_Request.getBytes());
+    writer.endFrame();
+    assertThat(new String(output.toByteArray()), is("0" + Payment_Request.length() + Payment_Request));
+
+    final FrameReader reader = new FrameReader(
+        LengthPrefix.ascii(4), Channels.newChannel(new ByteArrayInputStream(output.toByteArray())));
+    final Message message = factory.parse(reader.readFrame());
+    assertThat((String) message.getFieldValue(41), is("CIB08520263"));
+    assertThat(reader.readFrame(), is((ByteBuffer) null));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedFrame() throws IOException {
+    final byte[] data = ("0" + Payment_Request.length() + Payment_Request).getBytes();
+    new FrameReader(LengthPrefix.ascii(4), new ByteArrayInputStream(Arrays.copyOf(data, data.length - 1))).readFrame();
+  }
+
+  @Test(expected = IOException.class)
+  public void testFrameExceedsMaximum() throws IOException {
+    final byte[] data = ("0" + Payment_Request.length() + Payment_Request).getBytes();
+    new FrameReader(LengthPrefix.ascii(4), new ByteArrayInputStream(data), 100).readFrame();
+  }
+
+  private static byte[] encode(final LengthPrefix prefix, final int length) {
+    final ByteBuffer result = ByteBuffer.allocate(prefix.getSize());
+    prefix.write(length, result);
+    return result.array();
+  }
+
+}
@@ -5,6 +5,7 @@ import org.nulleins.formats.iso8583.MessageException;
 import org.nulleins.formats.iso8583.formatters.AlphaFormatter;
 import org.nulleins.formats.iso8583.formatters.TypeFormatter;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.util.Arrays;
@@ -99,5 +100,58 @@ public class TestAlphaTypes {
     formatter.format(FieldType.ALPHA, "TooLong".getBytes(), Dimension.parse("llvar(2)"));
   }
 
+  @Test
+  public void
+  testValidTypes() {
+    final Dimension dim = Dimension.parse("fixed(12)");
+    assertThat(formatter.isValid("Hello World", FieldType.ALPHANUMPAD, dim), is(true));
+    assertThat(formatter.isValid(" Hello\t", FieldType.ALPHA, dim), is(true));
+    assertThat(formatter.isValid("Hello World", FieldType.ALPHA, dim), is(false));
+    assertThat(formatter.isValid("A-Z/a-z!", FieldType.ALPHASYMBOL, dim), is(true));
+    assertThat(formatter.isValid("A1", FieldType.ALPHASYMBOL, dim), is(false));
+    assertThat(formatter.isValid("12-34 +", FieldType.NUMSYMBOL, dim), is(true));
+    assertThat(formatter.isValid("12a", FieldType.NUMSYMBOL, dim), is(false));
+    assertThat(formatter.isValid("caf\u00e9", FieldType.ALPHANUMSYMBOL, dim), is(false));
+    assertThat(formatter.isValid(null, FieldType.ALPHA, dim), is(false));
+  }
+
+  @Test
+  public void
+  testParseTrimmed()
+      throws ParseException {
+    final ByteBuffer data = ByteBuffer.wrap("  CIB-57357 CAIRO   ".getBytes());
+    data.position(1);
+    assertThat(formatter.parse(FieldType.ALPHANUMSYMBOL, Dimension.parse("fixed(19)"), 19, data), is("CIB-57357 CAIRO"));
+    assertThat(data.position(), is(1));
+    assertThat(formatter.tryParse(FieldType.ALPHANUM, Dimension.parse("fixed(19)"), 19, data), is((String) null));
+  }
+
+  @Test
+  public void
+  testParseEbcdic()
+      throws ParseException {
+    final CharEncoder ebcdic = new CharEncoder("Cp1047");
+    final AlphaFormatter ebcdicFormatter = new AlphaFormatter(ebcdic);
+    final ByteBuffer data = ByteBuffer.wrap(ebcdic.getBytes("CIB08520263     "));
+    assertThat(ebcdicFormatter.parse(FieldType.ALPHANUM, Dimension.parse("fixed(16)"), 16, data), is("CIB08520263"));
+    assertThat(ebcdicFormatter.tryParse(FieldType.ALPHA, Dimension.parse("fixed(16)"), 16, data), is((String) null));
+  }
+
+  @Test
+  public void
+  testFormatToBuffer() {
+    final CharEncoder ebcdic = new CharEncoder("Cp1047");
+    final ByteBuffer output = ByteBuffer.allocate(16);
+    final int length = new AlphaFormatter(ebcdic).format(FieldType.ALPHANUM, "CIB08520263", Dimension.parse("fixed(16)"), ebcdic, output);
+    assertThat(length, is(16));
+    output.flip();
+    assertThat(ebcdic.getString(output), is("CIB08520263     "));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void
+  testFormatToBufferInvalid() {
+    new AlphaFormatter(CharEncoder.ASCII).format(FieldType.ALPHA, "1234", Dimension.parse("fixed(12)"), CharEncoder.ASCII, ByteBuffer.allocate(12));
+  }
 
 }
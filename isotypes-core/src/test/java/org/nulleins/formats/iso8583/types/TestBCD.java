@@ -3,6 +3,7 @@ package org.nulleins.formats.iso8583.types;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -87,4 +88,111 @@ public class TestBCD {
     assertThat(data, is(new byte[]{(byte) 0x01, (byte) 0x23}));
   }
 
+  @Test
+  public void testZero() {
+    assertThat(BCD.valueOf(0), is(new byte[]{0x00}));
+  }
+
+  @Test
+  public void testLeadingZeros() {
+    assertThat(BCD.valueOf("012"), is(new byte[]{0x00, 0x12}));
+    assertThat(BCD.valueOf("0000"), is(new byte[]{0x00, 0x00}));
+  }
+
+  @Test
+  public void testLargeLong() {
+    long target = 1234567890123456789L; // 19 digits, beyond double precision
+    byte[] data = BCD.valueOf(target);
+    assertThat(data,
+        is(new byte[]{(byte) 0x01, (byte) 0x23, (byte) 0x45, (byte) 0x67, (byte) 0x89,
+            (byte) 0x01, (byte) 0x23, (byte) 0x45, (byte) 0x67, (byte) 0x89}));
+    assertThat(BCD.unpackLong(ByteBuffer.wrap(data), 19), is(target));
+  }
+
+  @Test
+  public void testPackUnpackOddLength() {
+    final ByteBuffer buffer = ByteBuffer.allocate(3);
+    BCD.pack("12345", buffer);
+    assertThat(buffer.position(), is(3));
+    buffer.flip();
+    final byte[] result = new byte[5];
+    BCD.unpack(buffer, 5, result, 0);
+    assertThat(new String(result), is("12345"));
+  }
+
+  @Test
+  public void testPackLongPadded() {
+    final ByteBuffer buffer = ByteBuffer.allocate(2);
+    BCD.pack(42, 4, buffer);
+    assertThat(buffer.array(), is(new byte[]{0x00, 0x42}));
+    buffer.flip();
+    assertThat(BCD.unpackLong(buffer, 4), is(42L));
+  }
+
+  @Test
+  public void testUnpackIgnoresPad() {
+    final byte[] data = {(byte) 0xf1, 0x23};
+    assertThat(BCD.unpackLong(ByteBuffer.wrap(data), 3), is(123L));
+    final byte[] result = new byte[3];
+    BCD.unpack(ByteBuffer.wrap(data), 3, result, 0);
+    assertThat(new String(result), is("123"));
+  }
+
+  @Test
+  public void testPackLeftJustified() {
+    final ByteBuffer buffer = ByteBuffer.allocate(2);
+    BCD.pack("123", BCD.Justify.LEFT, 0x0f, buffer);
+    assertThat(buffer.array(), is(new byte[]{0x12, 0x3f}));
+    buffer.flip();
+    assertThat(BCD.unpackLong(buffer, 3, BCD.Justify.LEFT), is(123L));
+
+    buffer.clear();
+    BCD.pack(42, 3, BCD.Justify.LEFT, 0x0f, buffer);
+    assertThat(buffer.array(), is(new byte[]{0x04, 0x2f}));
+    buffer.flip();
+    final byte[] result = new byte[3];
+    BCD.unpack(buffer, 3, BCD.Justify.LEFT, result, 0);
+    assertThat(new String(result), is("042"));
+  }
+
+  @Test
+  public void testPackRightJustifiedPad() {
+    final ByteBuffer buffer = ByteBuffer.allocate(2);
+    BCD.pack(123, 3, BCD.Justify.RIGHT, 0x0f, buffer);
+    assertThat(buffer.array(), is(new byte[]{(byte) 0xf1, 0x23}));
+    buffer.clear();
+    BCD.pack("123", BCD.Justify.RIGHT, 0x0f, buffer);
+    assertThat(buffer.array(), is(new byte[]{(byte) 0xf1, 0x23}));
+  }
+
+  @Test
+  public void testIsValid() {
+    final ByteBuffer data = ByteBuffer.wrap(new byte[]{(byte) 0xf1, 0x23});
+    assertThat(BCD.isValid(data, 3, BCD.Justify.RIGHT), is(true));
+    assertThat(BCD.isValid(data, 4, BCD.Justify.RIGHT), is(false));
+    assertThat(BCD.isValid(ByteBuffer.wrap(new byte[]{0x12, 0x3f}), 3, BCD.Justify.LEFT), is(true));
+    assertThat(BCD.isValid(ByteBuffer.wrap(new byte[]{0x12, 0x3a}), 4, BCD.Justify.RIGHT), is(false));
+    assertThat(data.position(), is(0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnpackNonDigits() {
+    BCD.unpack(ByteBuffer.wrap(new byte[]{0x12, 0x3a}), 4, new byte[4], 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPackInvalidPad() {
+    BCD.pack("123", BCD.Justify.LEFT, 0x10, ByteBuffer.allocate(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPackNonDigits() {
+    BCD.valueOf("12A4");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPackTooManyDigits() {
+    BCD.pack(12345, 4, ByteBuffer.allocate(2));
+  }
+
 }
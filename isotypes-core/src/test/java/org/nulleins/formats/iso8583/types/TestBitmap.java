@@ -3,6 +3,9 @@ package org.nulleins.formats.iso8583.types;
 import org.junit.Test;
 import org.nulleins.formats.iso8583.types.Bitmap;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 
@@ -302,4 +305,65 @@ public class TestBitmap {
     Bitmap.parse("4210001102C048044210001102C048044210001102C04804");
   }
 
+  @Test
+  public void testNextPresentField() {
+    final Bitmap target = Bitmap.parse("C210001102C04804" + "8000000000000001" + "4000000000000000");
+
+    final StringBuilder fields = new StringBuilder();
+    for (int field = target.nextPresentField(2); field > 0; field = target.nextPresentField(field + 1)) {
+      fields.append(field).append(' ');
+    }
+    // bitmap indicators (fields 1 & 65) are not reported:
+    assertThat(fields.toString(), is("2 7 12 28 32 39 41 42 50 53 62 128 130 "));
+    assertThat(target.nextPresentField(131), is(-1));
+    assertThat(new Bitmap().nextPresentField(2), is(-1));
+  }
+
+  @Test
+  public void testReadWriteBuffer() {
+    final String hex = "C210001102C04804" + "8000000000000001" + "4000000000000000";
+    final ByteBuffer input = ByteBuffer.wrap((hex + "FFFF").getBytes());
+    final Bitmap target = Bitmap.readHex(input);
+    assertThat(target.toString(), is(hex));
+    assertThat(input.remaining(), is(4));
+    assertThat(target.getSize(BitmapType.HEX), is(48));
+
+    final ByteBuffer binary = ByteBuffer.allocate(target.getSize(BitmapType.BINARY));
+    target.writeBinary(binary);
+    binary.flip();
+    final Bitmap copy = Bitmap.readBinary(binary);
+    assertThat(copy.toString(), is(hex));
+    assertThat(binary.hasRemaining(), is(false));
+
+    final ByteBuffer output = ByteBuffer.allocate(48);
+    copy.writeHex(output);
+    assertThat(new String(output.array()), is(hex));
+  }
+
+  @Test
+  public void testReadBinaryLittleEndian() {
+    final String hex = "C210001102C04804" + "8000000000000001" + "4000000000000000";
+    final ByteBuffer binary = ByteBuffer.allocate(24);
+    Bitmap.parse(hex).writeBinary(binary);
+    binary.flip();
+    // the bitmap is read a byte at a time, whatever the byte order of the caller's buffer
+    final Bitmap target = Bitmap.readBinary(binary.order(ByteOrder.LITTLE_ENDIAN));
+    assertThat(target.toString(), is(hex));
+    assertThat(binary.hasRemaining(), is(false));
+  }
+
+  @Test
+  public void testReadPrimaryOnly() {
+    final ByteBuffer input = ByteBuffer.wrap("4210001102C04804C210001102C04804".getBytes());
+    final Bitmap target = Bitmap.readHex(input);
+    assertThat(target.isBitmapPresent(Bitmap.Id.SECONDARY), is(false));
+    assertThat(input.position(), is(16));
+    assertThat(target.getSize(BitmapType.BINARY), is(8));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadNonHex() {
+    Bitmap.readHex(ByteBuffer.wrap("4210001102G04804".getBytes()));
+  }
+
 }
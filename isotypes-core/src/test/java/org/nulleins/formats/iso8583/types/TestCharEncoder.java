@@ -0,0 +1,68 @@
+package org.nulleins.formats.iso8583.types;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+
+/**
+ * @author phillipsr
+ */
+public class TestCharEncoder {
+  private static final String Text = "ISO8583 0200 Test, value=+12.50";
+  private final CharEncoder ebcdic = new CharEncoder("Cp1047");
+
+  @Test
+  public void testEbcdicRoundTrip() {
+    final byte[] data = ebcdic.getBytes(Text);
+    assertThat(data, is(Text.getBytes(Charset.forName("Cp1047"))));
+    assertThat(ebcdic.getString(data), is(Text));
+    assertThat(ebcdic.getString(ByteBuffer.wrap(data)), is(Text));
+  }
+
+  @Test
+  public void testTranscode() {
+    assertThat(ebcdic.getBytes(Text.getBytes()), is(Text.getBytes(Charset.forName("Cp1047"))));
+    assertThat(ebcdic.getEncodedLength(Text.getBytes()), is(Text.length()));
+  }
+
+  @Test
+  public void testEncodeToBuffer() {
+    final ByteBuffer output = ByteBuffer.allocate(Text.length() * 2);
+    assertThat(ebcdic.encode(Text.getBytes(), output), is(Text.length()));
+    ebcdic.encode(Text, output);
+    output.flip();
+    assertThat(ebcdic.getString(output), is(Text + Text));
+  }
+
+  @Test
+  public void testCharView() {
+    final ByteBuffer data = ByteBuffer.wrap(ebcdic.getBytes(Text));
+    data.position(8);
+    final CharSequence view = ebcdic.getChars(data);
+    assertThat(view.length(), is(Text.length() - 8));
+    assertThat(view.charAt(0), is('0'));
+    assertThat(view.subSequence(0, 4).toString(), is("0200"));
+    assertThat(view.toString(), is(Text.substring(8)));
+    assertThat(data.position(), is(8));
+  }
+
+  @Test
+  public void testUnmappable() {
+    assertThat(CharEncoder.ASCII.getBytes("café"), is("café".getBytes(Charset.forName("US-ASCII"))));
+    assertThat(CharEncoder.ASCII.getString(new byte[]{'a', (byte) 0xe9}),
+        is(new String(new byte[]{'a', (byte) 0xe9}, Charset.forName("US-ASCII"))));
+  }
+
+  @Test
+  public void testMultiByteCharset() {
+    final CharEncoder utf8 = new CharEncoder("UTF-8");
+    assertThat(utf8.getString(utf8.getBytes("café")), is("café"));
+    assertThat(utf8.getChars(ByteBuffer.wrap(utf8.getBytes("café"))).toString(), is("café"));
+  }
+
+}
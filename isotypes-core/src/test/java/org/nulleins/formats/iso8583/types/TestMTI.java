@@ -3,6 +3,10 @@ package org.nulleins.formats.iso8583.types;
 import org.junit.Test;
 import org.nulleins.formats.iso8583.types.MTI;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
@@ -58,4 +62,40 @@ public class TestMTI {
     MTI.create("02000");
   }
 
+  @Test
+  public void testInterned() {
+    assertThat(MTI.create("0200") == MTI.create(0x0200), is(true));
+    assertThat(MTI.create(0x0200).intValue(), is(0x0200));
+  }
+
+  @Test
+  public void testOrdinal() {
+    assertThat(MTI.create("0100").ordinal(), is(0));
+    assertThat(MTI.create("9995").ordinal(), is(MTI.COUNT - 1));
+  }
+
+  @Test
+  public void testReadASCII() {
+    final ByteBuffer input = ByteBuffer.wrap("0210XX".getBytes(StandardCharsets.US_ASCII));
+    assertThat(MTI.readASCII(input), is(MTI.create(0x0210)));
+    assertThat(input.position(), is(4));
+  }
+
+  @Test
+  public void testReadASCIILittleEndian() {
+    final ByteBuffer input = ByteBuffer.wrap("0210XX".getBytes(StandardCharsets.US_ASCII));
+    assertThat(MTI.readASCII(input.order(ByteOrder.LITTLE_ENDIAN)), is(MTI.create(0x0210)));
+    assertThat(input.position(), is(4));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadASCIINonNumeric() {
+    MTI.readASCII(ByteBuffer.wrap("02A0".getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMTIBinaryNonDecimal() {
+    MTI.create(0x02a0);
+  }
+
 }
@@ -5,6 +5,7 @@ import org.nulleins.formats.iso8583.formatters.NumberFormatter;
 import org.nulleins.formats.iso8583.formatters.TypeFormatter;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.text.ParsePosition;
 
@@ -146,4 +147,79 @@ public class TestNumTypes {
     }
   }
 
+  @Test
+  public void testFormatLongFixed() {
+    byte[] data = formatter.format(FieldType.NUMERIC, 123456789012345678L, Dimension.parse("FIXED(19)"));
+    assertThat(new String(data), is("0123456789012345678"));
+  }
+
+  @Test
+  public void testRoundTripBeyondLong() throws ParseException {
+    final BigInteger value = new BigInteger("12345678901234567890123");
+    final Dimension dim = Dimension.parse("FIXED(25)");
+    byte[] data = formatter.format(FieldType.NUMERIC, value, dim);
+    assertThat(new String(data), is("00" + value));
+    assertThat(formatter.parse(FieldType.NUMERIC, dim, 25, data), is(value));
+  }
+
+  @Test
+  public void testParseLong() throws ParseException {
+    final NumberFormatter numbers = new NumberFormatter(CharEncoder.ASCII);
+    final Dimension dim = Dimension.parse("FIXED(12)");
+    assertThat(numbers.parseLong(FieldType.NUMERIC, dim, 12, ByteBuffer.wrap("000000003200".getBytes())), is(3200L));
+    assertThat(numbers.parseLong(FieldType.NUMSIGNED, dim, 12, ByteBuffer.wrap("D00000003200".getBytes())), is(-3200L));
+  }
+
+  @Test
+  public void testTryParseLong() {
+    final NumberFormatter numbers = new NumberFormatter(CharEncoder.ASCII);
+    final Dimension dim = Dimension.parse("FIXED(12)");
+    assertThat(numbers.tryParseLong(FieldType.NUMERIC, dim, 12, ByteBuffer.wrap("000000003200".getBytes())), is(3200L));
+    assertThat(numbers.tryParseLong(FieldType.NUMSIGNED, dim, 12, ByteBuffer.wrap("D00000003200".getBytes())), is(-3200L));
+    assertThat(numbers.tryParseLong(FieldType.NUMERIC, dim, 12, ByteBuffer.wrap("0000000032A0".getBytes())),
+        is(NumberFormatter.INVALID_LONG));
+    assertThat(numbers.tryParseLong(FieldType.NUMSIGNED, dim, 12, ByteBuffer.wrap("X00000003200".getBytes())),
+        is(NumberFormatter.INVALID_LONG));
+    assertThat(numbers.tryParseLong(FieldType.NUMERIC, Dimension.parse("FIXED(20)"), 20,
+        ByteBuffer.wrap("99999999999999999999".getBytes())), is(NumberFormatter.INVALID_LONG));
+  }
+
+  @Test
+  public void testParseEbcdic() throws ParseException {
+    final CharEncoder ebcdic = new CharEncoder("Cp037");
+    final TypeFormatter<BigInteger> numbers = new NumberFormatter(ebcdic);
+    final byte[] data = ebcdic.getBytes("C000123");
+    assertThat(numbers.parse(FieldType.NUMSIGNED, Dimension.parse("FIXED(7)"), 7, data), is(BigInteger.valueOf(123)));
+  }
+
+  @Test(expected = ParseException.class)
+  public void testParseXNBadSign() throws ParseException {
+    formatter.parse(FieldType.NUMSIGNED, Dimension.parse("FIXED(5)"), 5, "X1234".getBytes());
+  }
+
+  @Test
+  public void testTryParseSigns() throws ParseException {
+    final Dimension dim = Dimension.parse("FIXED(5)");
+    // tryParse accepts the same signs as parse:
+    for (final String value : new String[]{"+1234", "-1234", "01234"}) {
+      assertThat(formatter.tryParse(FieldType.NUMERIC, dim, 5, ByteBuffer.wrap(value.getBytes())),
+          is(formatter.parse(FieldType.NUMERIC, dim, 5, value.getBytes())));
+    }
+    assertThat(formatter.tryParse(FieldType.NUMERIC, dim, 5, ByteBuffer.wrap("+-123".getBytes())), is((BigInteger) null));
+  }
+
+  @Test
+  public void testFormatToBuffer() {
+    final CharEncoder ebcdic = new CharEncoder("Cp037");
+    final NumberFormatter numbers = new NumberFormatter(ebcdic);
+    final ByteBuffer output = ByteBuffer.allocate(16);
+    assertThat(numbers.format(FieldType.NUMERIC, 42L, Dimension.parse("FIXED(6)"), ebcdic, output), is(6));
+    assertThat(numbers.format(FieldType.NUMSIGNED, -1200, Dimension.parse("LLVAR(9)"), ebcdic, output), is(5));
+    output.flip();
+    assertThat(ebcdic.getString(output), is("000042D1200"));
+    // values that cannot be formatted as longs are formatted as bytes:
+    assertThat(numbers.format(FieldType.NUMERIC, "42", Dimension.parse("FIXED(6)"), ebcdic, output), is(-1));
+    assertThat(numbers.getFormattedLength(FieldType.NUMSIGNED, 42, Dimension.parse("LLVAR(9)")), is(3));
+  }
+
 }